@@ -0,0 +1,46 @@
+package com.lahodiuk.bp;
+
+import java.util.Arrays;
+
+class ArrayValueStorage extends ValueStorage {
+
+	private final double[] values;
+
+	ArrayValueStorage(int capacity) {
+		this.values = new double[capacity];
+	}
+
+	private ArrayValueStorage(double[] values) {
+		this.values = values;
+	}
+
+	@Override
+	public int capacity() {
+		return this.values.length;
+	}
+
+	@Override
+	public double get(int index) {
+		return this.values[index];
+	}
+
+	@Override
+	public void set(int index, double value) {
+		this.values[index] = value;
+	}
+
+	@Override
+	ValueStorage allocate(int capacity) {
+		return new ArrayValueStorage(capacity);
+	}
+
+	@Override
+	ValueStorage grow(int capacity) {
+		return new ArrayValueStorage(Arrays.copyOf(this.values, capacity));
+	}
+
+	@Override
+	public void fill(int fromIndex, int toIndex, double value) {
+		Arrays.fill(this.values, fromIndex, toIndex, value);
+	}
+}
@@ -0,0 +1,351 @@
+package com.lahodiuk.bp;
+
+import java.util.Arrays;
+
+/**
+ * Decodes many codewords of the binary linear code at once, by the
+ * sum-product Belief Propagation over the parity checks of the code. <br/>
+ * <br/>
+ * Structure of the code is compiled once, and messages of all codewords of
+ * the batch are stored in the structure-of-arrays layout: value of the edge
+ * (or the variable) e for the codeword c is at index e * batchSize + c, so the
+ * inner loops run over the contiguous codewords. <br/>
+ * <br/>
+ * Messages are log-likelihood ratios: log(P(bit = 0) / P(bit = 1)), and
+ * messages of the checks are calculated by the "tanh rule", with the
+ * forward-backward products (so no division is needed). <br/>
+ * <br/>
+ * Decoding of the codeword stops as soon as the hard decision satisfies all
+ * parity checks. Such codeword is swapped with the last active one, so the
+ * active codewords always occupy the prefix of the batch.
+ */
+public class BatchParityCheckDecoder {
+
+	public static final int DEFAULT_MAX_ITERATIONS = 50;
+
+	/**
+	 * Limit of the absolute value of the message of the check
+	 */
+	private static final double MAX_LOG_LIKELIHOOD_RATIO = 30;
+
+	private static final double MAX_TANH = Math.tanh(MAX_LOG_LIKELIHOOD_RATIO / 2);
+
+	private final int variablesCount;
+
+	private final int checksCount;
+
+	private final int batchSize;
+
+	/**
+	 * Edges of the check k are in range [checkEdgesFrom[k], checkEdgesFrom[k +
+	 * 1])
+	 */
+	private final int[] checkEdgesFrom;
+
+	private final int[] edgeVariable;
+
+	/**
+	 * Edges of the variable v are variableEdges[variableEdgesFrom[v] ..
+	 * variableEdgesFrom[v + 1] - 1]
+	 */
+	private final int[] variableEdgesFrom;
+
+	private final int[] variableEdges;
+
+	/**
+	 * tanh(message / 2) of the messages from the variables to the checks
+	 */
+	private final double[] variableToCheck;
+
+	private final double[] checkToVariable;
+
+	private final double[] channel;
+
+	private final double[] posterior;
+
+	private final boolean[] bits;
+
+	private final double[] suffix;
+
+	private final boolean[] parity;
+
+	private final boolean[] violated;
+
+	/**
+	 * Index of the codeword, which is decoded in the given slot of the batch
+	 */
+	private final int[] slotToCodeword;
+
+	private final int[] iterations;
+
+	private int maxIterations = DEFAULT_MAX_ITERATIONS;
+
+	/**
+	 * @param checks
+	 *            indices of the variables of every parity check (XOR of the
+	 *            variables must be 0)
+	 */
+	public BatchParityCheckDecoder(int variablesCount, int[][] checks, int batchSize) {
+		this.variablesCount = variablesCount;
+		this.checksCount = checks.length;
+		this.batchSize = batchSize;
+
+		this.checkEdgesFrom = new int[this.checksCount + 1];
+		for (int k = 0; k < this.checksCount; k++) {
+			this.checkEdgesFrom[k + 1] = this.checkEdgesFrom[k] + checks[k].length;
+		}
+		int edgesCount = this.checkEdgesFrom[this.checksCount];
+
+		this.edgeVariable = new int[edgesCount];
+		this.variableEdgesFrom = new int[variablesCount + 1];
+		for (int k = 0; k < this.checksCount; k++) {
+			for (int i = 0; i < checks[k].length; i++) {
+				int variable = checks[k][i];
+				if ((variable < 0) || (variable >= variablesCount)) {
+					throw new RuntimeException("Check " + k + " refers to unknown variable " + variable);
+				}
+				this.edgeVariable[this.checkEdgesFrom[k] + i] = variable;
+				this.variableEdgesFrom[variable + 1] += 1;
+			}
+		}
+		for (int v = 0; v < variablesCount; v++) {
+			this.variableEdgesFrom[v + 1] += this.variableEdgesFrom[v];
+		}
+		this.variableEdges = new int[edgesCount];
+		int[] position = new int[variablesCount];
+		for (int e = 0; e < edgesCount; e++) {
+			int variable = this.edgeVariable[e];
+			this.variableEdges[this.variableEdgesFrom[variable] + position[variable]] = e;
+			position[variable] += 1;
+		}
+
+		this.variableToCheck = new double[edgesCount * batchSize];
+		this.checkToVariable = new double[edgesCount * batchSize];
+		this.channel = new double[variablesCount * batchSize];
+		this.posterior = new double[variablesCount * batchSize];
+		this.bits = new boolean[variablesCount * batchSize];
+		this.suffix = new double[batchSize];
+		this.parity = new boolean[batchSize];
+		this.violated = new boolean[batchSize];
+		this.slotToCodeword = new int[batchSize];
+		this.iterations = new int[batchSize];
+	}
+
+	public BatchParityCheckDecoder maxIterations(int maxIterations) {
+		this.maxIterations = maxIterations;
+		return this;
+	}
+
+	public int getVariablesCount() {
+		return this.variablesCount;
+	}
+
+	public int getChecksCount() {
+		return this.checksCount;
+	}
+
+	public int getBatchSize() {
+		return this.batchSize;
+	}
+
+	/**
+	 * Log-likelihood ratio of the bit, received through the binary symmetric
+	 * channel
+	 */
+	public static double logLikelihoodRatio(int receivedBit, double flipProbability) {
+		double logRatio = Math.log((1 - flipProbability) / flipProbability);
+		return (receivedBit == 0) ? logRatio : -logRatio;
+	}
+
+	/**
+	 * @param channelLogLikelihoodRatios
+	 *            log(P(bit = 0) / P(bit = 1)) of the received bits, the value
+	 *            of the variable v of the codeword c is at index v *
+	 *            batchSize + c
+	 * @param codewordsCount
+	 *            number of the codewords (at most batchSize)
+	 * @param decodedBits
+	 *            decoded bits (in the same layout as the input)
+	 * @return number of the codewords, for which all parity checks are
+	 *         satisfied
+	 */
+	public int decode(double[] channelLogLikelihoodRatios, int codewordsCount, boolean[] decodedBits) {
+		if (codewordsCount > this.batchSize) {
+			throw new RuntimeException("Number of the codewords " + codewordsCount + " exceeds the batch size " + this.batchSize);
+		}
+		int n = this.batchSize;
+
+		System.arraycopy(channelLogLikelihoodRatios, 0, this.channel, 0, this.channel.length);
+		Arrays.fill(this.checkToVariable, 0);
+		for (int c = 0; c < codewordsCount; c++) {
+			this.slotToCodeword[c] = c;
+		}
+
+		int active = codewordsCount;
+		for (int iteration = 0; active > 0; iteration++) {
+			this.computePosteriors(active);
+			active = this.retireDecodedCodewords(active, iteration, decodedBits);
+			if ((active == 0) || (iteration == this.maxIterations)) {
+				break;
+			}
+
+			// variable -> check (stored as tanh(message / 2), which is used by
+			// the tanh rule)
+			for (int e = 0; e < this.edgeVariable.length; e++) {
+				int posteriorOffset = this.edgeVariable[e] * n;
+				int edgeOffset = e * n;
+				for (int c = 0; c < active; c++) {
+					this.variableToCheck[edgeOffset + c] = Math.tanh((this.posterior[posteriorOffset + c] - this.checkToVariable[edgeOffset + c]) / 2);
+				}
+			}
+
+			// check -> variable
+			for (int k = 0; k < this.checksCount; k++) {
+				this.updateCheck(k, active);
+			}
+		}
+
+		// codewords, which weren't decoded within the budget of iterations
+		for (int slot = 0; slot < active; slot++) {
+			this.iterations[this.slotToCodeword[slot]] = this.maxIterations;
+			this.writeBits(slot, decodedBits);
+		}
+		return codewordsCount - active;
+	}
+
+	/**
+	 * Number of the iterations, performed for the codeword during the last
+	 * call of {@link #decode(double[], int, boolean[])}
+	 */
+	public int getIterations(int codeword) {
+		return this.iterations[codeword];
+	}
+
+	private void updateCheck(int k, int active) {
+		int n = this.batchSize;
+		int from = this.checkEdgesFrom[k];
+		int to = this.checkEdgesFrom[k + 1];
+
+		// forward pass: checkToVariable[e] := product of tanh of the preceding
+		// edges
+		double[] prefix = this.checkToVariable;
+		for (int c = 0; c < active; c++) {
+			prefix[(from * n) + c] = 1;
+		}
+		for (int e = from + 1; e < to; e++) {
+			int offset = e * n;
+			int previousOffset = offset - n;
+			for (int c = 0; c < active; c++) {
+				prefix[offset + c] = prefix[previousOffset + c] * this.variableToCheck[previousOffset + c];
+			}
+		}
+
+		// backward pass
+		for (int c = 0; c < active; c++) {
+			this.suffix[c] = 1;
+		}
+		for (int e = to - 1; e >= from; e--) {
+			int offset = e * n;
+			for (int c = 0; c < active; c++) {
+				double product = prefix[offset + c] * this.suffix[c];
+				product = Math.max(-MAX_TANH, Math.min(MAX_TANH, product));
+				this.suffix[c] *= this.variableToCheck[offset + c];
+				this.checkToVariable[offset + c] = 2 * atanh(product);
+			}
+		}
+	}
+
+	private static double atanh(double x) {
+		return 0.5 * Math.log((1 + x) / (1 - x));
+	}
+
+	private void computePosteriors(int active) {
+		int n = this.batchSize;
+		for (int v = 0; v < this.variablesCount; v++) {
+			int offset = v * n;
+			System.arraycopy(this.channel, offset, this.posterior, offset, active);
+			for (int i = this.variableEdgesFrom[v]; i < this.variableEdgesFrom[v + 1]; i++) {
+				int edgeOffset = this.variableEdges[i] * n;
+				for (int c = 0; c < active; c++) {
+					this.posterior[offset + c] += this.checkToVariable[edgeOffset + c];
+				}
+			}
+			for (int c = 0; c < active; c++) {
+				this.bits[offset + c] = this.posterior[offset + c] < 0;
+			}
+		}
+	}
+
+	/**
+	 * Codewords, which satisfy all parity checks, are written to the output
+	 * and swapped with the last active codewords
+	 *
+	 * @return number of the remaining active codewords
+	 */
+	private int retireDecodedCodewords(int active, int iteration, boolean[] decodedBits) {
+		int n = this.batchSize;
+		Arrays.fill(this.violated, 0, active, false);
+		for (int k = 0; k < this.checksCount; k++) {
+			Arrays.fill(this.parity, 0, active, false);
+			for (int e = this.checkEdgesFrom[k]; e < this.checkEdgesFrom[k + 1]; e++) {
+				int offset = this.edgeVariable[e] * n;
+				for (int c = 0; c < active; c++) {
+					this.parity[c] ^= this.bits[offset + c];
+				}
+			}
+			for (int c = 0; c < active; c++) {
+				this.violated[c] |= this.parity[c];
+			}
+		}
+
+		// slots after the current one are already processed, so the slot,
+		// which is swapped into the current one, is still active
+		for (int slot = active - 1; slot >= 0; slot--) {
+			if (!this.violated[slot]) {
+				this.iterations[this.slotToCodeword[slot]] = iteration;
+				this.writeBits(slot, decodedBits);
+				active -= 1;
+				this.swapSlots(slot, active);
+			}
+		}
+		return active;
+	}
+
+	private void swapSlots(int slot1, int slot2) {
+		if (slot1 == slot2) {
+			return;
+		}
+		int n = this.batchSize;
+		for (int e = 0; e < this.edgeVariable.length; e++) {
+			swap(this.checkToVariable, (e * n) + slot1, (e * n) + slot2);
+		}
+		for (int v = 0; v < this.variablesCount; v++) {
+			swap(this.channel, (v * n) + slot1, (v * n) + slot2);
+			swap(this.posterior, (v * n) + slot1, (v * n) + slot2);
+			swap(this.bits, (v * n) + slot1, (v * n) + slot2);
+		}
+		int codeword = this.slotToCodeword[slot1];
+		this.slotToCodeword[slot1] = this.slotToCodeword[slot2];
+		this.slotToCodeword[slot2] = codeword;
+	}
+
+	private static void swap(double[] arr, int i, int j) {
+		double tmp = arr[i];
+		arr[i] = arr[j];
+		arr[j] = tmp;
+	}
+
+	private static void swap(boolean[] arr, int i, int j) {
+		boolean tmp = arr[i];
+		arr[i] = arr[j];
+		arr[j] = tmp;
+	}
+
+	private void writeBits(int slot, boolean[] decodedBits) {
+		int n = this.batchSize;
+		int codeword = this.slotToCodeword[slot];
+		for (int v = 0; v < this.variablesCount; v++) {
+			decodedBits[(v * n) + codeword] = this.bits[(v * n) + slot];
+		}
+	}
+}
@@ -0,0 +1,277 @@
+package com.lahodiuk.bp;
+
+import gnu.trove.map.TObjectDoubleMap;
+import gnu.trove.map.hash.TObjectDoubleHashMap;
+
+import java.util.Arrays;
+
+/**
+ * Runs Belief Propagation for a batch of B assignments of the priors (e.g.
+ * what-if scenarios) over the same structure of the {@link CompiledGraph}. <br/>
+ * <br/>
+ * Priors, beliefs and messages are stored in the layout [state][batch]: value
+ * of the state s of the message m for the scenario b is at index
+ * (getMessageOffset(m) + s) * B + b. So, every lookup into the log-table of the
+ * potential is amortized across the whole batch, and the inner loops run over
+ * the contiguous scenarios. <br/>
+ * <br/>
+ * Structure, potentials and default priors are taken from the compiled graph
+ * (messages of the compiled graph aren't used).
+ */
+public class BatchedGraph {
+
+	private final CompiledGraph graph;
+
+	private final int batchSize;
+
+	private final int structureVersion;
+
+	private final double[] logPriors;
+
+	private final double[] logBeliefs;
+
+	private final double[] logMessages;
+
+	private final double[] logMessagesNew;
+
+	/**
+	 * (states of the source node x batch)
+	 */
+	private final double[] buffer;
+
+	private final double[] batchMax;
+
+	private final double[] batchSum;
+
+	private Semiring semiring = Semiring.SUM_PRODUCT;
+
+	public BatchedGraph(CompiledGraph graph, int batchSize) {
+		this.graph = graph;
+		this.batchSize = batchSize;
+		this.structureVersion = graph.getStructureVersion();
+
+		int nodesCount = graph.getNodesCount();
+		int statesCount = graph.getNodeStatesOffset(nodesCount);
+		this.logPriors = new double[statesCount * batchSize];
+		for (int i = 0; i < statesCount; i++) {
+			double logPrior = graph.getLogPrior(i);
+			for (int b = 0; b < batchSize; b++) {
+				this.logPriors[(i * batchSize) + b] = logPrior;
+			}
+		}
+		this.logBeliefs = new double[statesCount * batchSize];
+
+		int messagesStatesCount = graph.getMessageOffset(graph.getMessagesCount());
+		this.logMessages = new double[messagesStatesCount * batchSize];
+		this.logMessagesNew = new double[messagesStatesCount * batchSize];
+
+		this.buffer = new double[graph.getMaxStatesCount() * batchSize];
+		this.batchMax = new double[batchSize];
+		this.batchSum = new double[batchSize];
+	}
+
+	public CompiledGraph getGraph() {
+		return this.graph;
+	}
+
+	public int getBatchSize() {
+		return this.batchSize;
+	}
+
+	public Semiring getSemiring() {
+		return this.semiring;
+	}
+
+	public void setSemiring(Semiring semiring) {
+		this.semiring = semiring;
+	}
+
+	/**
+	 * Overrides prior probability of the state of the node in the given
+	 * scenario of the batch
+	 */
+	public <STATES> void setPriorProbability(int batch, Node<STATES> node, STATES state, double probability) {
+		int index = this.graph.getNodeIndex(node);
+		int offset = this.graph.getNodeStatesOffset(index) + this.graph.getStateIndex(index, state);
+		this.logPriors[(offset * this.batchSize) + batch] = Math.log(probability);
+	}
+
+	/**
+	 * Sweep in the same order as {@link BipartiteSchedule}: all messages node1
+	 * -> node2 are updated and committed, and afterwards - all messages node2
+	 * -> node1 (synchronous flooding of all messages at once oscillates on some
+	 * of the scenarios)
+	 */
+	public void sweep(ResidualStatistics residuals) {
+		if (this.structureVersion != this.graph.getStructureVersion()) {
+			throw new RuntimeException("Structure of the graph was changed after the batch was created");
+		}
+		this.sweep(0, residuals);
+		this.sweep(1, residuals);
+	}
+
+	private void sweep(int direction, ResidualStatistics residuals) {
+		for (int n = 0; n < this.graph.getNodesCount(); n++) {
+			this.computeLogBelief(n);
+		}
+		for (int m = direction; m < this.graph.getMessagesCount(); m += 2) {
+			this.updateMessage(m);
+		}
+		for (int m = direction; m < this.graph.getMessagesCount(); m += 2) {
+			residuals.add(this.refreshMessage(m));
+		}
+	}
+
+	private void computeLogBelief(int node) {
+		int n = this.batchSize;
+		int from = this.graph.getNodeStatesOffset(node) * n;
+		int to = this.graph.getNodeStatesOffset(node + 1) * n;
+		System.arraycopy(this.logPriors, from, this.logBeliefs, from, to - from);
+		for (int i = this.graph.getIncomingMessagesFrom(node); i < this.graph.getIncomingMessagesTo(node); i++) {
+			int offset = this.graph.getMessageOffset(this.graph.getIncomingMessage(i)) * n;
+			for (int j = from; j < to; j++) {
+				this.logBeliefs[j] += this.logMessages[(offset + j) - from];
+			}
+		}
+	}
+
+	private void updateMessage(int message) {
+		int n = this.batchSize;
+		int edge = message >> 1;
+		int source = this.graph.getMessageSource(message);
+		int target = this.graph.getMessageTarget(message);
+		int sourceStatesCount = this.graph.getStatesCount(source);
+		int targetStatesCount = this.graph.getStatesCount(target);
+
+		// log-table is stored as (states of node1 x states of node2)
+		int logPotentialOffset = this.graph.getEdgeLogPotentialOffset(edge);
+		int sourceStride;
+		int targetStride;
+		if ((message & 1) == 0) {
+			sourceStride = targetStatesCount;
+			targetStride = 1;
+		} else {
+			sourceStride = 1;
+			targetStride = sourceStatesCount;
+		}
+
+		int sourceBeliefOffset = this.graph.getNodeStatesOffset(source) * n;
+		int reverseMessageOffset = this.graph.getMessageOffset(message ^ 1) * n;
+		int offset = this.graph.getMessageOffset(message) * n;
+
+		// prior and product of incoming messages, except the message from the
+		// target node
+		for (int i = 0; i < (sourceStatesCount * n); i++) {
+			this.buffer[i] = this.logBeliefs[sourceBeliefOffset + i] - this.logMessages[reverseMessageOffset + i];
+		}
+
+		for (int t = 0; t < targetStatesCount; t++) {
+			int logPotentialRowOffset = logPotentialOffset + (t * targetStride);
+			int messageOffset = offset + (t * n);
+
+			Arrays.fill(this.batchMax, Double.NEGATIVE_INFINITY);
+			for (int s = 0; s < sourceStatesCount; s++) {
+				double logPotential = this.graph.getLogPotential(logPotentialRowOffset + (s * sourceStride));
+				int bufferOffset = s * n;
+				for (int b = 0; b < n; b++) {
+					this.batchMax[b] = Math.max(this.batchMax[b], logPotential + this.buffer[bufferOffset + b]);
+				}
+			}
+
+			if (this.semiring == Semiring.MAX_PRODUCT) {
+				System.arraycopy(this.batchMax, 0, this.logMessagesNew, messageOffset, n);
+				continue;
+			}
+
+			Arrays.fill(this.batchSum, 0);
+			for (int s = 0; s < sourceStatesCount; s++) {
+				double logPotential = this.graph.getLogPotential(logPotentialRowOffset + (s * sourceStride));
+				int bufferOffset = s * n;
+				for (int b = 0; b < n; b++) {
+					this.batchSum[b] += Math.exp((logPotential + this.buffer[bufferOffset + b]) - this.batchMax[b]);
+				}
+			}
+			for (int b = 0; b < n; b++) {
+				this.logMessagesNew[messageOffset + b] = (this.batchMax[b] == Double.NEGATIVE_INFINITY)
+						? Double.NEGATIVE_INFINITY
+						: this.batchMax[b] + Math.log(this.batchSum[b]);
+			}
+		}
+	}
+
+	/**
+	 * @return maximal residual of the message across the batch
+	 */
+	private double refreshMessage(int message) {
+		int n = this.batchSize;
+		int from = this.graph.getMessageOffset(message) * n;
+		int to = this.graph.getMessageOffset(message + 1) * n;
+
+		// normalization of the message of every scenario
+		Arrays.fill(this.batchMax, Double.NEGATIVE_INFINITY);
+		for (int i = from; i < to; i += n) {
+			for (int b = 0; b < n; b++) {
+				this.batchMax[b] = Math.max(this.batchMax[b], this.logMessagesNew[i + b]);
+			}
+		}
+		if (this.semiring == Semiring.MAX_PRODUCT) {
+			System.arraycopy(this.batchMax, 0, this.batchSum, 0, n);
+		} else {
+			double[] sum = this.batchSum;
+			Arrays.fill(sum, 0);
+			for (int i = from; i < to; i += n) {
+				for (int b = 0; b < n; b++) {
+					sum[b] += Math.exp(this.logMessagesNew[i + b] - this.batchMax[b]);
+				}
+			}
+			for (int b = 0; b < n; b++) {
+				sum[b] = this.batchMax[b] + Math.log(sum[b]);
+			}
+		}
+
+		double residual = 0;
+		for (int i = from; i < to; i += n) {
+			for (int b = 0; b < n; b++) {
+				double logMessage = this.logMessagesNew[i + b] - this.batchSum[b];
+				residual = Math.max(residual, ResidualStatistics.residual(this.logMessages[i + b], logMessage));
+				this.logMessages[i + b] = logMessage;
+			}
+		}
+		return residual;
+	}
+
+	@SuppressWarnings("unchecked")
+	public <STATES> TObjectDoubleMap<STATES> getPosteriorProbabilities(int batch, Node<STATES> node) {
+		double[] logBelief = this.computeLogBelief(batch, this.graph.getNodeIndex(node));
+		Object[] states = this.graph.getDomain(this.graph.getNodeIndex(node)).getStates();
+
+		double sum = Edge.logOfSum(logBelief);
+		TObjectDoubleMap<STATES> stateToProbability = new TObjectDoubleHashMap<>();
+		for (int s = 0; s < states.length; s++) {
+			stateToProbability.put((STATES) states[s], Math.exp(logBelief[s] - sum));
+		}
+		return stateToProbability;
+	}
+
+	@SuppressWarnings("unchecked")
+	public <STATES> STATES getMostProbableState(int batch, Node<STATES> node) {
+		double[] logBelief = this.computeLogBelief(batch, this.graph.getNodeIndex(node));
+		int mostProbableState = 0;
+		for (int s = 1; s < logBelief.length; s++) {
+			if (logBelief[s] > logBelief[mostProbableState]) {
+				mostProbableState = s;
+			}
+		}
+		return (STATES) this.graph.getDomain(this.graph.getNodeIndex(node)).get(mostProbableState);
+	}
+
+	private double[] computeLogBelief(int batch, int node) {
+		this.computeLogBelief(node);
+		int from = this.graph.getNodeStatesOffset(node);
+		double[] logBelief = new double[this.graph.getStatesCount(node)];
+		for (int s = 0; s < logBelief.length; s++) {
+			logBelief[s] = this.logBeliefs[((from + s) * this.batchSize) + batch];
+		}
+		return logBelief;
+	}
+}
@@ -0,0 +1,27 @@
+package com.lahodiuk.bp;
+
+/**
+ * Two-phase schedule: <br/>
+ * 1) node1 -> node2 (all messages are calculated and committed) <br/>
+ * 2) node1 <- node2 (all messages are calculated and committed) <br/>
+ * <br/>
+ * Suitable for the bipartite graphs (e.g. users and products), where all
+ * node1 of the edges belong to the one part of the graph
+ */
+public class BipartiteSchedule implements Schedule {
+
+	@Override
+	public void sweep(CompiledGraph graph, double tolerance, ResidualStatistics residuals) {
+		// node1 -> node2
+		graph.updateMessagesNode1ToNode2();
+		for (int m = 0; m < graph.getMessagesCount(); m += 2) {
+			residuals.add(graph.refreshMessage(m));
+		}
+
+		// node1 <- node2
+		graph.updateMessagesNode2ToNode1();
+		for (int m = 1; m < graph.getMessagesCount(); m += 2) {
+			residuals.add(graph.refreshMessage(m));
+		}
+	}
+}
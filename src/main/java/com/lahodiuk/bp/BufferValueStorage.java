@@ -0,0 +1,74 @@
+package com.lahodiuk.bp;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+
+/**
+ * Values are stored in the sequence of buffers (segments) of
+ * {@link #SEGMENT_SIZE} values each (single buffer can't exceed 2GB, e.g.
+ * when the file is memory-mapped)
+ */
+class BufferValueStorage extends ValueStorage {
+
+	static final int SEGMENT_SHIFT = 27;
+
+	static final int SEGMENT_SIZE = 1 << SEGMENT_SHIFT;
+
+	private static final int SEGMENT_MASK = SEGMENT_SIZE - 1;
+
+	private final DoubleBuffer[] segments;
+
+	private final int capacity;
+
+	/**
+	 * @param segments
+	 *            every segment (except the last one) contains exactly
+	 *            {@link #SEGMENT_SIZE} values
+	 */
+	BufferValueStorage(DoubleBuffer[] segments, int capacity) {
+		this.segments = segments;
+		this.capacity = capacity;
+	}
+
+	static BufferValueStorage allocateDirect(int capacity) {
+		DoubleBuffer[] segments = new DoubleBuffer[getSegmentsCount(capacity)];
+		for (int i = 0; i < segments.length; i++) {
+			segments[i] = ByteBuffer.allocateDirect(getSegmentSize(capacity, i) * Double.BYTES)
+					.order(ByteOrder.nativeOrder())
+					.asDoubleBuffer();
+		}
+		return new BufferValueStorage(segments, capacity);
+	}
+
+	static int getSegmentsCount(int capacity) {
+		return (capacity + SEGMENT_SIZE - 1) >>> SEGMENT_SHIFT;
+	}
+
+	static int getSegmentSize(int capacity, int segment) {
+		return Math.min(SEGMENT_SIZE, capacity - (segment << SEGMENT_SHIFT));
+	}
+
+	@Override
+	public int capacity() {
+		return this.capacity;
+	}
+
+	@Override
+	public double get(int index) {
+		return this.segments[index >>> SEGMENT_SHIFT].get(index & SEGMENT_MASK);
+	}
+
+	@Override
+	public void set(int index, double value) {
+		this.segments[index >>> SEGMENT_SHIFT].put(index & SEGMENT_MASK, value);
+	}
+
+	/**
+	 * Graph, which grows beyond the mapped file, continues off the heap
+	 */
+	@Override
+	ValueStorage allocate(int capacity) {
+		return allocateDirect(capacity);
+	}
+}
@@ -0,0 +1,150 @@
+package com.lahodiuk.bp;
+
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Parallel asynchronous (Gauss-Seidel) schedule. <br/>
+ * <br/>
+ * Nodes of the graph are colored greedily, such that adjacent nodes have
+ * different colors (for the 4-connected grids it gives red/black
+ * checkerboard). Colors are processed one after another: all nodes of the
+ * same color calculate their outgoing messages in parallel and commit them
+ * immediately. <br/>
+ * <br/>
+ * Nodes of the same color are not adjacent, so none of them reads beliefs or
+ * messages, which are written by another node of the same color. Hence, the
+ * result doesn't depend on the number of threads. <br/>
+ * <br/>
+ * Schedule, created with the number of threads, owns its pool, and should be
+ * closed after use (see {@link ParallelFloodingSchedule}).
+ */
+public class ColoredSchedule implements Schedule, AutoCloseable {
+
+	private final ForkJoinPool pool;
+
+	private final int granularity;
+
+	/**
+	 * Pool is created by the schedule, so it is shut down by {@link #close()}
+	 */
+	private final boolean poolIsOwned;
+
+	private CompiledGraph graph;
+
+	private int structureVersion;
+
+	/**
+	 * Nodes of the color c are stored in range [colorOffset[c],
+	 * colorOffset[c + 1])
+	 */
+	private int[] colorOffset;
+
+	private int[] nodesByColor;
+
+	public ColoredSchedule() {
+		this(ForkJoinPool.commonPool(), ParallelFloodingSchedule.DEFAULT_GRANULARITY);
+	}
+
+	/**
+	 * Pool of the threads is owned by the schedule, see {@link #close()}
+	 */
+	public ColoredSchedule(int threadsCount) {
+		this(new ForkJoinPool(threadsCount), ParallelFloodingSchedule.DEFAULT_GRANULARITY, true);
+	}
+
+	/**
+	 * @param granularity
+	 *            maximal number of nodes, processed by a single task
+	 */
+	public ColoredSchedule(ForkJoinPool pool, int granularity) {
+		this(pool, granularity, false);
+	}
+
+	private ColoredSchedule(ForkJoinPool pool, int granularity, boolean poolIsOwned) {
+		this.pool = pool;
+		this.granularity = granularity;
+		this.poolIsOwned = poolIsOwned;
+	}
+
+	@Override
+	public void sweep(CompiledGraph graph, double tolerance, ResidualStatistics residuals) {
+		if ((this.graph != graph) || (this.structureVersion != graph.getStructureVersion())) {
+			this.colorNodes(graph);
+		}
+
+		for (int c = 0; c < this.getColorsCount(); c++) {
+			residuals.merge(this.pool.invoke(new RangeTask((from, to, buffer, rangeResiduals) -> {
+				for (int i = from; i < to; i++) {
+					int node = this.nodesByColor[i];
+					graph.ensureLogBelief(node);
+					for (int j = graph.getIncomingMessagesFrom(node); j < graph.getIncomingMessagesTo(node); j++) {
+						int outgoingMessage = graph.getIncomingMessage(j) ^ 1;
+						graph.updateMessage(outgoingMessage, buffer);
+						rangeResiduals.add(graph.refreshMessage(outgoingMessage));
+					}
+				}
+			}, this.colorOffset[c], this.colorOffset[c + 1], this.granularity, graph.getScratchSize())));
+		}
+	}
+
+	/**
+	 * Greedy coloring: every node gets the smallest color, which is not used
+	 * by already colored neighbours
+	 */
+	private void colorNodes(CompiledGraph graph) {
+		int nodesCount = graph.getNodesCount();
+		int[] nodeColor = new int[nodesCount];
+		// usedByNeighbour[c] == node + 1, if color c is used by some neighbour
+		// of the node
+		int[] usedByNeighbour = new int[nodesCount + 1];
+		int colorsCount = 0;
+
+		for (int node = 0; node < nodesCount; node++) {
+			for (int j = graph.getIncomingMessagesFrom(node); j < graph.getIncomingMessagesTo(node); j++) {
+				int neighbour = graph.getMessageSource(graph.getIncomingMessage(j));
+				if (neighbour < node) {
+					usedByNeighbour[nodeColor[neighbour]] = node + 1;
+				}
+			}
+			int color = 0;
+			while (usedByNeighbour[color] == (node + 1)) {
+				color += 1;
+			}
+			nodeColor[node] = color;
+			colorsCount = Math.max(colorsCount, color + 1);
+		}
+
+		this.colorOffset = new int[colorsCount + 1];
+		for (int node = 0; node < nodesCount; node++) {
+			this.colorOffset[nodeColor[node] + 1] += 1;
+		}
+		for (int c = 0; c < colorsCount; c++) {
+			this.colorOffset[c + 1] += this.colorOffset[c];
+		}
+		this.nodesByColor = new int[nodesCount];
+		int[] position = new int[colorsCount];
+		for (int node = 0; node < nodesCount; node++) {
+			int color = nodeColor[node];
+			this.nodesByColor[this.colorOffset[color] + position[color]] = node;
+			position[color] += 1;
+		}
+
+		this.graph = graph;
+		this.structureVersion = graph.getStructureVersion();
+	}
+
+	public int getColorsCount() {
+		return this.colorOffset.length - 1;
+	}
+
+	/**
+	 * Shuts down the pool, if it was created by the schedule (the pool, passed
+	 * by the caller, is left running)
+	 */
+	@Override
+	public void close() {
+		if (this.poolIsOwned) {
+			this.pool.shutdown();
+		}
+	}
+}
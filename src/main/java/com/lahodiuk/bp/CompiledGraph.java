@@ -0,0 +1,1417 @@
+package com.lahodiuk.bp;
+
+import gnu.trove.list.array.TIntArrayList;
+import gnu.trove.map.TObjectDoubleMap;
+import gnu.trove.map.hash.TObjectDoubleHashMap;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Dense representation of the Pairwise Markov Random Field, which is compiled
+ * from the graph of {@link Node} and {@link Edge} objects. <br/>
+ * <br/>
+ * Every state of the node gets an int index within the domain of the node (see
+ * {@link Node#getDomain()}), and all messages are kept in a single contiguous
+ * array, addressed by the offsets of the directed messages: <br/>
+ * message (2 * e) - is a message node1 -> node2 of the edge e <br/>
+ * message (2 * e + 1) - is a message node2 -> node1 of the edge e <br/>
+ * <br/>
+ * Nodes and edges are still used as a modelling front end: priors and
+ * potentials are taken from them, and messages can be written back via
+ * {@link #writeMessagesToEdges()}. <br/>
+ * <br/>
+ * Logarithm of the prior probability and product of incoming messages (belief)
+ * is cached per node, and invalidated only when one of the incoming messages of
+ * the node is committed. So, all outgoing messages of the node of degree d are
+ * calculated in O(d * S), instead of O(d^2 * S). <br/>
+ * <br/>
+ * Potentials are materialized once into dense log-tables, which are shared
+ * between the edges with the same instance of potential (see also
+ * {@link GraphCompiler#shareEqualPotentials(boolean)}). Sum-product messages
+ * across the {@link SparsePotential} are calculated from its default value and
+ * exceptions. <br/>
+ * <br/>
+ * Messages are calculated in the {@link Semiring#SUM_PRODUCT} by default, see
+ * {@link #setSemiring(Semiring)}. <br/>
+ * <br/>
+ * Graph is live: edges can be added and removed after the compilation (see
+ * {@link #addEdge(Edge)}, {@link #removeEdge(Edge)}), while messages of the
+ * rest of the graph are kept. <br/>
+ * <br/>
+ * Graph (with the current messages) can be persisted by {@link GraphSnapshot},
+ * and loaded back without rebuilding of the nodes and edges. <br/>
+ * <br/>
+ * Messages, priors, beliefs and log-tables are kept in the {@link ValueStorage}
+ * - on the heap, or off the heap (see {@link GraphCompiler#offHeap(boolean)}),
+ * messages and log-tables - optionally in the single precision (see
+ * {@link GraphCompiler#singlePrecision(boolean)}). <br/>
+ * <br/>
+ * Values are addressed by int, so the graph holds at most
+ * {@link #MAX_VALUES_COUNT} states of the messages (as well as of the priors,
+ * and of the log-tables) - otherwise {@link RuntimeException} is thrown while
+ * the graph is built.
+ *
+ * @see GraphCompiler
+ */
+public class CompiledGraph {
+
+	public static final int MAX_VALUES_COUNT = Integer.MAX_VALUE;
+
+	/**
+	 * Sparse message value, which is smaller than this fraction of the default
+	 * term, is recalculated from the dense log-table (see
+	 * {@link SparseLogTable})
+	 */
+	private static final double CANCELLATION_THRESHOLD = 1e-10;
+
+	private final List<Node<?>> nodes;
+
+	private final Map<Node<?>, Integer> nodeToIndex;
+
+	/**
+	 * Removed edges are kept (as tombstones), until they make up more than a
+	 * half of the edges, see {@link #compactEdges()}
+	 */
+	private final List<Edge<?, ?>> edges;
+
+	private final Map<Edge<?, ?>, Integer> edgeToIndex;
+
+	/**
+	 * Nodes with equal domains share the same instance of the domain (so they
+	 * share the log-tables of the potentials too)
+	 */
+	private final Map<StateDomain<?>, StateDomain<?>> domains;
+
+	private final LogPotentialTables logPotentialTables;
+
+	// arrays below have spare capacity, so the graph can grow (see
+	// addEdge(Edge))
+
+	private StateDomain<?>[] nodeDomains;
+
+	private int[] nodeStatesOffset;
+
+	private ValueStorage logPriors;
+
+	private ValueStorage logBeliefs;
+
+	private boolean[] logBeliefIsValid;
+
+	private int[] edgeNode1;
+
+	private int[] edgeNode2;
+
+	/**
+	 * Offset of the log-table (states of node1 x states of node2) of the
+	 * potential of the edge
+	 */
+	private int[] edgeLogPotentialOffset;
+
+	/**
+	 * Exceptions of the log-table of the edge, or null - if the potential of
+	 * the edge isn't a {@link SparsePotential}
+	 */
+	private SparseLogTable[] edgeSparseLogTable;
+
+	private boolean[] edgeIsRemoved;
+
+	private ValueStorage logPotentials;
+
+	/**
+	 * Number of the values of the log-tables, which are copied into the
+	 * storage
+	 */
+	private int logPotentialsCount;
+
+	private int[] messageOffset;
+
+	private ValueStorage logMessages;
+
+	private ValueStorage logMessagesNew;
+
+	/**
+	 * Adjacency: incoming messages of the node n are stored in range
+	 * [nodeIncomingMessagesOffset[n], nodeIncomingMessagesOffset[n] +
+	 * nodeIncomingMessagesCount[n]) of the nodeIncomingMessages (removed edges
+	 * are skipped). Range of every node has spare capacity, and the full range
+	 * is moved to the end of the array with the doubled capacity, so edges are
+	 * appended in amortized O(1), see {@link #appendIncomingMessage(int, int)}
+	 */
+	private int[] nodeIncomingMessagesOffset;
+
+	private int[] nodeIncomingMessagesCount;
+
+	private int[] nodeIncomingMessagesCapacity;
+
+	private int[] nodeIncomingMessages;
+
+	/**
+	 * Used part of the nodeIncomingMessages (including the ranges, abandoned
+	 * by the moved nodes)
+	 */
+	private int incomingMessagesLength;
+
+	private int abandonedIncomingMessagesLength;
+
+	private int maxStatesCount = 0;
+
+	/**
+	 * Scratch space of {@link #updateMessage(int)}, see
+	 * {@link #getScratchSize()}
+	 */
+	private double[] buffer;
+
+	private int structureVersion = 0;
+
+	private int edgeNumberingVersion = 0;
+
+	private int removedEdgesCount = 0;
+
+	/**
+	 * Nodes, which priors (or edges) were changed since the last call of
+	 * {@link #drainChangedNodes()}
+	 */
+	private final TIntArrayList changedNodes = new TIntArrayList();
+
+	private boolean[] nodeIsChanged;
+
+	private Semiring semiring = Semiring.SUM_PRODUCT;
+
+	private int semiringVersion = 0;
+
+	private int beamWidth = Integer.MAX_VALUE;
+
+	private double beamLogThreshold = Double.POSITIVE_INFINITY;
+
+	CompiledGraph(List<Edge<?, ?>> edges, GraphCompiler options) {
+		this.nodes = new ArrayList<>();
+		this.nodeToIndex = new IdentityHashMap<>();
+		this.edges = new ArrayList<>();
+		this.edgeToIndex = new IdentityHashMap<>();
+		this.domains = new HashMap<>();
+		this.logPotentialTables = new LogPotentialTables(options.isSharingEqualPotentials());
+
+		this.nodeDomains = new StateDomain<?>[0];
+		this.nodeStatesOffset = new int[1];
+		ValueStorage storage = ValueStorage.create(0, options.isOffHeap(), false);
+		ValueStorage messageStorage = ValueStorage.create(0, options.isOffHeap(), options.isSinglePrecision());
+		this.logPriors = storage;
+		this.logBeliefs = storage.allocate(0);
+		this.logBeliefIsValid = new boolean[0];
+		this.nodeIsChanged = new boolean[0];
+		this.edgeNode1 = new int[0];
+		this.edgeNode2 = new int[0];
+		this.edgeLogPotentialOffset = new int[0];
+		this.edgeSparseLogTable = new SparseLogTable[0];
+		this.edgeIsRemoved = new boolean[0];
+		this.nodeIncomingMessagesOffset = new int[0];
+		this.nodeIncomingMessagesCount = new int[0];
+		this.nodeIncomingMessagesCapacity = new int[0];
+		this.nodeIncomingMessages = new int[0];
+		this.messageOffset = new int[1];
+		this.logMessages = messageStorage;
+		this.logMessagesNew = messageStorage.allocate(0);
+		this.buffer = new double[0];
+
+		this.ensureEdgesCapacity(edges.size());
+		for (Edge<?, ?> edge : edges) {
+			this.appendEdge(edge);
+		}
+		this.logPotentials = messageStorage.allocate(this.logPotentialTables.toArray());
+		this.logPotentialsCount = this.logPotentials.capacity();
+		// ranges of the nodes are packed, after they were grown edge by edge
+		this.rebuildAdjacency();
+	}
+
+	/**
+	 * Graph, loaded from the snapshot (see {@link GraphSnapshot}), or compiled
+	 * from the {@link IntGraph}: there are no {@link Node} and {@link Edge}
+	 * objects behind it (nodes are addressed by their indices, and states are
+	 * represented by the strings or by the integers), messages are kept in the
+	 * given storage, and the rest of the values - in the storage of the same
+	 * kind, as the given storage
+	 */
+	CompiledGraph(StateDomain<?>[] nodeDomains, double[] logPriors, int[] edgeNode1, int[] edgeNode2, int[] edgeLogPotentialOffset,
+			boolean[] edgeIsRemoved, double[] logPotentials, int potentialTablesCount, ValueStorage storage, ValueStorage logMessages) {
+		int nodesCount = nodeDomains.length;
+		int edgesCount = edgeNode1.length;
+		this.nodes = new ArrayList<>(Collections.<Node<?>> nCopies(nodesCount, null));
+		this.nodeToIndex = new IdentityHashMap<>();
+		this.edges = new ArrayList<>(Collections.<Edge<?, ?>> nCopies(edgesCount, null));
+		this.edgeToIndex = new IdentityHashMap<>();
+		this.domains = new HashMap<>();
+		this.logPotentialTables = new LogPotentialTables(false);
+		this.logPotentialTables.appendLoaded(logPotentials, potentialTablesCount);
+		this.logPotentials = storage.allocate(logPotentials);
+		this.logPotentialsCount = logPotentials.length;
+
+		int maxStatesCount = 0;
+		this.nodeDomains = nodeDomains;
+		this.nodeStatesOffset = new int[nodesCount + 1];
+		for (int n = 0; n < nodesCount; n++) {
+			this.nodeStatesOffset[n + 1] = checkValuesCount((long) this.nodeStatesOffset[n] + nodeDomains[n].size());
+			maxStatesCount = Math.max(maxStatesCount, nodeDomains[n].size());
+		}
+		this.logPriors = storage.allocate(logPriors);
+		this.logBeliefs = storage.allocate(logPriors.length);
+		this.logBeliefIsValid = new boolean[nodesCount];
+		this.nodeIsChanged = new boolean[nodesCount];
+
+		this.edgeNode1 = edgeNode1;
+		this.edgeNode2 = edgeNode2;
+		this.edgeLogPotentialOffset = edgeLogPotentialOffset;
+		// potentials behind the loaded tables are unknown, so all of them are
+		// treated as dense
+		this.edgeSparseLogTable = new SparseLogTable[edgesCount];
+		this.edgeIsRemoved = edgeIsRemoved;
+		this.messageOffset = new int[(2 * edgesCount) + 1];
+		for (int e = 0; e < edgesCount; e++) {
+			this.setMessageOffsets(e);
+			if (edgeIsRemoved[e]) {
+				this.removedEdgesCount += 1;
+			}
+		}
+		if (logMessages.capacity() != this.messageOffset[2 * edgesCount]) {
+			throw new RuntimeException("Storage of the messages doesn't match the structure of the graph");
+		}
+		this.logMessages = logMessages;
+		this.logMessagesNew = storage.allocate(logMessages.capacity());
+		this.maxStatesCount = maxStatesCount;
+		this.buffer = new double[this.getScratchSize()];
+		this.rebuildAdjacency();
+	}
+
+	public static CompiledGraph compile(Collection<? extends Edge<?, ?>> edges) {
+		return new GraphCompiler().compile(edges);
+	}
+
+	/**
+	 * Adds the edge (and its nodes, which are not yet a part of the graph) to
+	 * the live graph. Already calculated messages are kept, messages of the new
+	 * edge are uniform (so they don't affect the beliefs until they are
+	 * calculated). <br/>
+	 * <br/>
+	 * Both nodes of the edge are reported as changed (see
+	 * {@link #drainChangedNodes()}), so {@link ResidualSchedule} re-propagates
+	 * only from them outward.
+	 */
+	public void addEdge(Edge<?, ?> edge) {
+		int e = this.appendEdge(edge);
+		this.appendNewLogPotentials();
+		this.markChanged(this.edgeNode1[e]);
+		this.markChanged(this.edgeNode2[e]);
+		this.structureVersion += 1;
+	}
+
+	public void addEdges(Collection<? extends Edge<?, ?>> edges) {
+		for (Edge<?, ?> edge : edges) {
+			this.addEdge(edge);
+		}
+	}
+
+	/**
+	 * Removes the edge from the live graph (messages of the rest of the edges
+	 * are kept). Index of the edge stays reserved (see
+	 * {@link #isEdgeRemoved(int)}), until removed edges make up more than a
+	 * half of the edges: then they are reclaimed, and the rest of the edges
+	 * are renumbered (see {@link #getEdgeNumberingVersion()}).
+	 */
+	public void removeEdge(Edge<?, ?> edge) {
+		Integer e = this.edgeToIndex.get(edge);
+		if (e == null) {
+			throw new RuntimeException("Edge is not a part of the compiled graph");
+		}
+		this.removeEdge(e);
+	}
+
+	/**
+	 * Same as {@link #removeEdge(Edge)}, but the edge is addressed by its index
+	 * (e.g. in the graph, loaded from the snapshot)
+	 */
+	public void removeEdge(int e) {
+		this.markEdgeRemoved(e);
+		this.compactEdgesIfSparse();
+	}
+
+	private void markEdgeRemoved(int e) {
+		if (this.edgeIsRemoved[e]) {
+			return;
+		}
+		this.edgeToIndex.remove(this.edges.get(e));
+		this.edgeIsRemoved[e] = true;
+		this.removedEdgesCount += 1;
+		// log(1) - messages of the removed edge are neutral
+		this.logMessages.fill(this.messageOffset[2 * e], this.messageOffset[(2 * e) + 2], 0);
+		this.logMessagesNew.fill(this.messageOffset[2 * e], this.messageOffset[(2 * e) + 2], 0);
+		this.logBeliefIsValid[this.edgeNode1[e]] = false;
+		this.logBeliefIsValid[this.edgeNode2[e]] = false;
+		this.markChanged(this.edgeNode1[e]);
+		this.markChanged(this.edgeNode2[e]);
+		this.removeIncomingMessage(this.edgeNode2[e], 2 * e);
+		this.removeIncomingMessage(this.edgeNode1[e], (2 * e) + 1);
+		this.structureVersion += 1;
+	}
+
+	/**
+	 * Removes all edges of the node. Node itself stays in the graph (isolated),
+	 * so indices of the nodes are stable.
+	 */
+	public void removeNode(Node<?> node) {
+		int index = this.getNodeIndex(node);
+		int[] incomingMessages = Arrays.copyOfRange(this.nodeIncomingMessages,
+				this.getIncomingMessagesFrom(index), this.getIncomingMessagesTo(index));
+		// from the last one, so every message is found at the end of the range
+		// of the node
+		for (int i = incomingMessages.length - 1; i >= 0; i--) {
+			this.markEdgeRemoved(incomingMessages[i] >> 1);
+		}
+		this.compactEdgesIfSparse();
+	}
+
+	private void compactEdgesIfSparse() {
+		if ((2 * this.removedEdgesCount) > this.edges.size()) {
+			this.compactEdges();
+		}
+	}
+
+	/**
+	 * Reclaims removed edges: the rest of the edges are moved towards the
+	 * beginning of the arrays (in the same order), and their messages are
+	 * copied into the new storage (so the file of the loaded snapshot isn't
+	 * rewritten in the new layout). Amortized over the removals, which made
+	 * the edges sparse.
+	 */
+	private void compactEdges() {
+		int edgesCount = this.edges.size();
+		ValueStorage logMessages = this.logMessages.allocate(this.logMessages.capacity());
+		ValueStorage logMessagesNew = this.logMessagesNew.allocate(this.logMessagesNew.capacity());
+		int compactedEdgesCount = 0;
+		for (int e = 0; e < edgesCount; e++) {
+			if (this.edgeIsRemoved[e]) {
+				continue;
+			}
+			int from = this.messageOffset[2 * e];
+			int to = this.messageOffset[(2 * e) + 2];
+
+			int c = compactedEdgesCount++;
+			Edge<?, ?> edge = this.edges.get(e);
+			this.edges.set(c, edge);
+			if (edge != null) {
+				this.edgeToIndex.put(edge, c);
+			}
+			this.edgeNode1[c] = this.edgeNode1[e];
+			this.edgeNode2[c] = this.edgeNode2[e];
+			this.edgeLogPotentialOffset[c] = this.edgeLogPotentialOffset[e];
+			this.edgeSparseLogTable[c] = this.edgeSparseLogTable[e];
+			this.edgeIsRemoved[c] = false;
+
+			// offsets only decrease, so the offsets of the edges, which aren't
+			// moved yet, are intact
+			int offset = this.messageOffset[2 * c];
+			for (int i = from; i < to; i++) {
+				logMessages.set((offset + i) - from, this.logMessages.get(i));
+				logMessagesNew.set((offset + i) - from, this.logMessagesNew.get(i));
+			}
+			this.setMessageOffsets(c);
+		}
+		this.logMessages = logMessages;
+		this.logMessagesNew = logMessagesNew;
+		this.edges.subList(compactedEdgesCount, edgesCount).clear();
+		Arrays.fill(this.edgeIsRemoved, compactedEdgesCount, edgesCount, false);
+		Arrays.fill(this.edgeSparseLogTable, compactedEdgesCount, edgesCount, null);
+		this.removedEdgesCount = 0;
+
+		Arrays.fill(this.logBeliefIsValid, false);
+		this.rebuildAdjacency();
+		this.structureVersion += 1;
+		this.edgeNumberingVersion += 1;
+	}
+
+	public boolean isEdgeRemoved(int edge) {
+		return this.edgeIsRemoved[edge];
+	}
+
+	/**
+	 * Incremented by every addition or removal of the edge, so schedules, which
+	 * cache the structure of the graph, know when to rebuild it
+	 */
+	public int getStructureVersion() {
+		return this.structureVersion;
+	}
+
+	/**
+	 * Incremented, when removed edges are reclaimed, and the rest of the edges
+	 * (and their messages) get new indices, so schedules, which keep the state
+	 * per message, know when to reinitialize it
+	 */
+	public int getEdgeNumberingVersion() {
+		return this.edgeNumberingVersion;
+	}
+
+	/**
+	 * @return index of the edge
+	 */
+	private int appendEdge(Edge<?, ?> edge) {
+		if (this.edgeToIndex.containsKey(edge)) {
+			throw new RuntimeException("Edge is already a part of the compiled graph");
+		}
+		int node1 = this.registerNode(edge.getNode1());
+		int node2 = this.registerNode(edge.getNode2());
+
+		int e = this.edges.size();
+		this.ensureEdgesCapacity(e + 1);
+		this.edges.add(edge);
+		this.edgeToIndex.put(edge, e);
+		this.edgeNode1[e] = node1;
+		this.edgeNode2[e] = node2;
+		this.edgeLogPotentialOffset[e] = this.logPotentialTables.getOffset(
+				edge.getPotential(), this.nodeDomains[node1], this.nodeDomains[node2]);
+		this.edgeSparseLogTable[e] = this.logPotentialTables.getSparseTable(this.edgeLogPotentialOffset[e]);
+
+		this.setMessageOffsets(e);
+		this.ensureMessageStatesCapacity(this.messageOffset[(2 * e) + 2]);
+
+		this.logBeliefIsValid[node1] = false;
+		this.logBeliefIsValid[node2] = false;
+		this.appendIncomingMessage(node2, 2 * e);
+		this.appendIncomingMessage(node1, (2 * e) + 1);
+		return e;
+	}
+
+	private void setMessageOffsets(int e) {
+		// node1 -> node2
+		this.messageOffset[(2 * e) + 1] = checkValuesCount((long) this.messageOffset[2 * e] + this.nodeDomains[this.edgeNode2[e]].size());
+		// node2 -> node1
+		this.messageOffset[(2 * e) + 2] = checkValuesCount((long) this.messageOffset[(2 * e) + 1] + this.nodeDomains[this.edgeNode1[e]].size());
+	}
+
+	/**
+	 * @return the given number of values, if they can be addressed by int
+	 */
+	static int checkValuesCount(long valuesCount) {
+		if (valuesCount > MAX_VALUES_COUNT) {
+			throw new RuntimeException("No more than " + MAX_VALUES_COUNT + " values can be addressed, required: " + valuesCount);
+		}
+		return (int) valuesCount;
+	}
+
+	private int registerNode(Node<?> node) {
+		Integer index = this.nodeToIndex.get(node);
+		if (index != null) {
+			return index;
+		}
+
+		int n = this.nodes.size();
+		this.ensureNodesCapacity(n + 1);
+		this.nodeToIndex.put(node, n);
+		this.nodes.add(node);
+
+		StateDomain<?> domain = this.domains.get(node.getDomain());
+		if (domain == null) {
+			domain = node.getDomain();
+			this.domains.put(domain, domain);
+		}
+		this.nodeDomains[n] = domain;
+		this.nodeStatesOffset[n + 1] = checkValuesCount((long) this.nodeStatesOffset[n] + domain.size());
+		this.ensureStatesCapacity(this.nodeStatesOffset[n + 1]);
+		for (int i = 0; i < domain.size(); i++) {
+			this.logPriors.set(this.nodeStatesOffset[n] + i, node.getLogPriorProbablilityNoTypeCheck(domain.get(i)));
+		}
+		if (domain.size() > this.maxStatesCount) {
+			this.maxStatesCount = domain.size();
+			this.buffer = new double[this.getScratchSize()];
+		}
+		return n;
+	}
+
+	private void ensureNodesCapacity(int nodesCount) {
+		if (this.nodeDomains.length >= nodesCount) {
+			return;
+		}
+		int capacity = Math.max(nodesCount, 2 * this.nodeDomains.length);
+		this.nodeDomains = Arrays.copyOf(this.nodeDomains, capacity);
+		this.nodeStatesOffset = Arrays.copyOf(this.nodeStatesOffset, capacity + 1);
+		this.logBeliefIsValid = Arrays.copyOf(this.logBeliefIsValid, capacity);
+		this.nodeIsChanged = Arrays.copyOf(this.nodeIsChanged, capacity);
+		this.nodeIncomingMessagesOffset = Arrays.copyOf(this.nodeIncomingMessagesOffset, capacity);
+		this.nodeIncomingMessagesCount = Arrays.copyOf(this.nodeIncomingMessagesCount, capacity);
+		this.nodeIncomingMessagesCapacity = Arrays.copyOf(this.nodeIncomingMessagesCapacity, capacity);
+	}
+
+	private void ensureStatesCapacity(int statesCount) {
+		if (this.logPriors.capacity() >= statesCount) {
+			return;
+		}
+		int capacity = Math.max(statesCount, 2 * this.logPriors.capacity());
+		this.logPriors = this.logPriors.grow(capacity);
+		this.logBeliefs = this.logBeliefs.grow(capacity);
+	}
+
+	private void ensureEdgesCapacity(int edgesCount) {
+		if (this.edgeNode1.length >= edgesCount) {
+			return;
+		}
+		int capacity = Math.max(edgesCount, 2 * this.edgeNode1.length);
+		this.edgeNode1 = Arrays.copyOf(this.edgeNode1, capacity);
+		this.edgeNode2 = Arrays.copyOf(this.edgeNode2, capacity);
+		this.edgeLogPotentialOffset = Arrays.copyOf(this.edgeLogPotentialOffset, capacity);
+		this.edgeSparseLogTable = Arrays.copyOf(this.edgeSparseLogTable, capacity);
+		this.edgeIsRemoved = Arrays.copyOf(this.edgeIsRemoved, capacity);
+		this.messageOffset = Arrays.copyOf(this.messageOffset, (2 * capacity) + 1);
+	}
+
+	/**
+	 * Copies the log-tables, which were materialized for the new edges, into
+	 * the storage of the log-tables (storage grows geometrically, so every
+	 * value is copied in amortized O(1))
+	 */
+	private void appendNewLogPotentials() {
+		int from = this.logPotentialsCount;
+		int to = this.logPotentialTables.getValuesCount();
+		if (from == to) {
+			return;
+		}
+		if (this.logPotentials.capacity() < to) {
+			this.logPotentials = this.logPotentials.grow(Math.max(to, 2 * this.logPotentials.capacity()));
+		}
+		for (int i = from; i < to; i++) {
+			this.logPotentials.set(i, this.logPotentialTables.getLogValue(i));
+		}
+		this.logPotentialsCount = to;
+	}
+
+	private void ensureMessageStatesCapacity(int statesCount) {
+		if (this.logMessages.capacity() >= statesCount) {
+			return;
+		}
+		int capacity = Math.max(statesCount, 2 * this.logMessages.capacity());
+		this.logMessages = this.logMessages.grow(capacity);
+		this.logMessagesNew = this.logMessagesNew.grow(capacity);
+	}
+
+	/**
+	 * Packs the ranges of all nodes (in order of the nodes) with a quarter of
+	 * spare capacity, and incoming messages of every node - in ascending order
+	 */
+	private void rebuildAdjacency() {
+		int nodesCount = this.nodes.size();
+		int edgesCount = this.edges.size();
+		int[] incomingMessagesCount = new int[this.nodeDomains.length];
+		for (int e = 0; e < edgesCount; e++) {
+			if (!this.edgeIsRemoved[e]) {
+				incomingMessagesCount[this.edgeNode1[e]] += 1;
+				incomingMessagesCount[this.edgeNode2[e]] += 1;
+			}
+		}
+		int[] incomingMessagesOffset = new int[this.nodeDomains.length];
+		int[] incomingMessagesCapacity = new int[this.nodeDomains.length];
+		int length = 0;
+		for (int n = 0; n < nodesCount; n++) {
+			incomingMessagesOffset[n] = length;
+			incomingMessagesCapacity[n] = incomingMessagesCount[n] + (incomingMessagesCount[n] >> 2);
+			length += incomingMessagesCapacity[n];
+		}
+		int[] incomingMessages = new int[length];
+		Arrays.fill(incomingMessagesCount, 0);
+		for (int m = 0; m < (2 * edgesCount); m++) {
+			if (this.edgeIsRemoved[m >> 1]) {
+				continue;
+			}
+			int target = this.getMessageTarget(m);
+			incomingMessages[incomingMessagesOffset[target] + incomingMessagesCount[target]] = m;
+			incomingMessagesCount[target] += 1;
+		}
+		this.nodeIncomingMessagesOffset = incomingMessagesOffset;
+		this.nodeIncomingMessagesCount = incomingMessagesCount;
+		this.nodeIncomingMessagesCapacity = incomingMessagesCapacity;
+		this.nodeIncomingMessages = incomingMessages;
+		this.incomingMessagesLength = length;
+		this.abandonedIncomingMessagesLength = 0;
+	}
+
+	private void appendIncomingMessage(int node, int message) {
+		int count = this.nodeIncomingMessagesCount[node];
+		if (count == this.nodeIncomingMessagesCapacity[node]) {
+			if (this.abandonedIncomingMessagesLength > (2 * (this.edges.size() - this.removedEdgesCount))) {
+				// abandoned ranges outweigh the adjacency itself (every move
+				// follows at least a quarter as many appends, as it abandons)
+				this.rebuildAdjacency();
+			}
+		}
+		if (count == this.nodeIncomingMessagesCapacity[node]) {
+			int capacity = Math.max(4, 2 * count);
+			int offset = this.incomingMessagesLength;
+			if (this.nodeIncomingMessages.length < (offset + capacity)) {
+				this.nodeIncomingMessages = Arrays.copyOf(this.nodeIncomingMessages,
+						Math.max(offset + capacity, 2 * this.nodeIncomingMessages.length));
+			}
+			System.arraycopy(this.nodeIncomingMessages, this.nodeIncomingMessagesOffset[node], this.nodeIncomingMessages, offset, count);
+			this.abandonedIncomingMessagesLength += this.nodeIncomingMessagesCapacity[node];
+			this.nodeIncomingMessagesOffset[node] = offset;
+			this.nodeIncomingMessagesCapacity[node] = capacity;
+			this.incomingMessagesLength += capacity;
+		}
+		this.nodeIncomingMessages[this.nodeIncomingMessagesOffset[node] + count] = message;
+		this.nodeIncomingMessagesCount[node] = count + 1;
+	}
+
+	/**
+	 * Last message of the range takes the place of the removed one (the search
+	 * starts from the end of the range)
+	 */
+	private void removeIncomingMessage(int node, int message) {
+		int from = this.nodeIncomingMessagesOffset[node];
+		int last = (from + this.nodeIncomingMessagesCount[node]) - 1;
+		for (int i = last; i >= from; i--) {
+			if (this.nodeIncomingMessages[i] == message) {
+				this.nodeIncomingMessages[i] = this.nodeIncomingMessages[last];
+				this.nodeIncomingMessagesCount[node] -= 1;
+				return;
+			}
+		}
+	}
+
+	public Semiring getSemiring() {
+		return this.semiring;
+	}
+
+	/**
+	 * Semiring, in which subsequent updates of the messages are calculated
+	 * (already committed messages are kept, and serve as the initialization)
+	 */
+	public void setSemiring(Semiring semiring) {
+		if (this.semiring != semiring) {
+			this.semiring = semiring;
+			this.semiringVersion += 1;
+		}
+	}
+
+	/**
+	 * Incremented by every change of the semiring, so schedules, which
+	 * calculate some messages only once (or keep pending messages), know when
+	 * to recalculate them
+	 */
+	public int getSemiringVersion() {
+		return this.semiringVersion;
+	}
+
+	/**
+	 * Beam pruning of the messages: only the most probable states of the
+	 * source node contribute to the message. Probability of the state is taken
+	 * from the belief of the source node without the message from the target
+	 * node, and pruning is repeated by every update of the message - so the
+	 * pruned state is re-admitted as soon as its probability grows. <br/>
+	 * <br/>
+	 * Message from the node with S1 states to the node with S2 states is
+	 * calculated in O(S1 * log(S1) + width * S2), instead of O(S1 * S2).
+	 *
+	 * @param width
+	 *            maximal number of the states of the source node, which
+	 *            contribute to the message (unless there are ties)
+	 * @param logThreshold
+	 *            states, which logarithm of probability is lower than the one
+	 *            of the most probable state by more than the threshold, don't
+	 *            contribute to the message
+	 */
+	public void setBeam(int width, double logThreshold) {
+		if (width < 1) {
+			throw new RuntimeException("Width of the beam must be positive: " + width);
+		}
+		this.beamWidth = width;
+		this.beamLogThreshold = logThreshold;
+	}
+
+	/**
+	 * All states of the source nodes contribute to the messages (default)
+	 */
+	public void disableBeam() {
+		this.setBeam(Integer.MAX_VALUE, Double.POSITIVE_INFINITY);
+	}
+
+	public boolean isBeamEnabled() {
+		return (this.beamWidth != Integer.MAX_VALUE) || (this.beamLogThreshold != Double.POSITIVE_INFINITY);
+	}
+
+	public int getNodesCount() {
+		return this.nodes.size();
+	}
+
+	/**
+	 * Including the removed edges, see {@link #isEdgeRemoved(int)}
+	 */
+	public int getEdgesCount() {
+		return this.edges.size();
+	}
+
+	public int getMessagesCount() {
+		return 2 * this.edges.size();
+	}
+
+	public int getNodeIndex(Node<?> node) {
+		Integer index = this.nodeToIndex.get(node);
+		if (index == null) {
+			throw new RuntimeException("Node is not a part of the compiled graph");
+		}
+		return index;
+	}
+
+	public Node<?> getNode(int node) {
+		return this.nodes.get(node);
+	}
+
+	/**
+	 * @return number of distinct log-tables, into which potentials of edges
+	 *         were materialized
+	 */
+	public int getPotentialTablesCount() {
+		return this.logPotentialTables.getTablesCount();
+	}
+
+	public int getMaxStatesCount() {
+		return this.maxStatesCount;
+	}
+
+	/**
+	 * @return size of the scratch array of {@link #updateMessage(int, double[])}
+	 */
+	public int getScratchSize() {
+		return 3 * this.maxStatesCount;
+	}
+
+	public int getStatesCount(int node) {
+		return this.nodeDomains[node].size();
+	}
+
+	/**
+	 * @return state of the node with the given index within the domain of the
+	 *         node (e.g. decoded by {@link #getMapAssignment()})
+	 */
+	@SuppressWarnings("unchecked")
+	public <STATES> STATES getState(Node<STATES> node, int stateIndex) {
+		return (STATES) this.nodeDomains[this.getNodeIndex(node)].get(stateIndex);
+	}
+
+	/**
+	 * Same as {@link #getState(Node, int)}, but the node is addressed by its
+	 * index
+	 */
+	public Object getState(int node, int stateIndex) {
+		return this.nodeDomains[node].get(stateIndex);
+	}
+
+	/**
+	 * @return index of the state within the domain of the node
+	 */
+	public int getStateIndex(int node, Object state) {
+		int index = this.nodeDomains[node].indexOf(state);
+		if (index < 0) {
+			throw new RuntimeException("State " + state + " is not a part of the domain of the node");
+		}
+		return index;
+	}
+
+	public StateDomain<?> getDomain(int node) {
+		return this.nodeDomains[node];
+	}
+
+	/**
+	 * Prior and belief of the node are stored in range
+	 * [getNodeStatesOffset(node), getNodeStatesOffset(node + 1))
+	 */
+	int getNodeStatesOffset(int node) {
+		return this.nodeStatesOffset[node];
+	}
+
+	double getLogPrior(int index) {
+		return this.logPriors.get(index);
+	}
+
+	/**
+	 * Message is stored in range [getMessageOffset(message),
+	 * getMessageOffset(message + 1))
+	 */
+	int getMessageOffset(int message) {
+		return this.messageOffset[message];
+	}
+
+	int getEdgeLogPotentialOffset(int edge) {
+		return this.edgeLogPotentialOffset[edge];
+	}
+
+	double getLogPotential(int index) {
+		return this.logPotentials.get(index);
+	}
+
+	/**
+	 * @return number of the values of the log-tables (storage of the
+	 *         log-tables may have spare capacity)
+	 */
+	int getLogPotentialsCount() {
+		return this.logPotentialTables.getValuesCount();
+	}
+
+	double getLogMessage(int index) {
+		return this.logMessages.get(index);
+	}
+
+	/**
+	 * Changes the prior probability of the state of the node (e.g. new
+	 * evidence), while the messages are kept. <br/>
+	 * <br/>
+	 * Subsequent sweeps continue from the already converged messages:
+	 * {@link ResidualSchedule} re-propagates only from the changed nodes
+	 * outward, {@link TreeSchedule} recalculates the tree components, and the
+	 * rest of the schedules simply start from the warm messages. <br/>
+	 * <br/>
+	 * Prior is changed only in the compiled graph (not in the {@link Node}),
+	 * so posteriors must be taken from the compiled graph.
+	 */
+	public <STATES> void setPriorProbability(Node<STATES> node, STATES state, double probability) {
+		this.setLogPriorProbability(this.getNodeIndex(node), this.getStateIndex(this.getNodeIndex(node), state), Math.log(probability));
+	}
+
+	public void setLogPriorProbability(int node, int stateIndex, double logProbability) {
+		this.logPriors.set(this.nodeStatesOffset[node] + stateIndex, logProbability);
+		this.logBeliefIsValid[node] = false;
+		this.markChanged(node);
+	}
+
+	private void markChanged(int node) {
+		if (!this.nodeIsChanged[node]) {
+			this.nodeIsChanged[node] = true;
+			this.changedNodes.add(node);
+		}
+	}
+
+	/**
+	 * @return nodes, which priors (or edges) were changed since the previous
+	 *         call of this method (used by the schedules, which propagate
+	 *         changes incrementally)
+	 */
+	public int[] drainChangedNodes() {
+		int[] nodes = this.changedNodes.toArray();
+		for (int node : nodes) {
+			this.nodeIsChanged[node] = false;
+		}
+		this.changedNodes.resetQuick();
+		return nodes;
+	}
+
+	/**
+	 * Incoming messages of the node are available via
+	 * {@link #getIncomingMessage(int)} for indices in range
+	 * [getIncomingMessagesFrom(node), getIncomingMessagesTo(node))
+	 */
+	public int getIncomingMessagesFrom(int node) {
+		return this.nodeIncomingMessagesOffset[node];
+	}
+
+	public int getIncomingMessagesTo(int node) {
+		return this.nodeIncomingMessagesOffset[node] + this.nodeIncomingMessagesCount[node];
+	}
+
+	public int getIncomingMessage(int index) {
+		return this.nodeIncomingMessages[index];
+	}
+
+	public int getMessageSource(int message) {
+		int edge = message >> 1;
+		return ((message & 1) == 0) ? this.edgeNode1[edge] : this.edgeNode2[edge];
+	}
+
+	public int getMessageTarget(int message) {
+		int edge = message >> 1;
+		return ((message & 1) == 0) ? this.edgeNode2[edge] : this.edgeNode1[edge];
+	}
+
+	public void updateMessages() {
+		for (int m = 0; m < this.getMessagesCount(); m++) {
+			this.updateMessage(m);
+		}
+	}
+
+	public void refreshMessages() {
+		for (int m = 0; m < this.getMessagesCount(); m++) {
+			this.refreshMessage(m);
+		}
+	}
+
+	/**
+	 * Node-centric equivalent of {@link #updateMessages()}: belief of every
+	 * node is calculated once, and all outgoing messages are derived from it
+	 */
+	public void updateMessagesByNodes() {
+		for (int n = 0; n < this.getNodesCount(); n++) {
+			this.updateOutgoingMessages(n);
+		}
+	}
+
+	/**
+	 * Calculates new values of all messages, which are sent by the given node
+	 */
+	public void updateOutgoingMessages(int node) {
+		this.ensureLogBelief(node);
+		for (int i = this.getIncomingMessagesFrom(node); i < this.getIncomingMessagesTo(node); i++) {
+			// outgoing message is the reverse of the incoming one
+			this.updateMessage(this.nodeIncomingMessages[i] ^ 1);
+		}
+	}
+
+	/**
+	 * node1 -> node2
+	 */
+	public void updateMessagesNode1ToNode2() {
+		for (int m = 0; m < this.getMessagesCount(); m += 2) {
+			this.updateMessage(m);
+		}
+	}
+
+	/**
+	 * node1 -> node2
+	 */
+	public void refreshMessagesNode1ToNode2() {
+		for (int m = 0; m < this.getMessagesCount(); m += 2) {
+			this.refreshMessage(m);
+		}
+	}
+
+	/**
+	 * node2 -> node1
+	 */
+	public void updateMessagesNode2ToNode1() {
+		for (int m = 1; m < this.getMessagesCount(); m += 2) {
+			this.updateMessage(m);
+		}
+	}
+
+	/**
+	 * node2 -> node1
+	 */
+	public void refreshMessagesNode2ToNode1() {
+		for (int m = 1; m < this.getMessagesCount(); m += 2) {
+			this.refreshMessage(m);
+		}
+	}
+
+	/**
+	 * Calculates new (not normalized) value of the message, using only already
+	 * committed messages
+	 */
+	public void updateMessage(int message) {
+		this.updateMessage(message, this.buffer);
+	}
+
+	/**
+	 * Same as {@link #updateMessage(int)}, but uses given scratch array (of
+	 * size at least {@link #getScratchSize()}). <br/>
+	 * <br/>
+	 * Different messages can be updated concurrently, if every thread uses its
+	 * own scratch array, and beliefs of the source nodes were calculated
+	 * beforehand (see {@link #ensureLogBelief(int)})
+	 */
+	public void updateMessage(int message, double[] buffer) {
+		int edge = message >> 1;
+		if (this.edgeIsRemoved[edge]) {
+			return;
+		}
+		int source = this.getMessageSource(message);
+		int target = this.getMessageTarget(message);
+		int sourceStatesCount = this.nodeDomains[source].size();
+		int targetStatesCount = this.nodeDomains[target].size();
+
+		// log-table is stored as (states of node1 x states of node2)
+		int logPotentialOffset = this.edgeLogPotentialOffset[edge];
+		int sourceStride;
+		int targetStride;
+		if ((message & 1) == 0) {
+			sourceStride = targetStatesCount;
+			targetStride = 1;
+		} else {
+			sourceStride = 1;
+			targetStride = sourceStatesCount;
+		}
+
+		this.ensureLogBelief(source);
+
+		int offset = this.messageOffset[message];
+		if (this.isBeamEnabled()) {
+			this.updateMessageWithinBeam(message, buffer, sourceStatesCount, targetStatesCount, sourceStride, targetStride);
+			return;
+		}
+		if ((this.edgeSparseLogTable[edge] != null) && (this.semiring == Semiring.SUM_PRODUCT)) {
+			this.updateSparseMessage(message, buffer, sourceStatesCount, targetStatesCount, sourceStride, targetStride);
+			return;
+		}
+		// prior and product of incoming messages, except the message from the
+		// target node
+		int s1 = this.maxStatesCount;
+		for (int s = 0; s < sourceStatesCount; s++) {
+			buffer[s1 + s] = this.getLogBeliefWithoutMessage(source, s, message ^ 1);
+		}
+		for (int t = 0; t < targetStatesCount; t++) {
+			int logPotentialRowOffset = logPotentialOffset + (t * targetStride);
+			for (int s = 0; s < sourceStatesCount; s++) {
+				buffer[s] = this.logPotentials.get(logPotentialRowOffset + (s * sourceStride)) + buffer[s1 + s];
+			}
+			this.logMessagesNew.set(offset + t, this.semiring.logOfSum(buffer, 0, sourceStatesCount));
+		}
+	}
+
+	/**
+	 * Logarithm of the prior and of the product of the incoming messages of
+	 * the state of the node, except the given incoming message: cached belief
+	 * without the given message. <br/>
+	 * <br/>
+	 * If the given message is zero in this state (e.g. across the hard
+	 * constraint), the belief is zero as well, and doesn't tell anything about
+	 * the rest of the product - so it is calculated directly.
+	 */
+	private double getLogBeliefWithoutMessage(int node, int s, int message) {
+		double logMessage = this.logMessages.get(this.messageOffset[message] + s);
+		if (logMessage != Double.NEGATIVE_INFINITY) {
+			return this.logBeliefs.get(this.nodeStatesOffset[node] + s) - logMessage;
+		}
+		double logBelief = this.logPriors.get(this.nodeStatesOffset[node] + s);
+		for (int i = this.getIncomingMessagesFrom(node); i < this.getIncomingMessagesTo(node); i++) {
+			int incomingMessage = this.nodeIncomingMessages[i];
+			if (incomingMessage != message) {
+				logBelief += this.logMessages.get(this.messageOffset[incomingMessage] + s);
+			}
+		}
+		return logBelief;
+	}
+
+	/**
+	 * Scratch array: [0, S) - terms of the sum, [S, 2S) - log-probabilities of
+	 * the states of the source node within the beam, [2S, 3S) - indices of
+	 * these states (doubles represent them exactly)
+	 */
+	private void updateMessageWithinBeam(int message, double[] buffer, int sourceStatesCount, int targetStatesCount,
+			int sourceStride, int targetStride) {
+		int s1 = this.maxStatesCount;
+		int s2 = 2 * this.maxStatesCount;
+		int source = this.getMessageSource(message);
+
+		double maxLogProbability = Double.NEGATIVE_INFINITY;
+		for (int s = 0; s < sourceStatesCount; s++) {
+			buffer[s1 + s] = this.getLogBeliefWithoutMessage(source, s, message ^ 1);
+			maxLogProbability = Math.max(maxLogProbability, buffer[s1 + s]);
+		}
+		double cutoff = maxLogProbability - this.beamLogThreshold;
+		int beamSize = 0;
+		for (int s = 0; s < sourceStatesCount; s++) {
+			if (buffer[s1 + s] >= cutoff) {
+				beamSize += 1;
+			}
+		}
+		if (beamSize > this.beamWidth) {
+			// log-probability of the state with rank "width"
+			System.arraycopy(buffer, s1, buffer, s2, sourceStatesCount);
+			Arrays.sort(buffer, s2, s2 + sourceStatesCount);
+			cutoff = buffer[(s2 + sourceStatesCount) - this.beamWidth];
+		}
+
+		// states within the beam are moved to the beginning of the range (all
+		// states, tied at the cutoff, are kept - e.g. uniform beliefs aren't
+		// pruned arbitrarily)
+		beamSize = 0;
+		for (int s = 0; s < sourceStatesCount; s++) {
+			if (buffer[s1 + s] >= cutoff) {
+				buffer[s1 + beamSize] = buffer[s1 + s];
+				buffer[s2 + beamSize] = s;
+				beamSize += 1;
+			}
+		}
+
+		int logPotentialOffset = this.edgeLogPotentialOffset[message >> 1];
+		int offset = this.messageOffset[message];
+		for (int t = 0; t < targetStatesCount; t++) {
+			int logPotentialRowOffset = logPotentialOffset + (t * targetStride);
+			for (int i = 0; i < beamSize; i++) {
+				int s = (int) buffer[s2 + i];
+				buffer[i] = this.logPotentials.get(logPotentialRowOffset + (s * sourceStride)) + buffer[s1 + i];
+			}
+			this.logMessagesNew.set(offset + t, this.semiring.logOfSum(buffer, 0, beamSize));
+		}
+	}
+
+	/**
+	 * Message across the {@link SparsePotential}, see {@link SparseLogTable}.
+	 * <br/>
+	 * <br/>
+	 * Scratch array: [0, S) - weights of the states of the source node
+	 * (relative to the most probable one)
+	 */
+	private void updateSparseMessage(int message, double[] buffer, int sourceStatesCount, int targetStatesCount,
+			int sourceStride, int targetStride) {
+		SparseLogTable sparseLogTable = this.edgeSparseLogTable[message >> 1];
+		int source = this.getMessageSource(message);
+
+		double maxLogProbability = Double.NEGATIVE_INFINITY;
+		for (int s = 0; s < sourceStatesCount; s++) {
+			buffer[s] = this.getLogBeliefWithoutMessage(source, s, message ^ 1);
+			maxLogProbability = Math.max(maxLogProbability, buffer[s]);
+		}
+		int offset = this.messageOffset[message];
+		if (maxLogProbability == Double.NEGATIVE_INFINITY) {
+			for (int t = 0; t < targetStatesCount; t++) {
+				this.logMessagesNew.set(offset + t, Double.NEGATIVE_INFINITY);
+			}
+			return;
+		}
+		double totalWeight = 0;
+		for (int s = 0; s < sourceStatesCount; s++) {
+			buffer[s] = Math.exp(buffer[s] - maxLogProbability);
+			totalWeight += buffer[s];
+		}
+
+		boolean sourceIsNode1 = (message & 1) == 0;
+		double defaultTerm = sparseLogTable.getDefaultValue() * totalWeight;
+		int logPotentialOffset = this.edgeLogPotentialOffset[message >> 1];
+		for (int t = 0; t < targetStatesCount; t++) {
+			double value = defaultTerm + sparseLogTable.getCorrection(buffer, sourceIsNode1, t);
+			if (value <= (CANCELLATION_THRESHOLD * defaultTerm)) {
+				// the value is mostly lost in the cancellation of the default
+				// term with the negative deltas (and can be even negative) -
+				// so, it is recalculated from the dense log-table
+				int logPotentialRowOffset = logPotentialOffset + (t * targetStride);
+				value = 0;
+				for (int s = 0; s < sourceStatesCount; s++) {
+					value += Math.exp(this.logPotentials.get(logPotentialRowOffset + (s * sourceStride))) * buffer[s];
+				}
+			}
+			this.logMessagesNew.set(offset + t, maxLogProbability + Math.log(value));
+		}
+	}
+
+	/**
+	 * Normalizes and commits the message, calculated by
+	 * {@link #updateMessage(int)}
+	 *
+	 * @return residual of the message: maximal absolute difference between the
+	 *         old and the new logarithms of the message
+	 */
+	public double refreshMessage(int message) {
+		if (this.edgeIsRemoved[message >> 1]) {
+			return 0;
+		}
+		int from = this.messageOffset[message];
+		int to = this.messageOffset[message + 1];
+		double logSum = this.semiring.logOfSum(this.logMessagesNew, from, to);
+		double residual = 0;
+		for (int i = from; i < to; i++) {
+			// residual is measured after the rounding to the precision of the
+			// storage, so the rounding alone doesn't prevent the convergence
+			double oldLogMessage = this.logMessages.get(i);
+			this.logMessages.set(i, this.logMessagesNew.get(i) - logSum);
+			residual = Math.max(residual, ResidualStatistics.residual(oldLogMessage, this.logMessages.get(i)));
+		}
+		this.logBeliefIsValid[this.getMessageTarget(message)] = false;
+		return residual;
+	}
+
+	/**
+	 * @return residual, which the message, calculated by
+	 *         {@link #updateMessage(int)}, would have after the commit
+	 */
+	public double getPendingResidual(int message) {
+		if (this.edgeIsRemoved[message >> 1]) {
+			return 0;
+		}
+		int from = this.messageOffset[message];
+		int to = this.messageOffset[message + 1];
+		double logSum = this.semiring.logOfSum(this.logMessagesNew, from, to);
+		double residual = 0;
+		for (int i = from; i < to; i++) {
+			residual = Math.max(residual, ResidualStatistics.residual(this.logMessages.get(i), this.logMessagesNew.get(i) - logSum));
+		}
+		return residual;
+	}
+
+	/**
+	 * Calculates cached belief of the node, if it was invalidated by the commit
+	 * of one of the incoming messages
+	 */
+	public void ensureLogBelief(int node) {
+		if (this.logBeliefIsValid[node]) {
+			return;
+		}
+		int beliefOffset = this.nodeStatesOffset[node];
+		int statesCount = this.nodeStatesOffset[node + 1] - beliefOffset;
+		int incomingMessagesFrom = this.getIncomingMessagesFrom(node);
+		int incomingMessagesTo = this.getIncomingMessagesTo(node);
+		for (int s = 0; s < statesCount; s++) {
+			double logBelief = this.logPriors.get(beliefOffset + s);
+			for (int i = incomingMessagesFrom; i < incomingMessagesTo; i++) {
+				logBelief += this.logMessages.get(this.messageOffset[this.nodeIncomingMessages[i]] + s);
+			}
+			this.logBeliefs.set(beliefOffset + s, logBelief);
+		}
+		this.logBeliefIsValid[node] = true;
+	}
+
+	/**
+	 * Writes logarithm of the prior probability and product of incoming
+	 * messages of the node into the first elements of the given array
+	 */
+	public void computeLogBelief(int node, double[] logBelief) {
+		this.ensureLogBelief(node);
+		int beliefOffset = this.nodeStatesOffset[node];
+		for (int s = 0; s < (this.nodeStatesOffset[node + 1] - beliefOffset); s++) {
+			logBelief[s] = this.logBeliefs.get(beliefOffset + s);
+		}
+	}
+
+	/**
+	 * Same as {@link #getPosteriorProbabilities(Node)}, but the node is
+	 * addressed by its index
+	 *
+	 * @return probabilities of the states of the node (in the order of the
+	 *         indices of the states)
+	 */
+	public double[] getPosteriorProbabilities(int node) {
+		double[] probabilities = new double[this.nodeDomains[node].size()];
+		this.computeLogBelief(node, probabilities);
+		double sum = Edge.logOfSum(probabilities);
+		for (int s = 0; s < probabilities.length; s++) {
+			probabilities[s] = Math.exp(probabilities[s] - sum);
+		}
+		return probabilities;
+	}
+
+	@SuppressWarnings("unchecked")
+	public <STATES> TObjectDoubleMap<STATES> getPosteriorProbabilities(Node<STATES> node) {
+		int index = this.getNodeIndex(node);
+		Object[] states = this.nodeDomains[index].getStates();
+		double[] logBelief = new double[states.length];
+		this.computeLogBelief(index, logBelief);
+
+		double sum = Edge.logOfSum(logBelief);
+		TObjectDoubleMap<STATES> stateToProbability = new TObjectDoubleHashMap<>();
+		for (int s = 0; s < states.length; s++) {
+			stateToProbability.put((STATES) states[s], Math.exp(logBelief[s] - sum));
+		}
+		return stateToProbability;
+	}
+
+	@SuppressWarnings("unchecked")
+	public <STATES> STATES getMostProbableState(Node<STATES> node) {
+		int index = this.getNodeIndex(node);
+		return (STATES) this.nodeDomains[index].get(this.getMostProbableStateIndex(index));
+	}
+
+	public int getMostProbableStateIndex(int node) {
+		double[] logBelief = new double[this.nodeDomains[node].size()];
+		this.computeLogBelief(node, logBelief);
+		int mostProbableState = 0;
+		for (int s = 1; s < logBelief.length; s++) {
+			if (logBelief[s] > logBelief[mostProbableState]) {
+				mostProbableState = s;
+			}
+		}
+		return mostProbableState;
+	}
+
+	/**
+	 * Decodes the assignment of states to the nodes (indexed by the index of
+	 * the node) from the beliefs. <br/>
+	 * <br/>
+	 * With {@link Semiring#MAX_PRODUCT} - this is the MAP assignment. Max-
+	 * marginals are often tied (e.g. several optimal colorings), so nodes are
+	 * decoded one by one (in the breadth-first order), and the incoming
+	 * message from the already decoded neighbour is replaced by the potential
+	 * towards its decoded state. So, ties are resolved consistently, and the
+	 * decoding is exact on the trees.
+	 */
+	public int[] getMapAssignment() {
+		int nodesCount = this.nodes.size();
+		int[] assignment = new int[nodesCount];
+		Arrays.fill(assignment, -1);
+		int[] queue = new int[nodesCount];
+		int queueTail = 0;
+		double[] score = new double[this.getMaxStatesCount()];
+
+		for (int root = 0; root < nodesCount; root++) {
+			if (assignment[root] >= 0) {
+				continue;
+			}
+			int queueHead = queueTail;
+			queue[queueTail++] = root;
+			assignment[root] = this.decodeState(root, assignment, score);
+			while (queueHead < queueTail) {
+				int node = queue[queueHead++];
+				for (int i = this.getIncomingMessagesFrom(node); i < this.getIncomingMessagesTo(node); i++) {
+					int neighbour = this.getMessageSource(this.nodeIncomingMessages[i]);
+					if (assignment[neighbour] < 0) {
+						assignment[neighbour] = this.decodeState(neighbour, assignment, score);
+						queue[queueTail++] = neighbour;
+					}
+				}
+			}
+		}
+		return assignment;
+	}
+
+	private int decodeState(int node, int[] assignment, double[] score) {
+		this.computeLogBelief(node, score);
+		int statesCount = this.nodeDomains[node].size();
+		for (int i = this.getIncomingMessagesFrom(node); i < this.getIncomingMessagesTo(node); i++) {
+			int message = this.nodeIncomingMessages[i];
+			int neighbourState = assignment[this.getMessageSource(message)];
+			if (neighbourState < 0) {
+				continue;
+			}
+			int edge = message >> 1;
+			int offset = this.messageOffset[message];
+			int logPotentialOffset = this.edgeLogPotentialOffset[edge];
+			int node2StatesCount = this.nodeDomains[this.edgeNode2[edge]].size();
+			for (int s = 0; s < statesCount; s++) {
+				// log-table is stored as (states of node1 x states of node2)
+				int logPotentialIndex = ((message & 1) == 0)
+						? (neighbourState * node2StatesCount) + s
+						: (s * node2StatesCount) + neighbourState;
+				score[s] += this.logPotentials.get(logPotentialOffset + logPotentialIndex) - this.logMessages.get(offset + s);
+			}
+		}
+		int mostProbableState = 0;
+		for (int s = 1; s < statesCount; s++) {
+			if (score[s] > score[mostProbableState]) {
+				mostProbableState = s;
+			}
+		}
+		return mostProbableState;
+	}
+
+	/**
+	 * Copies messages into the {@link Edge} objects, so results of the
+	 * inference become available via {@link Node#getPosteriorProbabilities()}
+	 * (edges, loaded from the snapshot, are skipped)
+	 */
+	public void writeMessagesToEdges() {
+		for (int e = 0; e < this.edges.size(); e++) {
+			Edge<?, ?> edge = this.edges.get(e);
+			if (this.edgeIsRemoved[e] || (edge == null)) {
+				continue;
+			}
+
+			Object[] node1States = this.nodeDomains[this.edgeNode1[e]].getStates();
+			int node2ToNode1Offset = this.messageOffset[(2 * e) + 1];
+			for (int s = 0; s < node1States.length; s++) {
+				edge.setLogIncomingMessage(edge.getNode1(), node1States[s], this.logMessages.get(node2ToNode1Offset + s));
+			}
+
+			Object[] node2States = this.nodeDomains[this.edgeNode2[e]].getStates();
+			int node1ToNode2Offset = this.messageOffset[2 * e];
+			for (int s = 0; s < node2States.length; s++) {
+				edge.setLogIncomingMessage(edge.getNode2(), node2States[s], this.logMessages.get(node1ToNode2Offset + s));
+			}
+		}
+	}
+}
@@ -0,0 +1,189 @@
+package com.lahodiuk.bp;
+
+import java.util.Arrays;
+
+/**
+ * Calculates sum-product messages across the {@link DifferencePotential} as
+ * convolutions via FFT: O(S * log(S)) instead of O(S^2). Max-product messages
+ * are delegated to
+ * {@link DifferencePotential#logMaxConvolution(double[], int, double[], int, int, boolean, double[], int)}
+ * <br/>
+ * <br/>
+ * Convolution is done in the linear domain (values are shifted by their
+ * maximum before exponentiation), so relative precision of the message values
+ * is bounded by round-off errors of the FFT: values below
+ * {@link #RELATIVE_PRECISION} of the maximal value of the message are clamped
+ * to that level.
+ */
+class DifferenceKernel {
+
+	static final double RELATIVE_PRECISION = 1e-12;
+
+	private final DifferencePotential<?> potential;
+
+	private final int statesCount;
+
+	private final int[] labelOfState;
+
+	private final FastFourierTransform fft;
+
+	/**
+	 * Spectrum of f(-d) for messages from node1 to node2
+	 */
+	private final double[] fromNode1Re;
+
+	private final double[] fromNode1Im;
+
+	/**
+	 * Spectrum of f(d) for messages from node2 to node1
+	 */
+	private final double[] fromNode2Re;
+
+	private final double[] fromNode2Im;
+
+	private DifferenceKernel(DifferencePotential<?> potential, int[] labelOfState) {
+		this.potential = potential;
+		this.statesCount = labelOfState.length;
+		this.labelOfState = labelOfState;
+		this.fft = new FastFourierTransform(FastFourierTransform.sizeFor((2 * this.statesCount) - 1));
+
+		int size = this.fft.getSize();
+		this.fromNode1Re = new double[size];
+		this.fromNode1Im = new double[size];
+		this.fromNode2Re = new double[size];
+		this.fromNode2Im = new double[size];
+		for (int d = -(this.statesCount - 1); d < this.statesCount; d++) {
+			int index = (d + size) % size;
+			this.fromNode1Re[index] = potential.getValueForDifference(-d);
+			this.fromNode2Re[index] = potential.getValueForDifference(d);
+		}
+		double[] data = new double[2 * size];
+		this.transform(this.fromNode1Re, this.fromNode1Im, data);
+		this.transform(this.fromNode2Re, this.fromNode2Im, data);
+	}
+
+	private void transform(double[] re, double[] im, double[] data) {
+		int size = this.fft.getSize();
+		System.arraycopy(re, 0, data, 0, size);
+		Arrays.fill(data, size, 2 * size, 0.0);
+		this.fft.transform(data, 0, size, false);
+		System.arraycopy(data, 0, re, 0, size);
+		System.arraycopy(data, size, im, 0, size);
+	}
+
+	/**
+	 * @return kernel, or null if potential isn't {@link DifferencePotential},
+	 *         or labels of the states aren't exactly 0, 1, ... S - 1
+	 */
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	static DifferenceKernel create(Potential<?, ?> potential, Object[] states) {
+		if (!(potential instanceof DifferencePotential)) {
+			return null;
+		}
+		DifferencePotential differencePotential = (DifferencePotential) potential;
+		int[] labelOfState = new int[states.length];
+		boolean[] labelIsUsed = new boolean[states.length];
+		for (int s = 0; s < states.length; s++) {
+			int label = differencePotential.getLabel(states[s]);
+			if ((label < 0) || (label >= states.length) || labelIsUsed[label]) {
+				return null;
+			}
+			labelIsUsed[label] = true;
+			labelOfState[s] = label;
+		}
+		return new DifferenceKernel(differencePotential, labelOfState);
+	}
+
+	/**
+	 * Size of the scratch space, required by
+	 * {@link #sumProductMessage(double[], int, double[], int, boolean, double[], int)}
+	 * and
+	 * {@link #maxProductMessage(double[], int, double[], int, boolean, double[], int)}
+	 */
+	int getScratchSize() {
+		int maxProductScratchSize = (2 * this.statesCount) + this.potential.getLogMaxConvolutionScratchSize(this.statesCount);
+		return Math.max(2 * this.fft.getSize(), maxProductScratchSize);
+	}
+
+	int getLabel(int stateIndex) {
+		return this.labelOfState[stateIndex];
+	}
+
+	/**
+	 * message[t] = log(sum over s of (exp(logValues[s]) * potential(s, t))),
+	 * where s and t are indices of states in the domain (not labels). <br/>
+	 * Resulting message isn't normalized.
+	 */
+	void sumProductMessage(
+			double[] logValues,
+			int logValuesOffset,
+			double[] message,
+			int messageOffset,
+			boolean sourceIsNode1,
+			double[] scratch,
+			int scratchOffset) {
+
+		int size = this.fft.getSize();
+		int reOffset = scratchOffset;
+		int imOffset = scratchOffset + size;
+		Arrays.fill(scratch, reOffset, reOffset + (2 * size), 0.0);
+
+		double maxLog = Double.NEGATIVE_INFINITY;
+		for (int s = 0; s < this.statesCount; s++) {
+			maxLog = Math.max(maxLog, logValues[logValuesOffset + s]);
+		}
+		for (int s = 0; s < this.statesCount; s++) {
+			scratch[reOffset + this.labelOfState[s]] = Math.exp(logValues[logValuesOffset + s] - maxLog);
+		}
+
+		this.fft.transform(scratch, reOffset, imOffset, false);
+
+		double[] kernelRe = sourceIsNode1 ? this.fromNode1Re : this.fromNode2Re;
+		double[] kernelIm = sourceIsNode1 ? this.fromNode1Im : this.fromNode2Im;
+		for (int k = 0; k < size; k++) {
+			double re = scratch[reOffset + k];
+			double im = scratch[imOffset + k];
+			scratch[reOffset + k] = (re * kernelRe[k]) - (im * kernelIm[k]);
+			scratch[imOffset + k] = (re * kernelIm[k]) + (im * kernelRe[k]);
+		}
+
+		this.fft.transform(scratch, reOffset, imOffset, true);
+
+		double maxValue = 0;
+		for (int label = 0; label < this.statesCount; label++) {
+			maxValue = Math.max(maxValue, scratch[reOffset + label]);
+		}
+		double minValue = maxValue * RELATIVE_PRECISION;
+		double logScale = maxLog - Math.log(size);
+		for (int t = 0; t < this.statesCount; t++) {
+			double value = Math.max(scratch[reOffset + this.labelOfState[t]], minValue);
+			message[messageOffset + t] = Math.log(value) + logScale;
+		}
+	}
+
+	/**
+	 * message[t] = max over s of (logValues[s] + log(potential(s, t))), where
+	 * s and t are indices of states in the domain (not labels). <br/>
+	 * Resulting message isn't normalized.
+	 */
+	void maxProductMessage(
+			double[] logValues,
+			int logValuesOffset,
+			double[] message,
+			int messageOffset,
+			boolean sourceIsNode1,
+			double[] scratch,
+			int scratchOffset) {
+
+		// values and result of the max-convolution are indexed by labels
+		int resultOffset = scratchOffset + this.statesCount;
+		for (int s = 0; s < this.statesCount; s++) {
+			scratch[scratchOffset + this.labelOfState[s]] = logValues[logValuesOffset + s];
+		}
+		this.potential.logMaxConvolution(scratch, scratchOffset, scratch, resultOffset, this.statesCount, sourceIsNode1,
+				scratch, resultOffset + this.statesCount);
+		for (int t = 0; t < this.statesCount; t++) {
+			message[messageOffset + t] = scratch[resultOffset + this.labelOfState[t]];
+		}
+	}
+}
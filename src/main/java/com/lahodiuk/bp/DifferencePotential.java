@@ -0,0 +1,79 @@
+package com.lahodiuk.bp;
+
+/**
+ * Potential between two nodes with the same states, which depends only on
+ * difference of the integer labels of the states: <br/>
+ * value(state1, state2) = f(label(state1) - label(state2)) <br/>
+ * <br/>
+ * If labels of the states of the domain are exactly 0, 1, ... S - 1, messages
+ * across such potential are calculated by the {@link LatticeMRF} as
+ * convolutions (in O(S * log(S)) instead of O(S^2)).
+ */
+public abstract class DifferencePotential<STATES> extends Potential<STATES, STATES> {
+
+	public abstract int getLabel(STATES state);
+
+	/**
+	 * @param difference
+	 *            label(state of node1) - label(state of node2)
+	 */
+	public abstract double getValueForDifference(int difference);
+
+	public double getLogValueForDifference(int difference) {
+		return Math.log(this.getValueForDifference(difference));
+	}
+
+	@Override
+	public final double getValue(STATES node1State, STATES node2State) {
+		return this.getValueForDifference(this.getLabel(node1State) - this.getLabel(node2State));
+	}
+
+	@Override
+	public final double getLogValue(STATES node1State, STATES node2State) {
+		return this.getLogValueForDifference(this.getLabel(node1State) - this.getLabel(node2State));
+	}
+
+	/**
+	 * Max-product counterpart of the convolution: <br/>
+	 * result[b] = max over a of (logValues[a] + log(f(a - b))), if source of
+	 * the message is node1 <br/>
+	 * result[b] = max over a of (logValues[a] + log(f(b - a))), if source of
+	 * the message is node2 <br/>
+	 * <br/>
+	 * Where a and b are labels in range [0, count). Default implementation is
+	 * O(count^2), subclasses with the special shape of f can do better.
+	 *
+	 * @param scratch
+	 *            working space of size at least
+	 *            {@link #getLogMaxConvolutionScratchSize(int)}, starting from
+	 *            the scratchOffset (must not overlap with the values and the
+	 *            result)
+	 */
+	public void logMaxConvolution(
+			double[] logValues,
+			int logValuesOffset,
+			double[] result,
+			int resultOffset,
+			int count,
+			boolean sourceIsNode1,
+			double[] scratch,
+			int scratchOffset) {
+
+		for (int b = 0; b < count; b++) {
+			double max = Double.NEGATIVE_INFINITY;
+			for (int a = 0; a < count; a++) {
+				int difference = sourceIsNode1 ? (a - b) : (b - a);
+				max = Math.max(max, logValues[logValuesOffset + a] + this.getLogValueForDifference(difference));
+			}
+			result[resultOffset + b] = max;
+		}
+	}
+
+	/**
+	 * Size of the scratch space, required by
+	 * {@link #logMaxConvolution(double[], int, double[], int, int, boolean, double[], int)}
+	 */
+	public int getLogMaxConvolutionScratchSize(int count) {
+		return 0;
+	}
+}
@@ -11,13 +11,18 @@ public class Edge<STATES_OF_NODE_1, STATES_OF_NODE_2> {
 
 	private Potential<STATES_OF_NODE_1, STATES_OF_NODE_2> potential;
 
-	private TObjectDoubleMap<STATES_OF_NODE_2> logNode1ToNode2Messages = new TObjectDoubleHashMap<>();
+	/**
+	 * Messages are allocated lazily: edges, which are only used as a model for
+	 * the {@link CompiledGraph}, never pay for the hash maps. Absent message is
+	 * treated as log(1) = 0.0
+	 */
+	private TObjectDoubleMap<STATES_OF_NODE_2> logNode1ToNode2Messages;
 
-	private TObjectDoubleMap<STATES_OF_NODE_2> logNode1ToNode2MessagesNew = new TObjectDoubleHashMap<>();
+	private TObjectDoubleMap<STATES_OF_NODE_2> logNode1ToNode2MessagesNew;
 
-	private TObjectDoubleMap<STATES_OF_NODE_1> logNode2ToNode1Messages = new TObjectDoubleHashMap<>();
+	private TObjectDoubleMap<STATES_OF_NODE_1> logNode2ToNode1Messages;
 
-	private TObjectDoubleMap<STATES_OF_NODE_1> logNode2ToNode1MessagesNew = new TObjectDoubleHashMap<>();
+	private TObjectDoubleMap<STATES_OF_NODE_1> logNode2ToNode1MessagesNew;
 
 	private double[] bufferForUpdatingMessagesFromNode2;
 
@@ -27,17 +32,28 @@ public class Edge<STATES_OF_NODE_1, STATES_OF_NODE_2> {
 		this.potential = potential;
 		this.node1 = node1;
 		this.node2 = node2;
+	}
+
+	private void allocateMessages() {
+		if (this.logNode1ToNode2Messages != null) {
+			return;
+		}
+
+		this.logNode1ToNode2Messages = new TObjectDoubleHashMap<>();
+		this.logNode1ToNode2MessagesNew = new TObjectDoubleHashMap<>();
+		this.logNode2ToNode1Messages = new TObjectDoubleHashMap<>();
+		this.logNode2ToNode1MessagesNew = new TObjectDoubleHashMap<>();
 
-		for (STATES_OF_NODE_1 stateOfNode1 : node1.getStates()) {
+		for (STATES_OF_NODE_1 stateOfNode1 : this.node1.getDomain()) {
 			this.logNode2ToNode1Messages.put(stateOfNode1, 0.0);
 		}
 
-		for (STATES_OF_NODE_2 stateOfNode2 : node2.getStates()) {
+		for (STATES_OF_NODE_2 stateOfNode2 : this.node2.getDomain()) {
 			this.logNode1ToNode2Messages.put(stateOfNode2, 0.0);
 		}
 
-		this.bufferForUpdatingMessagesFromNode2 = new double[this.node2.getStates().size()];
-		this.bufferForUpdatingMessagesFromNode1 = new double[this.node1.getStates().size()];
+		this.bufferForUpdatingMessagesFromNode2 = new double[this.node2.getDomain().size()];
+		this.bufferForUpdatingMessagesFromNode1 = new double[this.node1.getDomain().size()];
 	}
 
 	public static <STATES_OF_NODE_1, STATES_OF_NODE_2> Edge<STATES_OF_NODE_1, STATES_OF_NODE_2> connect(
@@ -51,6 +67,16 @@ public class Edge<STATES_OF_NODE_1, STATES_OF_NODE_2> {
 		return edge;
 	}
 
+	/**
+	 * Removes the edge from the lists of edges of both nodes (the compiled
+	 * graph, which contains the edge, must be updated separately, see
+	 * {@link CompiledGraph#removeEdge(Edge)})
+	 */
+	public void disconnect() {
+		this.node1.removeEdge(this);
+		this.node2.removeEdge(this);
+	}
+
 	public Node<STATES_OF_NODE_1> getNode1() {
 		return this.node1;
 	}
@@ -60,6 +86,13 @@ public class Edge<STATES_OF_NODE_1, STATES_OF_NODE_2> {
 	}
 
 	public <T> double getLogIncomingMessage(Node<T> node, T state) {
+		if (this.logNode1ToNode2Messages == null) {
+			if ((node == this.node1) || (node == this.node2)) {
+				return 0.0;
+			}
+			throw new RuntimeException();
+		}
+
 		if (node == this.node1) {
 			return this.logNode2ToNode1Messages.get(state);
 		}
@@ -71,6 +104,26 @@ public class Edge<STATES_OF_NODE_1, STATES_OF_NODE_2> {
 		throw new RuntimeException();
 	}
 
+	/**
+	 * Used by {@link CompiledGraph} for writing messages back to the model
+	 */
+	@SuppressWarnings("unchecked")
+	void setLogIncomingMessage(Node<?> node, Object state, double logMessage) {
+		this.allocateMessages();
+
+		if (node == this.node1) {
+			this.logNode2ToNode1Messages.put((STATES_OF_NODE_1) state, logMessage);
+			return;
+		}
+
+		if (node == this.node2) {
+			this.logNode1ToNode2Messages.put((STATES_OF_NODE_2) state, logMessage);
+			return;
+		}
+
+		throw new RuntimeException();
+	}
+
 	public void updateMessages() {
 		this.updateMessagesNode1ToNode2();
 		this.updateMessagesNode2ToNode1();
@@ -80,12 +133,13 @@ public class Edge<STATES_OF_NODE_1, STATES_OF_NODE_2> {
 	 * node2 -> node1
 	 */
 	public void updateMessagesNode2ToNode1() {
+		this.allocateMessages();
 		TObjectDoubleMap<STATES_OF_NODE_2> node2StateToLogPriorProbabilityAndProductIncomingMessages =
 				this.node2.getStateToLogPriorProbabilityAndProductIncomingMessages();
 
-		for (STATES_OF_NODE_1 stateOfNode1 : this.node1.getStates()) {
+		for (STATES_OF_NODE_1 stateOfNode1 : this.node1.getDomain()) {
 			int i = 0;
-			for (STATES_OF_NODE_2 stateOfNode2 : this.node2.getStates()) {
+			for (STATES_OF_NODE_2 stateOfNode2 : this.node2.getDomain()) {
 
 				double logPriorProbabilityAndProductIncomingMessages =
 						node2StateToLogPriorProbabilityAndProductIncomingMessages.get(stateOfNode2)
@@ -105,12 +159,13 @@ public class Edge<STATES_OF_NODE_1, STATES_OF_NODE_2> {
 	 * node1 -> node2
 	 */
 	public void updateMessagesNode1ToNode2() {
+		this.allocateMessages();
 		TObjectDoubleMap<STATES_OF_NODE_1> node1StateToLogPriorProbabilityAndProductIncomingMessages =
 				this.node1.getStateToLogPriorProbabilityAndProductIncomingMessages();
 
-		for (STATES_OF_NODE_2 stateOfNode2 : this.node2.getStates()) {
+		for (STATES_OF_NODE_2 stateOfNode2 : this.node2.getDomain()) {
 			int i = 0;
-			for (STATES_OF_NODE_1 stateOfNode1 : this.node1.getStates()) {
+			for (STATES_OF_NODE_1 stateOfNode1 : this.node1.getDomain()) {
 
 				double logPriorProbabilityAndProductIncomingMessages =
 						node1StateToLogPriorProbabilityAndProductIncomingMessages.get(stateOfNode1)
@@ -135,6 +190,7 @@ public class Edge<STATES_OF_NODE_1, STATES_OF_NODE_2> {
 	 * node2 -> node1
 	 */
 	public void refreshMessagesNode2ToNode1() {
+		this.allocateMessages();
 		double sum2 = logOfSum(this.logNode2ToNode1MessagesNew.values());
 		for (STATES_OF_NODE_1 stateOfNode1 : this.logNode2ToNode1MessagesNew.keySet()) {
 			this.logNode2ToNode1Messages.put(stateOfNode1, this.logNode2ToNode1MessagesNew.get(stateOfNode1) - sum2);
@@ -145,6 +201,7 @@ public class Edge<STATES_OF_NODE_1, STATES_OF_NODE_2> {
 	 * node1 -> node2
 	 */
 	public void refreshMessagesNode1ToNode2() {
+		this.allocateMessages();
 		double sum1 = logOfSum(this.logNode1ToNode2MessagesNew.values());
 		for (STATES_OF_NODE_2 stateOfNode2 : this.logNode1ToNode2MessagesNew.keySet()) {
 			this.logNode1ToNode2Messages.put(stateOfNode2, this.logNode1ToNode2MessagesNew.get(stateOfNode2) - sum1);
@@ -156,13 +213,25 @@ public class Edge<STATES_OF_NODE_1, STATES_OF_NODE_2> {
 	 * Returns: log(X1 + X2 + ... + Xn)
 	 */
 	public static double logOfSum(double[] arrLogs) {
-		Double maxLog = arrLogs[0];
-		for (int i = 1; i < arrLogs.length; i++) {
+		return logOfSum(arrLogs, 0, arrLogs.length);
+	}
+
+	/**
+	 * Same as {@link #logOfSum(double[])}, but only elements in range
+	 * [fromIndex, toIndex) are taken into account
+	 */
+	public static double logOfSum(double[] arrLogs, int fromIndex, int toIndex) {
+		double maxLog = arrLogs[fromIndex];
+		for (int i = fromIndex + 1; i < toIndex; i++) {
 			maxLog = Math.max(arrLogs[i], maxLog);
 		}
+		if (maxLog == Double.NEGATIVE_INFINITY) {
+			// sum of zeros
+			return maxLog;
+		}
 
 		double sumExp = 0.0;
-		for (int i = 0; i < arrLogs.length; i++) {
+		for (int i = fromIndex; i < toIndex; i++) {
 			sumExp += Math.exp(arrLogs[i] - maxLog);
 		}
 
@@ -0,0 +1,40 @@
+package com.lahodiuk.bp;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Factor, which connects arbitrary number of variables ({@link Node}-s)
+ * directly. Messages from the factor to its variables are calculated by the
+ * {@link FactorKernel}. <br/>
+ * <br/>
+ * Usage: <br/>
+ * Factor check = Factor.connect(new ParityFactorKernel(), bit1, bit2, bit3);
+ *
+ * @see FactorGraph
+ */
+public class Factor {
+
+	private final FactorKernel kernel;
+
+	private final List<Node<?>> variables;
+
+	public Factor(FactorKernel kernel, List<? extends Node<?>> variables) {
+		this.kernel = kernel;
+		this.variables = Collections.unmodifiableList(new ArrayList<Node<?>>(variables));
+	}
+
+	public static Factor connect(FactorKernel kernel, Node<?>... variables) {
+		return new Factor(kernel, Arrays.asList(variables));
+	}
+
+	public FactorKernel getKernel() {
+		return this.kernel;
+	}
+
+	public List<Node<?>> getVariables() {
+		return this.variables;
+	}
+}
@@ -0,0 +1,275 @@
+package com.lahodiuk.bp;
+
+import gnu.trove.map.TObjectDoubleMap;
+import gnu.trove.map.hash.TObjectDoubleHashMap;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Dense representation of the factor graph: variables ({@link Node}-s) are
+ * connected by the higher-order {@link Factor}-s. <br/>
+ * <br/>
+ * Every pair (factor, variable of the factor) has two messages (variable ->
+ * factor and factor -> variable), which are stored in flat arrays at the same
+ * offsets. Messages of the factor are contiguous, and messages from the factor
+ * to its variables are calculated by the {@link FactorKernel} of the factor.
+ * <br/>
+ * <br/>
+ * Priors of the variables are taken into account, {@link Edge}-s of the
+ * variables are ignored.
+ */
+public class FactorGraph {
+
+	private final List<Factor> factors;
+
+	private final List<Node<?>> variables;
+
+	private final Map<Node<?>, Integer> variableToIndex;
+
+	private final Object[][] variableStates;
+
+	private final int[] variableStatesOffset;
+
+	private final double[] logPriors;
+
+	private final double[] logBeliefs;
+
+	/**
+	 * Messages of the factor f are in range [factorMessagesOffset[f],
+	 * factorMessagesOffset[f + 1])
+	 */
+	private final int[] factorMessagesOffset;
+
+	private final int[] messageVariable;
+
+	private final int[] messageOffset;
+
+	/**
+	 * Messages of the variable v are variableMessages[variableMessagesOffset[v]
+	 * .. variableMessagesOffset[v + 1] - 1] (in ascending order)
+	 */
+	private final int[] variableMessagesOffset;
+
+	private final int[] variableMessages;
+
+	private final double[] variableToFactorLogMessages;
+
+	private final double[] factorToVariableLogMessages;
+
+	private final double[] factorToVariableLogMessagesNew;
+
+	private Semiring semiring = Semiring.SUM_PRODUCT;
+
+	public FactorGraph(Collection<Factor> factors) {
+		this.factors = new ArrayList<>(factors);
+		this.variables = new ArrayList<>();
+		this.variableToIndex = new IdentityHashMap<>();
+
+		int messagesCount = 0;
+		for (Factor factor : this.factors) {
+			for (Node<?> variable : factor.getVariables()) {
+				if (!this.variableToIndex.containsKey(variable)) {
+					this.variableToIndex.put(variable, this.variables.size());
+					this.variables.add(variable);
+				}
+				messagesCount += 1;
+			}
+		}
+
+		int variablesCount = this.variables.size();
+		// variables with equal domains share the same array of the states
+		Map<StateDomain<?>, Object[]> domains = new HashMap<>();
+		this.variableStates = new Object[variablesCount][];
+		this.variableStatesOffset = new int[variablesCount + 1];
+		for (int v = 0; v < variablesCount; v++) {
+			StateDomain<?> states = this.variables.get(v).getDomain();
+			Object[] domain = domains.get(states);
+			if (domain == null) {
+				domain = states.getStates();
+				domains.put(states, domain);
+			}
+			this.variableStates[v] = domain;
+			this.variableStatesOffset[v + 1] = this.variableStatesOffset[v] + domain.length;
+		}
+
+		this.logPriors = new double[this.variableStatesOffset[variablesCount]];
+		for (int v = 0; v < variablesCount; v++) {
+			Node<?> variable = this.variables.get(v);
+			for (int s = 0; s < this.variableStates[v].length; s++) {
+				this.logPriors[this.variableStatesOffset[v] + s] = variable.getLogPriorProbablilityNoTypeCheck(this.variableStates[v][s]);
+			}
+		}
+		this.logBeliefs = new double[this.logPriors.length];
+
+		this.factorMessagesOffset = new int[this.factors.size() + 1];
+		this.messageVariable = new int[messagesCount];
+		this.messageOffset = new int[messagesCount + 1];
+		int message = 0;
+		for (int f = 0; f < this.factors.size(); f++) {
+			for (Node<?> variable : this.factors.get(f).getVariables()) {
+				int v = this.variableToIndex.get(variable);
+				this.messageVariable[message] = v;
+				this.messageOffset[message + 1] = this.messageOffset[message] + this.variableStates[v].length;
+				message += 1;
+			}
+			this.factorMessagesOffset[f + 1] = message;
+		}
+
+		this.variableMessagesOffset = new int[variablesCount + 1];
+		for (int m = 0; m < messagesCount; m++) {
+			this.variableMessagesOffset[this.messageVariable[m] + 1] += 1;
+		}
+		for (int v = 0; v < variablesCount; v++) {
+			this.variableMessagesOffset[v + 1] += this.variableMessagesOffset[v];
+		}
+		this.variableMessages = new int[messagesCount];
+		int[] position = new int[variablesCount];
+		for (int m = 0; m < messagesCount; m++) {
+			int v = this.messageVariable[m];
+			this.variableMessages[this.variableMessagesOffset[v] + position[v]] = m;
+			position[v] += 1;
+		}
+
+		this.variableToFactorLogMessages = new double[this.messageOffset[messagesCount]];
+		this.factorToVariableLogMessages = new double[this.messageOffset[messagesCount]];
+		this.factorToVariableLogMessagesNew = new double[this.messageOffset[messagesCount]];
+	}
+
+	public static FactorGraph compile(Collection<Factor> factors) {
+		return new FactorGraph(factors);
+	}
+
+	public Semiring getSemiring() {
+		return this.semiring;
+	}
+
+	public void setSemiring(Semiring semiring) {
+		this.semiring = semiring;
+	}
+
+	public int getVariablesCount() {
+		return this.variables.size();
+	}
+
+	public int getFactorsCount() {
+		return this.factors.size();
+	}
+
+	public int getMessagesCount() {
+		return this.messageVariable.length;
+	}
+
+	public int getVariableIndex(Node<?> variable) {
+		Integer index = this.variableToIndex.get(variable);
+		if (index == null) {
+			throw new RuntimeException("Variable isn't connected to any factor of the graph");
+		}
+		return index;
+	}
+
+	/**
+	 * Synchronous sweep: messages from all variables to the factors are
+	 * calculated, and afterwards - messages from all factors to the variables
+	 * (only residuals of the latter are collected)
+	 */
+	public void sweep(ResidualStatistics residuals) {
+		this.computeLogBeliefs();
+
+		for (int m = 0; m < this.messageVariable.length; m++) {
+			int beliefOffset = this.variableStatesOffset[this.messageVariable[m]];
+			int from = this.messageOffset[m];
+			int to = this.messageOffset[m + 1];
+			for (int i = from; i < to; i++) {
+				this.variableToFactorLogMessages[i] = this.logBeliefs[(beliefOffset + i) - from] - this.factorToVariableLogMessages[i];
+			}
+			double logSum = this.semiring.logOfSum(this.variableToFactorLogMessages, from, to);
+			for (int i = from; i < to; i++) {
+				this.variableToFactorLogMessages[i] -= logSum;
+			}
+		}
+
+		for (int f = 0; f < this.factors.size(); f++) {
+			this.factors.get(f).getKernel().computeLogMessages(
+					this.variableToFactorLogMessages,
+					this.factorToVariableLogMessagesNew,
+					this.messageOffset,
+					this.factorMessagesOffset[f],
+					this.factorMessagesOffset[f + 1] - this.factorMessagesOffset[f],
+					this.semiring);
+		}
+
+		for (int m = 0; m < this.messageVariable.length; m++) {
+			int from = this.messageOffset[m];
+			int to = this.messageOffset[m + 1];
+			double logSum = this.semiring.logOfSum(this.factorToVariableLogMessagesNew, from, to);
+			double residual = 0;
+			for (int i = from; i < to; i++) {
+				double logMessage = this.factorToVariableLogMessagesNew[i] - logSum;
+				residual = Math.max(residual, ResidualStatistics.residual(this.factorToVariableLogMessages[i], logMessage));
+				this.factorToVariableLogMessages[i] = logMessage;
+			}
+			residuals.add(residual);
+		}
+	}
+
+	private void computeLogBeliefs() {
+		System.arraycopy(this.logPriors, 0, this.logBeliefs, 0, this.logPriors.length);
+		for (int m = 0; m < this.messageVariable.length; m++) {
+			int beliefOffset = this.variableStatesOffset[this.messageVariable[m]];
+			int from = this.messageOffset[m];
+			int to = this.messageOffset[m + 1];
+			for (int i = from; i < to; i++) {
+				this.logBeliefs[(beliefOffset + i) - from] += this.factorToVariableLogMessages[i];
+			}
+		}
+	}
+
+	/**
+	 * Belief of the single variable (in O(number of its factors), unlike
+	 * {@link #computeLogBeliefs()})
+	 */
+	private void computeLogBelief(int v) {
+		int beliefOffset = this.variableStatesOffset[v];
+		int statesCount = this.variableStates[v].length;
+		System.arraycopy(this.logPriors, beliefOffset, this.logBeliefs, beliefOffset, statesCount);
+		for (int i = this.variableMessagesOffset[v]; i < this.variableMessagesOffset[v + 1]; i++) {
+			int from = this.messageOffset[this.variableMessages[i]];
+			for (int s = 0; s < statesCount; s++) {
+				this.logBeliefs[beliefOffset + s] += this.factorToVariableLogMessages[from + s];
+			}
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	public <STATES> TObjectDoubleMap<STATES> getPosteriorProbabilities(Node<STATES> variable) {
+		int v = this.getVariableIndex(variable);
+		this.computeLogBelief(v);
+		int from = this.variableStatesOffset[v];
+		int to = this.variableStatesOffset[v + 1];
+		double sum = Edge.logOfSum(this.logBeliefs, from, to);
+		TObjectDoubleMap<STATES> stateToProbability = new TObjectDoubleHashMap<>();
+		for (int i = from; i < to; i++) {
+			stateToProbability.put((STATES) this.variableStates[v][i - from], Math.exp(this.logBeliefs[i] - sum));
+		}
+		return stateToProbability;
+	}
+
+	@SuppressWarnings("unchecked")
+	public <STATES> STATES getMostProbableState(Node<STATES> variable) {
+		int v = this.getVariableIndex(variable);
+		this.computeLogBelief(v);
+		int from = this.variableStatesOffset[v];
+		int mostProbableState = 0;
+		for (int s = 1; s < this.variableStates[v].length; s++) {
+			if (this.logBeliefs[from + s] > this.logBeliefs[from + mostProbableState]) {
+				mostProbableState = s;
+			}
+		}
+		return (STATES) this.variableStates[v][mostProbableState];
+	}
+}
@@ -0,0 +1,28 @@
+package com.lahodiuk.bp;
+
+/**
+ * Calculates messages from the {@link Factor} to all its variables. <br/>
+ * <br/>
+ * Messages of the factor are stored in the flat arrays of the
+ * {@link FactorGraph}: message of the i-th variable of the factor (i in
+ * [0, variablesCount)) occupies range [messageOffsets[fromMessage + i],
+ * messageOffsets[fromMessage + i + 1]), and contains one value per state of
+ * the variable (in the order of the indices of {@link Node#getDomain()}).
+ */
+public interface FactorKernel {
+
+	/**
+	 * @param incomingLogMessages
+	 *            logarithms of the messages from the variables to the factor
+	 * @param outgoingLogMessages
+	 *            logarithms of the (not normalized) messages from the factor to
+	 *            the variables, which should be calculated
+	 */
+	void computeLogMessages(
+			double[] incomingLogMessages,
+			double[] outgoingLogMessages,
+			int[] messageOffsets,
+			int fromMessage,
+			int variablesCount,
+			Semiring semiring);
+}
@@ -0,0 +1,103 @@
+package com.lahodiuk.bp;
+
+/**
+ * Iterative radix-2 Fast Fourier Transform of the fixed size (power of two).
+ * <br/>
+ * <br/>
+ * Tables of twiddle factors and bit-reversed indices are immutable, so single
+ * instance can be used by many threads simultaneously. Real and imaginary
+ * parts of the transformed sequence are stored in the caller's array (at the
+ * given offsets), and are transformed in place.
+ */
+class FastFourierTransform {
+
+	private final int size;
+
+	private final int[] bitReversedIndices;
+
+	private final double[] cos;
+
+	private final double[] sin;
+
+	FastFourierTransform(int size) {
+		if ((size < 1) || ((size & (size - 1)) != 0)) {
+			throw new RuntimeException("Size of FFT must be a power of two, but was " + size);
+		}
+		this.size = size;
+
+		int bits = Integer.numberOfTrailingZeros(size);
+		this.bitReversedIndices = new int[size];
+		for (int i = 0; i < size; i++) {
+			this.bitReversedIndices[i] = (bits == 0) ? 0 : (Integer.reverse(i) >>> (32 - bits));
+		}
+
+		this.cos = new double[size / 2];
+		this.sin = new double[size / 2];
+		for (int i = 0; i < (size / 2); i++) {
+			this.cos[i] = Math.cos((2 * Math.PI * i) / size);
+			this.sin[i] = Math.sin((2 * Math.PI * i) / size);
+		}
+	}
+
+	/**
+	 * @return smallest power of two, which is greater or equal to n
+	 */
+	static int sizeFor(int n) {
+		int size = 1;
+		while (size < n) {
+			size <<= 1;
+		}
+		return size;
+	}
+
+	int getSize() {
+		return this.size;
+	}
+
+	/**
+	 * Forward transform: X[k] = sum of x[j] * exp(-2 * pi * i * j * k / N)
+	 * <br/>
+	 * Inverse transform (without scaling by 1 / N): x[j] = sum of X[k] * exp(2
+	 * * pi * i * j * k / N)
+	 */
+	void transform(double[] data, int reOffset, int imOffset, boolean inverse) {
+		for (int i = 0; i < this.size; i++) {
+			int j = this.bitReversedIndices[i];
+			if (i < j) {
+				double re = data[reOffset + i];
+				data[reOffset + i] = data[reOffset + j];
+				data[reOffset + j] = re;
+				double im = data[imOffset + i];
+				data[imOffset + i] = data[imOffset + j];
+				data[imOffset + j] = im;
+			}
+		}
+
+		double sign = inverse ? 1 : -1;
+		for (int length = 2; length <= this.size; length <<= 1) {
+			int half = length >> 1;
+			int twiddleStep = this.size / length;
+			for (int start = 0; start < this.size; start += length) {
+				for (int k = 0; k < half; k++) {
+					double wRe = this.cos[k * twiddleStep];
+					double wIm = sign * this.sin[k * twiddleStep];
+
+					int even = start + k;
+					int odd = even + half;
+
+					double oddRe = data[reOffset + odd];
+					double oddIm = data[imOffset + odd];
+					double tRe = (oddRe * wRe) - (oddIm * wIm);
+					double tIm = (oddRe * wIm) + (oddIm * wRe);
+
+					double evenRe = data[reOffset + even];
+					double evenIm = data[imOffset + even];
+					data[reOffset + odd] = evenRe - tRe;
+					data[imOffset + odd] = evenIm - tIm;
+					data[reOffset + even] = evenRe + tRe;
+					data[imOffset + even] = evenIm + tIm;
+				}
+			}
+		}
+	}
+}
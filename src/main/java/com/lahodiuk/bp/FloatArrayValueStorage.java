@@ -0,0 +1,50 @@
+package com.lahodiuk.bp;
+
+import java.util.Arrays;
+
+/**
+ * Values are rounded to the single precision, but all reductions over them
+ * (see {@link #logOfSum(int, int)}) are calculated in the double precision
+ */
+class FloatArrayValueStorage extends ValueStorage {
+
+	private final float[] values;
+
+	FloatArrayValueStorage(int capacity) {
+		this.values = new float[capacity];
+	}
+
+	private FloatArrayValueStorage(float[] values) {
+		this.values = values;
+	}
+
+	@Override
+	public int capacity() {
+		return this.values.length;
+	}
+
+	@Override
+	public double get(int index) {
+		return this.values[index];
+	}
+
+	@Override
+	public void set(int index, double value) {
+		this.values[index] = (float) value;
+	}
+
+	@Override
+	ValueStorage allocate(int capacity) {
+		return new FloatArrayValueStorage(capacity);
+	}
+
+	@Override
+	ValueStorage grow(int capacity) {
+		return new FloatArrayValueStorage(Arrays.copyOf(this.values, capacity));
+	}
+
+	@Override
+	public void fill(int fromIndex, int toIndex, double value) {
+		Arrays.fill(this.values, fromIndex, toIndex, (float) value);
+	}
+}
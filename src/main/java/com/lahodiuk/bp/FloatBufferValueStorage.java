@@ -0,0 +1,55 @@
+package com.lahodiuk.bp;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+
+/**
+ * Same as {@link BufferValueStorage}, but the values are rounded to the single
+ * precision
+ */
+class FloatBufferValueStorage extends ValueStorage {
+
+	private static final int SEGMENT_SHIFT = BufferValueStorage.SEGMENT_SHIFT;
+
+	private static final int SEGMENT_MASK = BufferValueStorage.SEGMENT_SIZE - 1;
+
+	private final FloatBuffer[] segments;
+
+	private final int capacity;
+
+	private FloatBufferValueStorage(FloatBuffer[] segments, int capacity) {
+		this.segments = segments;
+		this.capacity = capacity;
+	}
+
+	static FloatBufferValueStorage allocateDirect(int capacity) {
+		FloatBuffer[] segments = new FloatBuffer[BufferValueStorage.getSegmentsCount(capacity)];
+		for (int i = 0; i < segments.length; i++) {
+			segments[i] = ByteBuffer.allocateDirect(BufferValueStorage.getSegmentSize(capacity, i) * Float.BYTES)
+					.order(ByteOrder.nativeOrder())
+					.asFloatBuffer();
+		}
+		return new FloatBufferValueStorage(segments, capacity);
+	}
+
+	@Override
+	public int capacity() {
+		return this.capacity;
+	}
+
+	@Override
+	public double get(int index) {
+		return this.segments[index >>> SEGMENT_SHIFT].get(index & SEGMENT_MASK);
+	}
+
+	@Override
+	public void set(int index, double value) {
+		this.segments[index >>> SEGMENT_SHIFT].put(index & SEGMENT_MASK, (float) value);
+	}
+
+	@Override
+	ValueStorage allocate(int capacity) {
+		return allocateDirect(capacity);
+	}
+}
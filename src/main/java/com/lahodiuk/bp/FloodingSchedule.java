@@ -0,0 +1,16 @@
+package com.lahodiuk.bp;
+
+/**
+ * Synchronous schedule: all messages are calculated using the messages from
+ * the previous sweep, and afterwards all of them are committed
+ */
+public class FloodingSchedule implements Schedule {
+
+	@Override
+	public void sweep(CompiledGraph graph, double tolerance, ResidualStatistics residuals) {
+		graph.updateMessagesByNodes();
+		for (int m = 0; m < graph.getMessagesCount(); m++) {
+			residuals.add(graph.refreshMessage(m));
+		}
+	}
+}
@@ -0,0 +1,67 @@
+package com.lahodiuk.bp;
+
+import java.util.ArrayList;
+import java.util.Collection;
+
+/**
+ * Options of compilation of the graph of {@link Node} and {@link Edge} objects
+ * into the {@link CompiledGraph}. <br/>
+ * <br/>
+ * Usage: <br/>
+ * CompiledGraph graph = new GraphCompiler().shareEqualPotentials(true).compile(edges);
+ */
+public class GraphCompiler {
+
+	private boolean shareEqualPotentials = false;
+
+	private boolean offHeap = false;
+
+	private boolean singlePrecision = false;
+
+	/**
+	 * Identical instances of {@link Potential} over the same domains are always
+	 * materialized into a single log-table. If this option is enabled - also
+	 * different instances of potentials with equal values (e.g. potential
+	 * instantiated per edge) are mapped to a single log-table.
+	 */
+	public GraphCompiler shareEqualPotentials(boolean shareEqualPotentials) {
+		this.shareEqualPotentials = shareEqualPotentials;
+		return this;
+	}
+
+	public boolean isSharingEqualPotentials() {
+		return this.shareEqualPotentials;
+	}
+
+	/**
+	 * Messages, priors, beliefs and log-tables of the potentials are stored
+	 * off the java heap (in the direct buffers), so the large graphs don't
+	 * put pressure on the garbage collector
+	 */
+	public GraphCompiler offHeap(boolean offHeap) {
+		this.offHeap = offHeap;
+		return this;
+	}
+
+	public boolean isOffHeap() {
+		return this.offHeap;
+	}
+
+	/**
+	 * Messages and log-tables of the potentials are stored as floats, which
+	 * halves their memory footprint (priors and beliefs, as well as all
+	 * calculations, stay in the double precision)
+	 */
+	public GraphCompiler singlePrecision(boolean singlePrecision) {
+		this.singlePrecision = singlePrecision;
+		return this;
+	}
+
+	public boolean isSinglePrecision() {
+		return this.singlePrecision;
+	}
+
+	public CompiledGraph compile(Collection<? extends Edge<?, ?>> edges) {
+		return new CompiledGraph(new ArrayList<Edge<?, ?>>(edges), this);
+	}
+}
@@ -0,0 +1,195 @@
+package com.lahodiuk.bp;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Binary snapshot of the {@link CompiledGraph}: topology, domains of the
+ * nodes, priors, log-tables of the potentials and current messages. <br/>
+ * <br/>
+ * Snapshot is loaded via {@link FileChannel#map}: topology, priors and
+ * log-tables are bulk-copied into the heap (no {@link Node} and {@link Edge}
+ * objects are created), and messages aren't copied at all - the
+ * loaded graph runs directly on the mapped file, so the messages, committed by
+ * the subsequent inference, are written back into the snapshot. <br/>
+ * <br/>
+ * Format (big-endian): <br/>
+ * int MAGIC, int VERSION <br/>
+ * int domainsCount, and for every domain: int statesCount, and for every
+ * state: int length, UTF-8 bytes of the string representation of the state
+ * (states are loaded as the strings, so the string representations of the
+ * states of every domain must be distinct) <br/>
+ * int nodesCount, int[nodesCount] domains of the nodes, double[total number of
+ * states] logarithms of the priors <br/>
+ * int edgesCount, int[edgesCount] node1, int[edgesCount] node2,
+ * int[edgesCount] offsets of the log-tables, byte[edgesCount] removed edges
+ * <br/>
+ * int tablesCount, int logPotentialsCount, double[logPotentialsCount]
+ * log-tables <br/>
+ * int messagesLength, double[messagesLength] logarithms of the messages (in
+ * the same layout, as in the compiled graph)
+ */
+public class GraphSnapshot {
+
+	private static final int MAGIC = 0x42505353;
+
+	private static final int VERSION = 1;
+
+	public static void write(CompiledGraph graph, Path path) throws IOException {
+		try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(path), 1 << 16))) {
+			output.writeInt(MAGIC);
+			output.writeInt(VERSION);
+
+			int nodesCount = graph.getNodesCount();
+			Map<StateDomain<?>, Integer> domainToIndex = new IdentityHashMap<>();
+			int[] nodeDomain = new int[nodesCount];
+			for (int n = 0; n < nodesCount; n++) {
+				StateDomain<?> states = graph.getDomain(n);
+				Integer domain = domainToIndex.get(states);
+				if (domain == null) {
+					domain = domainToIndex.size();
+					domainToIndex.put(states, domain);
+				}
+				nodeDomain[n] = domain;
+			}
+			StateDomain<?>[] domains = new StateDomain<?>[domainToIndex.size()];
+			for (Map.Entry<StateDomain<?>, Integer> entry : domainToIndex.entrySet()) {
+				domains[entry.getValue()] = entry.getKey();
+			}
+			output.writeInt(domains.length);
+			for (StateDomain<?> states : domains) {
+				output.writeInt(states.size());
+				Set<String> names = new HashSet<>();
+				for (Object state : states) {
+					if (!names.add(state.toString())) {
+						throw new RuntimeException("String representations of the states must be distinct: " + states);
+					}
+					byte[] bytes = state.toString().getBytes(StandardCharsets.UTF_8);
+					output.writeInt(bytes.length);
+					output.write(bytes);
+				}
+			}
+
+			output.writeInt(nodesCount);
+			for (int n = 0; n < nodesCount; n++) {
+				output.writeInt(nodeDomain[n]);
+			}
+			for (int i = 0; i < graph.getNodeStatesOffset(nodesCount); i++) {
+				output.writeDouble(graph.getLogPrior(i));
+			}
+
+			int edgesCount = graph.getEdgesCount();
+			output.writeInt(edgesCount);
+			for (int e = 0; e < edgesCount; e++) {
+				output.writeInt(graph.getMessageSource(2 * e));
+			}
+			for (int e = 0; e < edgesCount; e++) {
+				output.writeInt(graph.getMessageTarget(2 * e));
+			}
+			for (int e = 0; e < edgesCount; e++) {
+				output.writeInt(graph.getEdgeLogPotentialOffset(e));
+			}
+			for (int e = 0; e < edgesCount; e++) {
+				output.writeByte(graph.isEdgeRemoved(e) ? 1 : 0);
+			}
+
+			output.writeInt(graph.getPotentialTablesCount());
+			output.writeInt(graph.getLogPotentialsCount());
+			for (int i = 0; i < graph.getLogPotentialsCount(); i++) {
+				output.writeDouble(graph.getLogPotential(i));
+			}
+
+			int messagesLength = graph.getMessageOffset(graph.getMessagesCount());
+			output.writeInt(messagesLength);
+			for (int i = 0; i < messagesLength; i++) {
+				output.writeDouble(graph.getLogMessage(i));
+			}
+		}
+	}
+
+	/**
+	 * Loaded graph keeps the messages in the mapped file (mapping stays valid
+	 * until the graph is garbage collected), other parts of the snapshot
+	 * (including the priors, log-tables, beliefs and the buffer of the new
+	 * messages) are kept on the heap
+	 */
+	public static CompiledGraph load(Path path) throws IOException {
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+			ByteBuffer input = channel.map(FileChannel.MapMode.READ_ONLY, 0, Math.min(channel.size(), Integer.MAX_VALUE));
+			if ((input.getInt() != MAGIC) || (input.getInt() != VERSION)) {
+				throw new RuntimeException("Not a snapshot of the graph: " + path);
+			}
+
+			StateDomain<?>[] domains = new StateDomain<?>[input.getInt()];
+			for (int d = 0; d < domains.length; d++) {
+				String[] states = new String[input.getInt()];
+				for (int s = 0; s < states.length; s++) {
+					byte[] bytes = new byte[input.getInt()];
+					input.get(bytes);
+					states[s] = new String(bytes, StandardCharsets.UTF_8);
+				}
+				domains[d] = StateDomain.of(states);
+			}
+
+			int nodesCount = input.getInt();
+			int[] nodeDomain = readInts(input, nodesCount);
+			StateDomain<?>[] nodeDomains = new StateDomain<?>[nodesCount];
+			int statesCount = 0;
+			for (int n = 0; n < nodesCount; n++) {
+				nodeDomains[n] = domains[nodeDomain[n]];
+				statesCount = CompiledGraph.checkValuesCount((long) statesCount + nodeDomains[n].size());
+			}
+			double[] logPriors = readDoubles(input, statesCount);
+
+			int edgesCount = input.getInt();
+			int[] edgeNode1 = readInts(input, edgesCount);
+			int[] edgeNode2 = readInts(input, edgesCount);
+			int[] edgeLogPotentialOffset = readInts(input, edgesCount);
+			boolean[] edgeIsRemoved = new boolean[edgesCount];
+			for (int e = 0; e < edgesCount; e++) {
+				edgeIsRemoved[e] = input.get() != 0;
+			}
+
+			int tablesCount = input.getInt();
+			double[] logPotentials = readDoubles(input, input.getInt());
+
+			int messagesLength = input.getInt();
+			long messagesPosition = input.position();
+			DoubleBuffer[] segments = new DoubleBuffer[BufferValueStorage.getSegmentsCount(messagesLength)];
+			for (int i = 0; i < segments.length; i++) {
+				long position = messagesPosition + ((long) i * BufferValueStorage.SEGMENT_SIZE * Double.BYTES);
+				long size = (long) BufferValueStorage.getSegmentSize(messagesLength, i) * Double.BYTES;
+				segments[i] = channel.map(FileChannel.MapMode.READ_WRITE, position, size).asDoubleBuffer();
+			}
+
+			return new CompiledGraph(nodeDomains, logPriors, edgeNode1, edgeNode2, edgeLogPotentialOffset,
+					edgeIsRemoved, logPotentials, tablesCount, ValueStorage.onHeap(0), new BufferValueStorage(segments, messagesLength));
+		}
+	}
+
+	private static int[] readInts(ByteBuffer input, int count) {
+		int[] values = new int[count];
+		input.asIntBuffer().get(values);
+		input.position(input.position() + (count * Integer.BYTES));
+		return values;
+	}
+
+	private static double[] readDoubles(ByteBuffer input, int count) {
+		double[] values = new double[count];
+		input.asDoubleBuffer().get(values);
+		input.position(input.position() + (count * Double.BYTES));
+		return values;
+	}
+}
@@ -0,0 +1,129 @@
+package com.lahodiuk.bp;
+
+import java.util.Arrays;
+
+/**
+ * Binary max-heap over the ids 0..(size - 1), which supports changing of the
+ * priority of any id in O(log(size))
+ */
+class IndexedMaxHeap {
+
+	/**
+	 * position in heap -> id
+	 */
+	private int[] heap;
+
+	/**
+	 * id -> position in heap
+	 */
+	private int[] position;
+
+	private double[] priority;
+
+	/**
+	 * Arrays have spare capacity, so the heap grows in amortized O(1) per id
+	 */
+	private int size;
+
+	/**
+	 * All ids are contained in the heap with priority 0
+	 */
+	IndexedMaxHeap(int size) {
+		this.heap = new int[size];
+		this.position = new int[size];
+		this.priority = new double[size];
+		this.size = size;
+		for (int i = 0; i < size; i++) {
+			this.heap[i] = i;
+			this.position[i] = i;
+		}
+	}
+
+	int size() {
+		return this.size;
+	}
+
+	int peek() {
+		return this.heap[0];
+	}
+
+	double peekPriority() {
+		return this.priority[this.heap[0]];
+	}
+
+	double getPriority(int id) {
+		return this.priority[id];
+	}
+
+	void setPriority(int id, double newPriority) {
+		double oldPriority = this.priority[id];
+		this.priority[id] = newPriority;
+		if (newPriority > oldPriority) {
+			this.siftUp(this.position[id]);
+		} else if (newPriority < oldPriority) {
+			this.siftDown(this.position[id]);
+		}
+	}
+
+	/**
+	 * Appends the ids size() .. (newSize - 1) with priority 0 (priorities are
+	 * non-negative, so the new leaves don't violate the heap order)
+	 */
+	void grow(int newSize) {
+		if (newSize > this.heap.length) {
+			int capacity = Math.max(newSize, 2 * this.heap.length);
+			this.heap = Arrays.copyOf(this.heap, capacity);
+			this.position = Arrays.copyOf(this.position, capacity);
+			this.priority = Arrays.copyOf(this.priority, capacity);
+		}
+		for (int i = this.size; i < newSize; i++) {
+			this.heap[i] = i;
+			this.position[i] = i;
+			this.priority[i] = 0;
+		}
+		this.size = Math.max(this.size, newSize);
+	}
+
+	void clear() {
+		Arrays.fill(this.priority, 0, this.size, 0);
+	}
+
+	private void siftUp(int pos) {
+		int id = this.heap[pos];
+		while (pos > 0) {
+			int parentPos = (pos - 1) >> 1;
+			int parentId = this.heap[parentPos];
+			if (this.priority[parentId] >= this.priority[id]) {
+				break;
+			}
+			this.heap[pos] = parentId;
+			this.position[parentId] = pos;
+			pos = parentPos;
+		}
+		this.heap[pos] = id;
+		this.position[id] = pos;
+	}
+
+	private void siftDown(int pos) {
+		int id = this.heap[pos];
+		int size = this.size;
+		while (true) {
+			int childPos = (2 * pos) + 1;
+			if (childPos >= size) {
+				break;
+			}
+			if (((childPos + 1) < size) && (this.priority[this.heap[childPos + 1]] > this.priority[this.heap[childPos]])) {
+				childPos += 1;
+			}
+			int childId = this.heap[childPos];
+			if (this.priority[childId] <= this.priority[id]) {
+				break;
+			}
+			this.heap[pos] = childId;
+			this.position[childId] = pos;
+			pos = childPos;
+		}
+		this.heap[pos] = id;
+		this.position[id] = pos;
+	}
+}
@@ -0,0 +1,246 @@
+package com.lahodiuk.bp;
+
+import gnu.trove.list.TDoubleList;
+import gnu.trove.list.array.TDoubleArrayList;
+
+/**
+ * Runs sweeps of the {@link Schedule} over the {@link CompiledGraph} (or
+ * red/black sweeps over the {@link LatticeMRF}, or synchronous sweeps over the
+ * {@link FactorGraph} or the {@link BatchedGraph}), until
+ * maximal residual of the messages falls below the tolerance, or until budget
+ * of iterations or time runs out. <br/>
+ * <br/>
+ * Usage: <br/>
+ * InferenceResult result = new InferenceEngine(graph).tolerance(1e-6).maxIterations(100).run(); <br/>
+ * <br/>
+ * MAP assignment: <br/>
+ * new InferenceEngine(graph).semiring(Semiring.MAX_PRODUCT).run(); <br/>
+ * int[] assignment = graph.getMapAssignment(); <br/>
+ * <br/>
+ * Coarse-to-fine inference on the lattice: <br/>
+ * new InferenceEngine(lattice).multiscaleLevels(5).run();
+ */
+public class InferenceEngine {
+
+	public static final double DEFAULT_TOLERANCE = 1e-6;
+
+	public static final int DEFAULT_MAX_ITERATIONS = 100;
+
+	private final CompiledGraph graph;
+
+	private final LatticeMRF<?> lattice;
+
+	private final FactorGraph factorGraph;
+
+	private final BatchedGraph batchedGraph;
+
+	private Schedule schedule = new TreeSchedule();
+
+	private double tolerance = DEFAULT_TOLERANCE;
+
+	private int maxIterations = DEFAULT_MAX_ITERATIONS;
+
+	private long timeBudgetMillis = Long.MAX_VALUE;
+
+	private int multiscaleLevels = 1;
+
+	private final ResidualStatistics residuals = new ResidualStatistics();
+
+	public InferenceEngine(CompiledGraph graph) {
+		this.graph = graph;
+		this.lattice = null;
+		this.factorGraph = null;
+		this.batchedGraph = null;
+	}
+
+	/**
+	 * Lattice has its own schedule, so {@link #schedule(Schedule)} is ignored
+	 */
+	public InferenceEngine(LatticeMRF<?> lattice) {
+		this.graph = null;
+		this.lattice = lattice;
+		this.factorGraph = null;
+		this.batchedGraph = null;
+	}
+
+	/**
+	 * Factor graph has its own schedule, so {@link #schedule(Schedule)} is
+	 * ignored
+	 */
+	public InferenceEngine(FactorGraph factorGraph) {
+		this.graph = null;
+		this.lattice = null;
+		this.factorGraph = factorGraph;
+		this.batchedGraph = null;
+	}
+
+	/**
+	 * Batched graph has its own schedule, so {@link #schedule(Schedule)} is
+	 * ignored
+	 */
+	public InferenceEngine(BatchedGraph batchedGraph) {
+		this.graph = null;
+		this.lattice = null;
+		this.factorGraph = null;
+		this.batchedGraph = batchedGraph;
+	}
+
+	public InferenceEngine schedule(Schedule schedule) {
+		this.schedule = schedule;
+		return this;
+	}
+
+	/**
+	 * Semiring of the graph (or of the lattice, of the factor graph, of the
+	 * batched graph)
+	 */
+	public InferenceEngine semiring(Semiring semiring) {
+		if (this.lattice != null) {
+			this.lattice.setSemiring(semiring);
+		} else if (this.factorGraph != null) {
+			this.factorGraph.setSemiring(semiring);
+		} else if (this.batchedGraph != null) {
+			this.batchedGraph.setSemiring(semiring);
+		} else {
+			this.graph.setSemiring(semiring);
+		}
+		return this;
+	}
+
+	/**
+	 * Graph only: beam pruning of the messages, see
+	 * {@link CompiledGraph#setBeam(int, double)}
+	 */
+	public InferenceEngine beam(int width, double logThreshold) {
+		if (this.graph == null) {
+			throw new RuntimeException("Beam pruning is supported only for the compiled graph");
+		}
+		this.graph.setBeam(width, logThreshold);
+		return this;
+	}
+
+	public InferenceEngine tolerance(double tolerance) {
+		this.tolerance = tolerance;
+		return this;
+	}
+
+	public InferenceEngine maxIterations(int maxIterations) {
+		this.maxIterations = maxIterations;
+		return this;
+	}
+
+	public InferenceEngine timeBudgetMillis(long timeBudgetMillis) {
+		this.timeBudgetMillis = timeBudgetMillis;
+		return this;
+	}
+
+	/**
+	 * Lattice only: number of levels of the pyramid (including the lattice
+	 * itself). Every coarser level is twice smaller in each dimension, and BP
+	 * on the coarser level initializes messages of the finer level, so
+	 * information travels across wide regions of the lattice in a few
+	 * sweeps.
+	 */
+	public InferenceEngine multiscaleLevels(int multiscaleLevels) {
+		if (this.lattice == null) {
+			throw new RuntimeException("Multiscale inference is supported only for the lattice");
+		}
+		this.multiscaleLevels = multiscaleLevels;
+		return this;
+	}
+
+	public CompiledGraph getGraph() {
+		return this.graph;
+	}
+
+	public double getTolerance() {
+		return this.tolerance;
+	}
+
+	/**
+	 * Performs single sweep of the schedule
+	 *
+	 * @return residuals of the messages, committed during the sweep (instance
+	 *         is reused by the subsequent sweeps)
+	 */
+	public ResidualStatistics sweep() {
+		this.residuals.reset();
+		if (this.lattice != null) {
+			this.lattice.sweep(this.residuals);
+		} else if (this.factorGraph != null) {
+			this.factorGraph.sweep(this.residuals);
+		} else if (this.batchedGraph != null) {
+			this.batchedGraph.sweep(this.residuals);
+		} else {
+			this.schedule.sweep(this.graph, this.tolerance, this.residuals);
+		}
+		return this.residuals;
+	}
+
+	/**
+	 * Runs inference on the coarser levels of the pyramid (from the coarsest
+	 * one), each until convergence or until the budget of iterations runs out,
+	 * and initializes messages of the lattice from the level above it. <br/>
+	 * <br/>
+	 * Called by {@link #run()}, but can be also used before the manual
+	 * {@link #sweep()}-s.
+	 */
+	public void initializeFromCoarserLevels() {
+		if ((this.lattice == null) || (this.multiscaleLevels <= 1)) {
+			return;
+		}
+		this.initializeFromCoarserLevels(this.lattice, this.multiscaleLevels - 1);
+	}
+
+	private <STATES> void initializeFromCoarserLevels(LatticeMRF<STATES> finer, int coarserLevels) {
+		if ((coarserLevels == 0) || (finer.getWidth() == 1) || (finer.getHeight() == 1)) {
+			return;
+		}
+		LatticeMRF<STATES> coarser = finer.coarsen();
+		this.initializeFromCoarserLevels(coarser, coarserLevels - 1);
+		for (int i = 0; i < this.maxIterations; i++) {
+			this.residuals.reset();
+			coarser.sweep(this.residuals);
+			if ((this.residuals.getMaxResidual() < this.tolerance) || this.residuals.isDiverged()) {
+				break;
+			}
+		}
+		finer.initializeMessagesFrom(coarser);
+	}
+
+	/**
+	 * Sweeps of the lattice (or of the graph) are counted in the result, sweeps
+	 * of the coarser levels of the pyramid aren't.
+	 */
+	public InferenceResult run() {
+		long startTime = System.currentTimeMillis();
+		this.initializeFromCoarserLevels();
+
+		TDoubleList maxResiduals = new TDoubleArrayList();
+		TDoubleList meanResiduals = new TDoubleArrayList();
+
+		StopReason stopReason = StopReason.MAX_ITERATIONS_REACHED;
+		int iterations = 0;
+		while (iterations < this.maxIterations) {
+			ResidualStatistics sweepResiduals = this.sweep();
+			iterations += 1;
+			maxResiduals.add(sweepResiduals.getMaxResidual());
+			meanResiduals.add(sweepResiduals.getMeanResidual());
+
+			if (sweepResiduals.isDiverged()) {
+				stopReason = StopReason.DIVERGED;
+				break;
+			}
+			if (sweepResiduals.getMaxResidual() < this.tolerance) {
+				stopReason = StopReason.CONVERGED;
+				break;
+			}
+			if ((System.currentTimeMillis() - startTime) >= this.timeBudgetMillis) {
+				stopReason = StopReason.TIME_BUDGET_EXHAUSTED;
+				break;
+			}
+		}
+
+		return new InferenceResult(stopReason, iterations, System.currentTimeMillis() - startTime, maxResiduals, meanResiduals);
+	}
+}
@@ -0,0 +1,77 @@
+package com.lahodiuk.bp;
+
+import gnu.trove.list.TDoubleList;
+
+public class InferenceResult {
+
+	private final StopReason stopReason;
+
+	private final int iterations;
+
+	private final long elapsedMillis;
+
+	private final double[] maxResiduals;
+
+	private final double[] meanResiduals;
+
+	InferenceResult(StopReason stopReason, int iterations, long elapsedMillis, TDoubleList maxResiduals, TDoubleList meanResiduals) {
+		this.stopReason = stopReason;
+		this.iterations = iterations;
+		this.elapsedMillis = elapsedMillis;
+		this.maxResiduals = maxResiduals.toArray();
+		this.meanResiduals = meanResiduals.toArray();
+	}
+
+	public StopReason getStopReason() {
+		return this.stopReason;
+	}
+
+	public boolean isConverged() {
+		return this.stopReason == StopReason.CONVERGED;
+	}
+
+	/**
+	 * @return number of performed sweeps
+	 */
+	public int getIterations() {
+		return this.iterations;
+	}
+
+	public long getElapsedMillis() {
+		return this.elapsedMillis;
+	}
+
+	/**
+	 * @return maximal residual of the last sweep
+	 */
+	public double getMaxResidual() {
+		return (this.iterations == 0) ? Double.NaN : this.maxResiduals[this.iterations - 1];
+	}
+
+	/**
+	 * @return mean residual of the last sweep
+	 */
+	public double getMeanResidual() {
+		return (this.iterations == 0) ? Double.NaN : this.meanResiduals[this.iterations - 1];
+	}
+
+	/**
+	 * @return maximal residual of every sweep
+	 */
+	public double[] getMaxResiduals() {
+		return this.maxResiduals;
+	}
+
+	/**
+	 * @return mean residual of every sweep
+	 */
+	public double[] getMeanResiduals() {
+		return this.meanResiduals;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%s after %d iterations (%d ms), max residual = %.3g, mean residual = %.3g",
+				this.stopReason, this.iterations, this.elapsedMillis, this.getMaxResidual(), this.getMeanResidual());
+	}
+}
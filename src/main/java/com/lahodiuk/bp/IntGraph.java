@@ -0,0 +1,198 @@
+package com.lahodiuk.bp;
+
+import gnu.trove.list.array.TDoubleArrayList;
+import gnu.trove.list.array.TIntArrayList;
+import gnu.trove.map.TIntObjectMap;
+import gnu.trove.map.hash.TIntObjectHashMap;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Primitive counterpart of the graph of {@link Node} and {@link Edge} objects:
+ * nodes are {@link IntNode}-s with int states, and potentials are
+ * {@link IntPotential}-s. Nodes get indices in the order of their addition.
+ * <br/>
+ * <br/>
+ * Same graph can be compiled for the Belief Propagation (see
+ * {@link #compile()}), or sampled by the Gibbs sampling (see
+ * com.lahodiuk.sampling.gibbs.GibbsSamplingIntMRF). <br/>
+ * <br/>
+ * Usage: <br/>
+ * IntGraph graph = new IntGraph(); <br/>
+ * graph.connect(node1, node2, potential); <br/>
+ * CompiledGraph compiledGraph = graph.compile(); <br/>
+ * new InferenceEngine(compiledGraph).run(); <br/>
+ * double[] probabilities = compiledGraph.getPosteriorProbabilities(graph.getNodeIndex(node1));
+ */
+public class IntGraph {
+
+	private final List<IntNode> nodes = new ArrayList<>();
+
+	private final Map<IntNode, Integer> nodeToIndex = new IdentityHashMap<>();
+
+	private final TIntArrayList edgeNode1 = new TIntArrayList();
+
+	private final TIntArrayList edgeNode2 = new TIntArrayList();
+
+	private final List<IntPotential> edgePotentials = new ArrayList<>();
+
+	/**
+	 * @return index of the node (node is added, if it isn't a part of the
+	 *         graph yet)
+	 */
+	public int addNode(IntNode node) {
+		Integer index = this.nodeToIndex.get(node);
+		if (index == null) {
+			index = this.nodes.size();
+			this.nodes.add(node);
+			this.nodeToIndex.put(node, index);
+		}
+		return index;
+	}
+
+	/**
+	 * @return index of the edge
+	 */
+	public int connect(IntNode node1, IntNode node2, IntPotential potential) {
+		this.edgeNode1.add(this.addNode(node1));
+		this.edgeNode2.add(this.addNode(node2));
+		this.edgePotentials.add(potential);
+		return this.edgePotentials.size() - 1;
+	}
+
+	public int getNodesCount() {
+		return this.nodes.size();
+	}
+
+	public IntNode getNode(int node) {
+		return this.nodes.get(node);
+	}
+
+	public int getNodeIndex(IntNode node) {
+		Integer index = this.nodeToIndex.get(node);
+		if (index == null) {
+			throw new RuntimeException("Node is not a part of the graph");
+		}
+		return index;
+	}
+
+	public int getEdgesCount() {
+		return this.edgePotentials.size();
+	}
+
+	public int getEdgeNode1(int edge) {
+		return this.edgeNode1.get(edge);
+	}
+
+	public int getEdgeNode2(int edge) {
+		return this.edgeNode2.get(edge);
+	}
+
+	public IntPotential getEdgePotential(int edge) {
+		return this.edgePotentials.get(edge);
+	}
+
+	/**
+	 * Nodes and edges of the compiled graph have the same indices, as in this
+	 * graph, and the state s of the node is represented by the Integer s. <br/>
+	 * <br/>
+	 * Log-tables are evaluated once per instance of the potential and pair of
+	 * the numbers of the states of the nodes.
+	 */
+	public CompiledGraph compile() {
+		int nodesCount = this.nodes.size();
+		TIntObjectMap<StateDomain<Integer>> statesCountToDomain = new TIntObjectHashMap<>();
+		StateDomain<?>[] nodeDomains = new StateDomain<?>[nodesCount];
+		int statesCount = 0;
+		for (int n = 0; n < nodesCount; n++) {
+			int nodeStatesCount = this.nodes.get(n).getStatesCount();
+			StateDomain<Integer> domain = statesCountToDomain.get(nodeStatesCount);
+			if (domain == null) {
+				Integer[] states = new Integer[nodeStatesCount];
+				for (int s = 0; s < nodeStatesCount; s++) {
+					states[s] = s;
+				}
+				domain = new StateDomain<>(states);
+				statesCountToDomain.put(nodeStatesCount, domain);
+			}
+			nodeDomains[n] = domain;
+			statesCount = CompiledGraph.checkValuesCount((long) statesCount + nodeStatesCount);
+		}
+
+		double[] logPriors = new double[statesCount];
+		int offset = 0;
+		for (int n = 0; n < nodesCount; n++) {
+			IntNode node = this.nodes.get(n);
+			for (int s = 0; s < node.getStatesCount(); s++) {
+				logPriors[offset + s] = node.logPrior(s);
+			}
+			offset += node.getStatesCount();
+		}
+
+		int edgesCount = this.edgePotentials.size();
+		Map<TableKey, Integer> keyToOffset = new HashMap<>();
+		TDoubleArrayList logPotentials = new TDoubleArrayList();
+		int[] edgeLogPotentialOffset = new int[edgesCount];
+		int messagesLength = 0;
+		for (int e = 0; e < edgesCount; e++) {
+			IntPotential potential = this.edgePotentials.get(e);
+			int node1StatesCount = this.nodes.get(this.edgeNode1.get(e)).getStatesCount();
+			int node2StatesCount = this.nodes.get(this.edgeNode2.get(e)).getStatesCount();
+			TableKey key = new TableKey(potential, node1StatesCount, node2StatesCount);
+			Integer logPotentialOffset = keyToOffset.get(key);
+			if (logPotentialOffset == null) {
+				// log-table is stored as (states of node1 x states of node2)
+				logPotentialOffset = logPotentials.size();
+				CompiledGraph.checkValuesCount(logPotentialOffset + ((long) node1StatesCount * node2StatesCount));
+				for (int s1 = 0; s1 < node1StatesCount; s1++) {
+					for (int s2 = 0; s2 < node2StatesCount; s2++) {
+						logPotentials.add(potential.logValue(s1, s2));
+					}
+				}
+				keyToOffset.put(key, logPotentialOffset);
+			}
+			edgeLogPotentialOffset[e] = logPotentialOffset;
+			messagesLength = CompiledGraph.checkValuesCount((long) messagesLength + node1StatesCount + node2StatesCount);
+		}
+
+		return new CompiledGraph(nodeDomains, logPriors, this.edgeNode1.toArray(), this.edgeNode2.toArray(), edgeLogPotentialOffset,
+				new boolean[edgesCount], logPotentials.toArray(), keyToOffset.size(), ValueStorage.onHeap(0),
+				ValueStorage.onHeap(messagesLength));
+	}
+
+	/**
+	 * Identity of the potential and numbers of the states of nodes
+	 */
+	private static class TableKey {
+
+		private final IntPotential potential;
+		private final int node1StatesCount;
+		private final int node2StatesCount;
+
+		TableKey(IntPotential potential, int node1StatesCount, int node2StatesCount) {
+			this.potential = potential;
+			this.node1StatesCount = node1StatesCount;
+			this.node2StatesCount = node2StatesCount;
+		}
+
+		@Override
+		public int hashCode() {
+			return (31 * ((31 * System.identityHashCode(this.potential)) + this.node1StatesCount)) + this.node2StatesCount;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof TableKey)) {
+				return false;
+			}
+			TableKey other = (TableKey) obj;
+			return (this.potential == other.potential)
+					&& (this.node1StatesCount == other.node1StatesCount)
+					&& (this.node2StatesCount == other.node2StatesCount);
+		}
+	}
+}
@@ -0,0 +1,28 @@
+package com.lahodiuk.bp;
+
+/**
+ * Node of the {@link IntGraph}, which states are just the indices 0, 1, ...
+ * getStatesCount() - 1 (e.g. colors or bits), so no state objects are
+ * created, and no boxing or casts happen while the priors are evaluated.
+ */
+public abstract class IntNode {
+
+	private final int statesCount;
+
+	public IntNode(int statesCount) {
+		if (statesCount < 1) {
+			throw new RuntimeException("Node must have at least one state: " + statesCount);
+		}
+		this.statesCount = statesCount;
+	}
+
+	public int getStatesCount() {
+		return this.statesCount;
+	}
+
+	public abstract double prior(int state);
+
+	public double logPrior(int state) {
+		return Math.log(this.prior(state));
+	}
+}
@@ -0,0 +1,14 @@
+package com.lahodiuk.bp;
+
+/**
+ * Potential between two {@link IntNode}-s, addressed by the indices of the
+ * states (primitive counterpart of the {@link Potential})
+ */
+public abstract class IntPotential {
+
+	public abstract double logValue(int node1State, int node2State);
+
+	public double value(int node1State, int node2State) {
+		return Math.exp(this.logValue(node1State, node2State));
+	}
+}
@@ -0,0 +1,398 @@
+package com.lahodiuk.bp;
+
+import gnu.trove.map.TObjectDoubleMap;
+import gnu.trove.map.hash.TObjectDoubleHashMap;
+
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Pairwise Markov Random Field over the 4-connected 2D lattice (e.g. pixels of
+ * the image). <br/>
+ * <br/>
+ * Nodes are implicit (x, y) coordinates, all of them have the same domain of
+ * states, and all edges share a single log-table of the potential. Edge
+ * between (x, y) and (x + 1, y), as well as between (x, y) and (x, y + 1), has
+ * node (x, y) as node1. <br/>
+ * <br/>
+ * Priors and messages are stored in flat arrays (pixel-major, states of the
+ * pixel are contiguous), so memory footprint is exactly: <br/>
+ * 5 * width * height * S doubles (priors and 4 planes of incoming messages),
+ * or width * height * S doubles and 4 * width * height * S floats (see
+ * {@link #singlePrecision(boolean)}). Every plane is addressed by int, so
+ * width * height * S can't exceed {@link CompiledGraph#MAX_VALUES_COUNT}. <br/>
+ * <br/>
+ * Inference uses red/black (checkerboard) schedule: all pixels of the same
+ * color calculate and commit their outgoing messages in parallel (rows are
+ * split across threads). <br/>
+ * <br/>
+ * If the potential is {@link DifferencePotential} (and labels of the states
+ * are 0, 1, ... S - 1), sum-product messages are calculated via FFT in O(S *
+ * log(S)), and max-product messages via
+ * {@link DifferencePotential#logMaxConvolution(double[], int, double[], int, int, boolean, double[], int)}
+ * (O(S) for the truncated linear and quadratic potentials).
+ */
+public class LatticeMRF<STATES> {
+
+	/**
+	 * Provides the node, which defines prior probabilities of the pixel. Node
+	 * is only used during construction of the lattice.
+	 */
+	public interface PixelNodeFactory<STATES> {
+		Node<STATES> getNode(int x, int y);
+	}
+
+	private static final int ROWS_GRANULARITY = 8;
+
+	private final int width;
+
+	private final int height;
+
+	private final Object[] states;
+
+	private final int statesCount;
+
+	private final double[] logPotential;
+
+	/**
+	 * Null, if messages are calculated via dense table of the potential
+	 */
+	private final DifferenceKernel differenceKernel;
+
+	private final double[] logPriors;
+
+	/**
+	 * Message into the pixel from its left neighbour (x - 1, y)
+	 */
+	private ValueStorage fromLeft;
+
+	/**
+	 * Message into the pixel from its right neighbour (x + 1, y)
+	 */
+	private ValueStorage fromRight;
+
+	/**
+	 * Message into the pixel from its upper neighbour (x, y - 1)
+	 */
+	private ValueStorage fromUp;
+
+	/**
+	 * Message into the pixel from its lower neighbour (x, y + 1)
+	 */
+	private ValueStorage fromDown;
+
+	private boolean singlePrecision = false;
+
+	private ForkJoinPool pool = ForkJoinPool.commonPool();
+
+	private Semiring semiring = Semiring.SUM_PRODUCT;
+
+	public LatticeMRF(int width, int height, Potential<STATES, STATES> potential, PixelNodeFactory<STATES> nodes) {
+		this.width = width;
+		this.height = height;
+
+		StateDomain<STATES> domain = nodes.getNode(0, 0).getDomain();
+		this.states = domain.getStates();
+		this.statesCount = this.states.length;
+
+		this.logPotential = new double[CompiledGraph.checkValuesCount((long) this.statesCount * this.statesCount)];
+		for (int s1 = 0; s1 < this.statesCount; s1++) {
+			for (int s2 = 0; s2 < this.statesCount; s2++) {
+				this.logPotential[(s1 * this.statesCount) + s2] = potential.getLogValueNoTypeCheck(this.states[s1], this.states[s2]);
+			}
+		}
+		this.differenceKernel = DifferenceKernel.create(potential, this.states);
+
+		this.logPriors = new double[this.getPlaneSize()];
+		for (int y = 0; y < height; y++) {
+			for (int x = 0; x < width; x++) {
+				Node<STATES> node = nodes.getNode(x, y);
+				if (!node.getDomain().equals(domain)) {
+					throw new RuntimeException("All nodes of the lattice must have the same domain");
+				}
+				int offset = this.offset(x, y);
+				for (int s = 0; s < this.statesCount; s++) {
+					this.logPriors[offset + s] = node.getLogPriorProbablilityNoTypeCheck(this.states[s]);
+				}
+			}
+		}
+
+		this.allocateMessages();
+	}
+
+	/**
+	 * Coarser level of the pyramid: every pixel covers block 2 x 2 of the
+	 * finer lattice, and its log-prior is a sum of log-priors of the block
+	 */
+	private LatticeMRF(LatticeMRF<STATES> finer) {
+		this.width = (finer.width + 1) / 2;
+		this.height = (finer.height + 1) / 2;
+		this.states = finer.states;
+		this.statesCount = finer.statesCount;
+		this.logPotential = finer.logPotential;
+		this.differenceKernel = finer.differenceKernel;
+		this.pool = finer.pool;
+		this.semiring = finer.semiring;
+		this.singlePrecision = finer.singlePrecision;
+
+		this.logPriors = new double[this.getPlaneSize()];
+		for (int y = 0; y < finer.height; y++) {
+			for (int x = 0; x < finer.width; x++) {
+				int finerOffset = finer.offset(x, y);
+				int offset = this.offset(x / 2, y / 2);
+				for (int s = 0; s < this.statesCount; s++) {
+					this.logPriors[offset + s] += finer.logPriors[finerOffset + s];
+				}
+			}
+		}
+
+		this.allocateMessages();
+	}
+
+	/**
+	 * @return number of values in the plane of the priors (as well as in every
+	 *         plane of the messages), so the offsets of the pixels fit into int
+	 */
+	private int getPlaneSize() {
+		return CompiledGraph.checkValuesCount((long) this.width * this.height * this.statesCount);
+	}
+
+	private void allocateMessages() {
+		int size = this.getPlaneSize();
+		this.fromLeft = ValueStorage.create(size, false, this.singlePrecision);
+		this.fromRight = ValueStorage.create(size, false, this.singlePrecision);
+		this.fromUp = ValueStorage.create(size, false, this.singlePrecision);
+		this.fromDown = ValueStorage.create(size, false, this.singlePrecision);
+	}
+
+	/**
+	 * @return lattice of the next level of the pyramid (twice smaller in each
+	 *         dimension), with the same potential and semiring
+	 */
+	public LatticeMRF<STATES> coarsen() {
+		return new LatticeMRF<>(this);
+	}
+
+	/**
+	 * Initializes incoming messages of every pixel (x, y) by the incoming
+	 * messages of the pixel (x / 2, y / 2) of the coarser lattice (see
+	 * Felzenszwalb, Huttenlocher: Efficient Belief Propagation for Early
+	 * Vision)
+	 */
+	public void initializeMessagesFrom(LatticeMRF<?> coarser) {
+		if ((coarser.width != ((this.width + 1) / 2)) || (coarser.height != ((this.height + 1) / 2))
+				|| (coarser.statesCount != this.statesCount)) {
+			throw new RuntimeException("Lattice " + coarser.width + "x" + coarser.height
+					+ " isn't the coarser level of the lattice " + this.width + "x" + this.height);
+		}
+		for (int y = 0; y < this.height; y++) {
+			for (int x = 0; x < this.width; x++) {
+				int offset = this.offset(x, y);
+				int coarserOffset = coarser.offset(x / 2, y / 2);
+				for (int s = 0; s < this.statesCount; s++) {
+					this.fromLeft.set(offset + s, coarser.fromLeft.get(coarserOffset + s));
+					this.fromRight.set(offset + s, coarser.fromRight.get(coarserOffset + s));
+					this.fromUp.set(offset + s, coarser.fromUp.get(coarserOffset + s));
+					this.fromDown.set(offset + s, coarser.fromDown.get(coarserOffset + s));
+				}
+			}
+		}
+	}
+
+	public LatticeMRF<STATES> pool(ForkJoinPool pool) {
+		this.pool = pool;
+		return this;
+	}
+
+	/**
+	 * Messages are stored as floats, which halves the memory footprint of the
+	 * messages (all calculations stay in the double precision). Messages are
+	 * reset, so precision must be chosen before the inference.
+	 */
+	public LatticeMRF<STATES> singlePrecision(boolean singlePrecision) {
+		this.singlePrecision = singlePrecision;
+		this.allocateMessages();
+		return this;
+	}
+
+	public boolean isSinglePrecision() {
+		return this.singlePrecision;
+	}
+
+	public Semiring getSemiring() {
+		return this.semiring;
+	}
+
+	public void setSemiring(Semiring semiring) {
+		this.semiring = semiring;
+	}
+
+	public int getWidth() {
+		return this.width;
+	}
+
+	public int getHeight() {
+		return this.height;
+	}
+
+	public int getStatesCount() {
+		return this.statesCount;
+	}
+
+	public boolean isUsingDifferenceKernel() {
+		return this.differenceKernel != null;
+	}
+
+	private int offset(int x, int y) {
+		return ((y * this.width) + x) * this.statesCount;
+	}
+
+	/**
+	 * One red/black sweep over the lattice
+	 */
+	public void sweep(ResidualStatistics residuals) {
+		int bufferSize = (2 * this.statesCount) + ((this.differenceKernel != null) ? this.differenceKernel.getScratchSize() : 0);
+		for (int parity = 0; parity < 2; parity++) {
+			final int color = parity;
+			residuals.merge(this.pool.invoke(new RangeTask((from, to, buffer, rangeResiduals) -> {
+				double[] logBelief = new double[this.statesCount];
+				for (int y = from; y < to; y++) {
+					for (int x = (y + color) & 1; x < this.width; x += 2) {
+						this.updateOutgoingMessages(x, y, logBelief, buffer, rangeResiduals);
+					}
+				}
+			}, 0, this.height, ROWS_GRANULARITY, bufferSize)));
+		}
+	}
+
+	private void updateOutgoingMessages(int x, int y, double[] logBelief, double[] buffer, ResidualStatistics residuals) {
+		int offset = this.offset(x, y);
+		this.computeLogBelief(offset, logBelief);
+
+		if ((x + 1) < this.width) {
+			// pixel is node1 of the edge
+			residuals.add(this.sendMessage(logBelief, this.fromRight, offset, this.fromLeft, this.offset(x + 1, y), this.statesCount, 1, buffer));
+		}
+		if (x > 0) {
+			// pixel is node2 of the edge
+			residuals.add(this.sendMessage(logBelief, this.fromLeft, offset, this.fromRight, this.offset(x - 1, y), 1, this.statesCount, buffer));
+		}
+		if ((y + 1) < this.height) {
+			residuals.add(this.sendMessage(logBelief, this.fromDown, offset, this.fromUp, this.offset(x, y + 1), this.statesCount, 1, buffer));
+		}
+		if (y > 0) {
+			residuals.add(this.sendMessage(logBelief, this.fromUp, offset, this.fromDown, this.offset(x, y - 1), 1, this.statesCount, buffer));
+		}
+	}
+
+	/**
+	 * Calculates, normalizes and commits the message from the pixel to its
+	 * neighbour
+	 *
+	 * @param reversePlane
+	 *            plane, which contains the message from the neighbour to the
+	 *            pixel
+	 * @param targetPlane
+	 *            plane, into which the message is written
+	 * @return residual of the message
+	 */
+	private double sendMessage(
+			double[] logBelief,
+			ValueStorage reversePlane,
+			int sourceOffset,
+			ValueStorage targetPlane,
+			int targetOffset,
+			int sourceStride,
+			int targetStride,
+			double[] buffer) {
+
+		// buffer[0, S) holds terms of the sum, buffer[S, 2S) holds the message,
+		// and the rest is the scratch space of the difference kernel
+		int messageOffset = this.statesCount;
+		if (this.differenceKernel != null) {
+			for (int s = 0; s < this.statesCount; s++) {
+				buffer[s] = logBelief[s] - reversePlane.get(sourceOffset + s);
+			}
+			boolean sourceIsNode1 = sourceStride != 1;
+			if (this.semiring == Semiring.MAX_PRODUCT) {
+				this.differenceKernel.maxProductMessage(buffer, 0, buffer, messageOffset, sourceIsNode1, buffer, 2 * this.statesCount);
+			} else {
+				this.differenceKernel.sumProductMessage(buffer, 0, buffer, messageOffset, sourceIsNode1, buffer, 2 * this.statesCount);
+			}
+		} else {
+			for (int t = 0; t < this.statesCount; t++) {
+				int logPotentialRowOffset = t * targetStride;
+				for (int s = 0; s < this.statesCount; s++) {
+					buffer[s] = this.logPotential[logPotentialRowOffset + (s * sourceStride)]
+							+ (logBelief[s] - reversePlane.get(sourceOffset + s));
+				}
+				buffer[messageOffset + t] = this.semiring.logOfSum(buffer, 0, this.statesCount);
+			}
+		}
+
+		double logSum = this.semiring.logOfSum(buffer, messageOffset, messageOffset + this.statesCount);
+		double residual = 0;
+		for (int t = 0; t < this.statesCount; t++) {
+			// residual is measured after the rounding to the precision of the
+			// storage
+			double oldLogMessage = targetPlane.get(targetOffset + t);
+			targetPlane.set(targetOffset + t, buffer[messageOffset + t] - logSum);
+			residual = Math.max(residual, ResidualStatistics.residual(oldLogMessage, targetPlane.get(targetOffset + t)));
+		}
+		return residual;
+	}
+
+	private void computeLogBelief(int offset, double[] logBelief) {
+		for (int s = 0; s < this.statesCount; s++) {
+			logBelief[s] = this.logPriors[offset + s]
+					+ this.fromLeft.get(offset + s)
+					+ this.fromRight.get(offset + s)
+					+ this.fromUp.get(offset + s)
+					+ this.fromDown.get(offset + s);
+		}
+	}
+
+	public int getMostProbableStateIndex(int x, int y) {
+		int offset = this.offset(x, y);
+		double[] logBelief = new double[this.statesCount];
+		this.computeLogBelief(offset, logBelief);
+		int mostProbableState = 0;
+		for (int s = 1; s < this.statesCount; s++) {
+			if (logBelief[s] > logBelief[mostProbableState]) {
+				mostProbableState = s;
+			}
+		}
+		return mostProbableState;
+	}
+
+	/**
+	 * @return index of the most probable state of every pixel (pixel (x, y) is
+	 *         at the index y * width + x). With {@link Semiring#MAX_PRODUCT} -
+	 *         this is the MAP labelling (unless max-marginals are tied).
+	 */
+	public int[] getMostProbableStateIndices() {
+		int[] mostProbableStates = new int[this.width * this.height];
+		for (int y = 0; y < this.height; y++) {
+			for (int x = 0; x < this.width; x++) {
+				mostProbableStates[(y * this.width) + x] = this.getMostProbableStateIndex(x, y);
+			}
+		}
+		return mostProbableStates;
+	}
+
+	@SuppressWarnings("unchecked")
+	public STATES getMostProbableState(int x, int y) {
+		return (STATES) this.states[this.getMostProbableStateIndex(x, y)];
+	}
+
+	@SuppressWarnings("unchecked")
+	public TObjectDoubleMap<STATES> getPosteriorProbabilities(int x, int y) {
+		double[] logBelief = new double[this.statesCount];
+		this.computeLogBelief(this.offset(x, y), logBelief);
+		double sum = Edge.logOfSum(logBelief);
+		TObjectDoubleMap<STATES> stateToProbability = new TObjectDoubleHashMap<>();
+		for (int s = 0; s < this.statesCount; s++) {
+			stateToProbability.put((STATES) this.states[s], Math.exp(logBelief[s] - sum));
+		}
+		return stateToProbability;
+	}
+}
@@ -0,0 +1,179 @@
+package com.lahodiuk.bp;
+
+import gnu.trove.list.array.TDoubleArrayList;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Materializes potentials into dense log-tables (row-major: states of node1 x
+ * states of node2), which are stored in a single contiguous array. <br/>
+ * <br/>
+ * Exceptions of the tables of the {@link SparsePotential}-s are indexed in
+ * addition to the dense tables (see {@link #getSparseTable(int)}).
+ */
+class LogPotentialTables {
+
+	private final boolean shareEqualPotentials;
+
+	private final Map<TableKey, Integer> keyToOffset = new HashMap<>();
+
+	private final Map<TableContent, Integer> contentToOffset = new HashMap<>();
+
+	private final Map<Integer, SparseLogTable> offsetToSparseTable = new HashMap<>();
+
+	private final TDoubleArrayList logValues = new TDoubleArrayList();
+
+	private int tablesCount = 0;
+
+	LogPotentialTables(boolean shareEqualPotentials) {
+		this.shareEqualPotentials = shareEqualPotentials;
+	}
+
+	/**
+	 * @return offset of the log-table of the potential
+	 */
+	int getOffset(Potential<?, ?> potential, StateDomain<?> node1Domain, StateDomain<?> node2Domain) {
+		TableKey key = new TableKey(potential, node1Domain, node2Domain);
+		Integer offset = this.keyToOffset.get(key);
+		if (offset != null) {
+			return offset;
+		}
+
+		Object[] node1States = node1Domain.getStates();
+		Object[] node2States = node2Domain.getStates();
+		double[] table = new double[node1States.length * node2States.length];
+		for (int s1 = 0; s1 < node1States.length; s1++) {
+			for (int s2 = 0; s2 < node2States.length; s2++) {
+				table[(s1 * node2States.length) + s2] = potential.getLogValueNoTypeCheck(node1States[s1], node2States[s2]);
+			}
+		}
+
+		if (this.shareEqualPotentials) {
+			TableContent content = new TableContent(node1States.length, table);
+			offset = this.contentToOffset.get(content);
+			if (offset == null) {
+				offset = this.append(table);
+				this.contentToOffset.put(content, offset);
+			}
+		} else {
+			offset = this.append(table);
+		}
+
+		if ((potential instanceof SparsePotential) && !this.offsetToSparseTable.containsKey(offset)) {
+			double defaultValue = ((SparsePotential<?, ?>) potential).getDefaultValue();
+			this.offsetToSparseTable.put(offset, new SparseLogTable(defaultValue, table, node1States.length, node2States.length));
+		}
+
+		this.keyToOffset.put(key, offset);
+		return offset;
+	}
+
+	private int append(double[] table) {
+		int offset = this.logValues.size();
+		CompiledGraph.checkValuesCount((long) offset + table.length);
+		this.logValues.add(table);
+		this.tablesCount += 1;
+		return offset;
+	}
+
+	/**
+	 * Tables, loaded from the snapshot (potentials behind them are unknown, so
+	 * they aren't shared with the tables of the new edges)
+	 */
+	void appendLoaded(double[] logValues, int tablesCount) {
+		this.logValues.add(logValues);
+		this.tablesCount += tablesCount;
+	}
+
+	/**
+	 * @return exceptions of the table at the given offset, or null - if the
+	 *         table doesn't belong to the {@link SparsePotential}
+	 */
+	SparseLogTable getSparseTable(int offset) {
+		return this.offsetToSparseTable.get(offset);
+	}
+
+	int getTablesCount() {
+		return this.tablesCount;
+	}
+
+	/**
+	 * @return total size of all tables
+	 */
+	int getValuesCount() {
+		return this.logValues.size();
+	}
+
+	double getLogValue(int index) {
+		return this.logValues.get(index);
+	}
+
+	double[] toArray() {
+		return this.logValues.toArray();
+	}
+
+	/**
+	 * Identity of the potential and of the domains of nodes
+	 */
+	private static class TableKey {
+
+		private final Potential<?, ?> potential;
+		private final StateDomain<?> node1Domain;
+		private final StateDomain<?> node2Domain;
+
+		TableKey(Potential<?, ?> potential, StateDomain<?> node1Domain, StateDomain<?> node2Domain) {
+			this.potential = potential;
+			this.node1Domain = node1Domain;
+			this.node2Domain = node2Domain;
+		}
+
+		@Override
+		public int hashCode() {
+			return (31 * ((31 * System.identityHashCode(this.potential)) + System.identityHashCode(this.node1Domain)))
+					+ System.identityHashCode(this.node2Domain);
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof TableKey)) {
+				return false;
+			}
+			TableKey other = (TableKey) obj;
+			return (this.potential == other.potential)
+					&& (this.node1Domain == other.node1Domain)
+					&& (this.node2Domain == other.node2Domain);
+		}
+	}
+
+	/**
+	 * Values of the log-table
+	 */
+	private static class TableContent {
+
+		private final int rows;
+		private final double[] values;
+		private final int hashCode;
+
+		TableContent(int rows, double[] values) {
+			this.rows = rows;
+			this.values = values;
+			this.hashCode = (31 * rows) + Arrays.hashCode(values);
+		}
+
+		@Override
+		public int hashCode() {
+			return this.hashCode;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof TableContent)) {
+				return false;
+			}
+			TableContent other = (TableContent) obj;
+			return (this.rows == other.rows) && Arrays.equals(this.values, other.values);
+		}
+	}
+}
@@ -11,6 +11,28 @@ public abstract class Node<STATES> {
 
 	public abstract Set<STATES> getStates();
 
+	private Set<STATES> domainStates;
+
+	private StateDomain<STATES> domain;
+
+	/**
+	 * States of the node with the stable indices. <br/>
+	 * <br/>
+	 * By default, domain is built from {@link #getStates()} (in the order of
+	 * its iteration), and cached while the same instance of the set is
+	 * returned. Nodes with the same states should override it and return the
+	 * shared instance of the domain (and {@link StateDomain#asSet()} from
+	 * {@link #getStates()}).
+	 */
+	public StateDomain<STATES> getDomain() {
+		Set<STATES> states = this.getStates();
+		if (this.domainStates != states) {
+			this.domain = StateDomain.of(states);
+			this.domainStates = states;
+		}
+		return this.domain;
+	}
+
 	public abstract double getPriorProbablility(STATES state);
 
 	@SuppressWarnings("unchecked")
@@ -24,10 +46,19 @@ public abstract class Node<STATES> {
 		return Math.log(this.getPriorProbablility(state));
 	}
 
+	@SuppressWarnings("unchecked")
+	public double getLogPriorProbablilityNoTypeCheck(Object state) {
+		return this.getLogPriorProbablility((STATES) state);
+	}
+
 	public void addEdge(Edge<?, ?> edge) {
 		this.edges.add(edge);
 	}
 
+	public void removeEdge(Edge<?, ?> edge) {
+		this.edges.remove(edge);
+	}
+
 	public List<Edge<?, ?>> getEdges() {
 		return this.edges;
 	}
@@ -62,7 +93,7 @@ public abstract class Node<STATES> {
 
 	public TObjectDoubleMap<STATES> getStateToLogPriorProbabilityAndProductIncomingMessages() {
 		TObjectDoubleMap<STATES> stateToLogPriorProbabilityAndProductIncomingMessages = new TObjectDoubleHashMap<>();
-		for (STATES state : this.getStates()) {
+		for (STATES state : this.getDomain()) {
 			double logProductOfIncomingMessages = 0;
 			for (Edge<?, ?> edge : this.edges) {
 				logProductOfIncomingMessages += edge.getLogIncomingMessage(this, state);
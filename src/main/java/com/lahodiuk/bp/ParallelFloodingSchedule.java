@@ -0,0 +1,94 @@
+package com.lahodiuk.bp;
+
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Multi-threaded equivalent of the {@link FloodingSchedule}. <br/>
+ * <br/>
+ * Every phase of the synchronous schedule is split across the threads of the
+ * {@link ForkJoinPool}: <br/>
+ * 1) beliefs of all nodes are calculated (every node by a single thread) <br/>
+ * 2) new values of all messages are calculated (only committed messages and
+ * beliefs are read, every thread uses its own scratch array) <br/>
+ * 3) all messages are committed <br/>
+ * <br/>
+ * So, messages are bit for bit the same as after the sequential run. <br/>
+ * <br/>
+ * Schedule, created with the number of threads, owns its pool, and should be
+ * closed after use: <br/>
+ * try (ParallelFloodingSchedule schedule = new ParallelFloodingSchedule(4)) {
+ * ... }
+ */
+public class ParallelFloodingSchedule implements Schedule, AutoCloseable {
+
+	public static final int DEFAULT_GRANULARITY = 1024;
+
+	private final ForkJoinPool pool;
+
+	private final int granularity;
+
+	/**
+	 * Pool is created by the schedule, so it is shut down by {@link #close()}
+	 */
+	private final boolean poolIsOwned;
+
+	public ParallelFloodingSchedule() {
+		this(ForkJoinPool.commonPool(), DEFAULT_GRANULARITY);
+	}
+
+	/**
+	 * Pool of the threads is owned by the schedule, see {@link #close()}
+	 */
+	public ParallelFloodingSchedule(int threadsCount) {
+		this(new ForkJoinPool(threadsCount), DEFAULT_GRANULARITY, true);
+	}
+
+	/**
+	 * @param granularity
+	 *            maximal number of nodes or messages, processed by a single
+	 *            task
+	 */
+	public ParallelFloodingSchedule(ForkJoinPool pool, int granularity) {
+		this(pool, granularity, false);
+	}
+
+	private ParallelFloodingSchedule(ForkJoinPool pool, int granularity, boolean poolIsOwned) {
+		this.pool = pool;
+		this.granularity = granularity;
+		this.poolIsOwned = poolIsOwned;
+	}
+
+	@Override
+	public void sweep(CompiledGraph graph, double tolerance, ResidualStatistics residuals) {
+		int bufferSize = graph.getScratchSize();
+
+		this.pool.invoke(new RangeTask((from, to, buffer, rangeResiduals) -> {
+			for (int n = from; n < to; n++) {
+				graph.ensureLogBelief(n);
+			}
+		}, 0, graph.getNodesCount(), this.granularity, bufferSize));
+
+		this.pool.invoke(new RangeTask((from, to, buffer, rangeResiduals) -> {
+			for (int m = from; m < to; m++) {
+				graph.updateMessage(m, buffer);
+			}
+		}, 0, graph.getMessagesCount(), this.granularity, bufferSize));
+
+		residuals.merge(this.pool.invoke(new RangeTask((from, to, buffer, rangeResiduals) -> {
+			for (int m = from; m < to; m++) {
+				rangeResiduals.add(graph.refreshMessage(m));
+			}
+		}, 0, graph.getMessagesCount(), this.granularity, bufferSize)));
+	}
+
+	/**
+	 * Shuts down the pool, if it was created by the schedule (the pool, passed
+	 * by the caller, is left running)
+	 */
+	@Override
+	public void close() {
+		if (this.poolIsOwned) {
+			this.pool.shutdown();
+		}
+	}
+}
@@ -0,0 +1,100 @@
+package com.lahodiuk.bp;
+
+/**
+ * Parity check: XOR of all binary variables of the factor must be equal to
+ * the given parity (0 - even, 1 - odd). <br/>
+ * <br/>
+ * Every variable must have exactly 2 states: the state with index 0 in the
+ * domain (see {@link Node#getDomain()}) is the bit 0, and the state with index
+ * 1 is the bit 1. <br/>
+ * <br/>
+ * Messages to all k variables are calculated in O(k) (instead of O(2^k)) by
+ * the forward-backward pass over the parity of the prefixes and suffixes of
+ * the variables: <br/>
+ * forward[i][p] - (log of) sum over assignments of the variables 0 .. i - 1
+ * with parity p <br/>
+ * backward[i][p] - the same for the variables i + 1 .. k - 1 <br/>
+ * message[i][b] = sum over p of forward[i][p] * backward[i][parity ^ p ^ b]
+ * <br/>
+ * <br/>
+ * In the sum-product semiring this is equivalent to the "tanh rule", but
+ * works in the log domain (and in the max-product semiring too).
+ */
+public class ParityFactorKernel implements FactorKernel {
+
+	private final int parity;
+
+	public ParityFactorKernel() {
+		this(0);
+	}
+
+	public ParityFactorKernel(int parity) {
+		this.parity = parity & 1;
+	}
+
+	@Override
+	public void computeLogMessages(
+			double[] incomingLogMessages,
+			double[] outgoingLogMessages,
+			int[] messageOffsets,
+			int fromMessage,
+			int variablesCount,
+			Semiring semiring) {
+
+		// backward pass is stored directly into the outgoing messages:
+		// outgoing[i][p] := backward[i][p]
+		double suffix0 = 0;
+		double suffix1 = Double.NEGATIVE_INFINITY;
+		for (int i = variablesCount - 1; i >= 0; i--) {
+			int offset = this.offset(messageOffsets, fromMessage + i);
+			outgoingLogMessages[offset] = suffix0;
+			outgoingLogMessages[offset + 1] = suffix1;
+
+			double in0 = incomingLogMessages[offset];
+			double in1 = incomingLogMessages[offset + 1];
+			double next0 = this.logOfSum(suffix0 + in0, suffix1 + in1, semiring);
+			double next1 = this.logOfSum(suffix1 + in0, suffix0 + in1, semiring);
+			suffix0 = next0;
+			suffix1 = next1;
+		}
+
+		double prefix0 = 0;
+		double prefix1 = Double.NEGATIVE_INFINITY;
+		for (int i = 0; i < variablesCount; i++) {
+			int offset = this.offset(messageOffsets, fromMessage + i);
+			double backward0 = outgoingLogMessages[offset];
+			double backward1 = outgoingLogMessages[offset + 1];
+
+			// parity of the rest of the variables must be: parity ^ b
+			double rest0 = this.logOfSum(prefix0 + backward0, prefix1 + backward1, semiring);
+			double rest1 = this.logOfSum(prefix0 + backward1, prefix1 + backward0, semiring);
+			outgoingLogMessages[offset] = (this.parity == 0) ? rest0 : rest1;
+			outgoingLogMessages[offset + 1] = (this.parity == 0) ? rest1 : rest0;
+
+			double in0 = incomingLogMessages[offset];
+			double in1 = incomingLogMessages[offset + 1];
+			double next0 = this.logOfSum(prefix0 + in0, prefix1 + in1, semiring);
+			double next1 = this.logOfSum(prefix1 + in0, prefix0 + in1, semiring);
+			prefix0 = next0;
+			prefix1 = next1;
+		}
+	}
+
+	private int offset(int[] messageOffsets, int message) {
+		int offset = messageOffsets[message];
+		if ((messageOffsets[message + 1] - offset) != 2) {
+			throw new RuntimeException("Parity check is defined only for the variables with 2 states");
+		}
+		return offset;
+	}
+
+	private double logOfSum(double log1, double log2, Semiring semiring) {
+		if (log1 == Double.NEGATIVE_INFINITY) {
+			return log2;
+		}
+		if (log2 == Double.NEGATIVE_INFINITY) {
+			return log1;
+		}
+		return semiring.logOfSum(log1, log2);
+	}
+}
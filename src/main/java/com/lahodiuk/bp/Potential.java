@@ -12,4 +12,9 @@ public abstract class Potential<STATES_OF_NODE_1, STATES_OF_NODE_2> {
 	public double getValueNoTypeCheck(Object node1State, Object node2State) {
 		return this.getValue((STATES_OF_NODE_1) node1State, (STATES_OF_NODE_2) node2State);
 	}
+
+	@SuppressWarnings("unchecked")
+	public double getLogValueNoTypeCheck(Object node1State, Object node2State) {
+		return this.getLogValue((STATES_OF_NODE_1) node1State, (STATES_OF_NODE_2) node2State);
+	}
 }
@@ -0,0 +1,53 @@
+package com.lahodiuk.bp;
+
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Splits range [from, to) into chunks of at most <b>granularity</b> elements,
+ * which are processed by the {@link RangeAction} in parallel. Every chunk gets
+ * its own scratch array and residual statistics, and statistics of all chunks
+ * are merged.
+ */
+class RangeTask extends RecursiveTask<ResidualStatistics> {
+
+	private static final long serialVersionUID = 1L;
+
+	interface RangeAction {
+		void run(int from, int to, double[] buffer, ResidualStatistics residuals);
+	}
+
+	private final RangeAction action;
+
+	private final int from;
+
+	private final int to;
+
+	private final int granularity;
+
+	private final int bufferSize;
+
+	RangeTask(RangeAction action, int from, int to, int granularity, int bufferSize) {
+		this.action = action;
+		this.from = from;
+		this.to = to;
+		this.granularity = granularity;
+		this.bufferSize = bufferSize;
+	}
+
+	@Override
+	protected ResidualStatistics compute() {
+		if ((this.to - this.from) <= this.granularity) {
+			ResidualStatistics residuals = new ResidualStatistics();
+			this.action.run(this.from, this.to, new double[this.bufferSize], residuals);
+			return residuals;
+		}
+
+		int middle = (this.from + this.to) >>> 1;
+		RangeTask left = new RangeTask(this.action, this.from, middle, this.granularity, this.bufferSize);
+		RangeTask right = new RangeTask(this.action, middle, this.to, this.granularity, this.bufferSize);
+		left.fork();
+		ResidualStatistics residuals = right.compute();
+		residuals.merge(left.join());
+		return residuals;
+	}
+}
@@ -0,0 +1,130 @@
+package com.lahodiuk.bp;
+
+/**
+ * Residual Belief Propagation: <br/>
+ * G. Elidan, I. McGraw, D. Koller <br/>
+ * "Residual Belief Propagation: Informed Scheduling for Asynchronous Message
+ * Passing" <br/>
+ * <br/>
+ * All directed messages are kept in the indexed priority queue, keyed by the
+ * residual of the pending (calculated, but not yet committed) message. The
+ * message with the largest residual is always committed next, and afterwards
+ * pending messages, which depend on it, are recalculated. <br/>
+ * <br/>
+ * One sweep commits at most as many messages as the graph contains, and stops
+ * earlier when all pending residuals fall below the threshold (so, a sweep
+ * without committed messages means convergence). By default the threshold is
+ * the tolerance of the {@link InferenceEngine}. <br/>
+ * <br/>
+ * When priors of some nodes are changed after the convergence (see
+ * {@link CompiledGraph#setPriorProbability(Node, Object, double)}), or edges
+ * are added or removed (see {@link CompiledGraph#addEdge(Edge)}), only the
+ * outgoing messages of the affected nodes are recalculated, and changes are
+ * propagated outward only as far as the residuals exceed the threshold.
+ */
+public class ResidualSchedule implements Schedule {
+
+	/**
+	 * NaN - if the tolerance of the engine is used
+	 */
+	private final double residualThreshold;
+
+	private CompiledGraph graph;
+
+	private IndexedMaxHeap queue;
+
+	/**
+	 * Semiring version of the graph, in which pending messages were calculated
+	 */
+	private int semiringVersion;
+
+	/**
+	 * Messages are the ids of the queue, so the queue is rebuilt, when the
+	 * graph renumbers them
+	 */
+	private int edgeNumberingVersion;
+
+	private long messageUpdatesCount = 0;
+
+	public ResidualSchedule() {
+		this(Double.NaN);
+	}
+
+	/**
+	 * Overrides the tolerance of the engine: messages with residual below the
+	 * threshold aren't committed
+	 */
+	public ResidualSchedule(double residualThreshold) {
+		this.residualThreshold = residualThreshold;
+	}
+
+	@Override
+	public void sweep(CompiledGraph graph, double tolerance, ResidualStatistics residuals) {
+		if ((this.graph != graph) || (this.semiringVersion != graph.getSemiringVersion())
+				|| (this.edgeNumberingVersion != graph.getEdgeNumberingVersion())) {
+			this.initialize(graph);
+		} else if (this.queue.size() != graph.getMessagesCount()) {
+			// edges were added: new messages get zero priority, and are
+			// calculated below, as outgoing messages of the changed nodes
+			this.queue.grow(graph.getMessagesCount());
+		}
+		for (int node : graph.drainChangedNodes()) {
+			for (int i = graph.getIncomingMessagesFrom(node); i < graph.getIncomingMessagesTo(node); i++) {
+				this.updatePendingMessage(graph.getIncomingMessage(i) ^ 1);
+			}
+		}
+
+		double residualThreshold = Double.isNaN(this.residualThreshold) ? tolerance : this.residualThreshold;
+		int messagesCount = graph.getMessagesCount();
+		for (int i = 0; i < messagesCount; i++) {
+			if (this.queue.peekPriority() < residualThreshold) {
+				break;
+			}
+			int message = this.queue.peek();
+			residuals.add(graph.refreshMessage(message));
+			this.queue.setPriority(message, 0);
+			this.updateDependentMessages(message);
+		}
+	}
+
+	private void initialize(CompiledGraph graph) {
+		this.graph = graph;
+		this.semiringVersion = graph.getSemiringVersion();
+		this.edgeNumberingVersion = graph.getEdgeNumberingVersion();
+		this.queue = new IndexedMaxHeap(graph.getMessagesCount());
+		for (int m = 0; m < graph.getMessagesCount(); m++) {
+			this.updatePendingMessage(m);
+		}
+	}
+
+	/**
+	 * Recalculates the messages, which are sent by the target of the committed
+	 * message (except the message back to the source)
+	 */
+	private void updateDependentMessages(int committedMessage) {
+		int target = this.graph.getMessageTarget(committedMessage);
+		int reverseMessage = committedMessage ^ 1;
+		for (int i = this.graph.getIncomingMessagesFrom(target); i < this.graph.getIncomingMessagesTo(target); i++) {
+			int outgoingMessage = this.graph.getIncomingMessage(i) ^ 1;
+			if (outgoingMessage != reverseMessage) {
+				this.updatePendingMessage(outgoingMessage);
+			}
+		}
+	}
+
+	private void updatePendingMessage(int message) {
+		this.graph.updateMessage(message);
+		this.messageUpdatesCount += 1;
+		double residual = this.graph.getPendingResidual(message);
+		// message, which becomes NaN, is committed first, so the sweep reports
+		// the divergence
+		this.queue.setPriority(message, Double.isNaN(residual) ? Double.POSITIVE_INFINITY : residual);
+	}
+
+	/**
+	 * @return total number of message computations, performed by this schedule
+	 */
+	public long getMessageUpdatesCount() {
+		return this.messageUpdatesCount;
+	}
+}
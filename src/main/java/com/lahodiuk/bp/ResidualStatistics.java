@@ -0,0 +1,75 @@
+package com.lahodiuk.bp;
+
+/**
+ * Residuals of the messages, committed during one sweep of the inference. <br/>
+ * Residual of the message is the maximal absolute difference between the old
+ * and the new logarithms of the normalized message (see
+ * {@link #residual(double, double)}). <br/>
+ * <br/>
+ * Message, which became NaN (e.g. all states of the message are impossible,
+ * because of the contradicting hard constraints), has NaN residual, and the
+ * sweep is considered as diverged (see {@link #isDiverged()}).
+ */
+public class ResidualStatistics {
+
+	private double maxResidual = 0;
+
+	private double sumOfResiduals = 0;
+
+	private long messagesCount = 0;
+
+	/**
+	 * @return residual of the single value of the message: equal values
+	 *         (including the equal infinities, i.e. the hard zeros) have zero
+	 *         residual, and NaN value - NaN residual
+	 */
+	public static double residual(double oldLogValue, double newLogValue) {
+		if (oldLogValue == newLogValue) {
+			return 0;
+		}
+		return Math.abs(newLogValue - oldLogValue);
+	}
+
+	/**
+	 * NaN residual is kept as the maximal one
+	 */
+	public void add(double residual) {
+		this.maxResidual = Math.max(this.maxResidual, residual);
+		this.sumOfResiduals += residual;
+		this.messagesCount += 1;
+	}
+
+	public void merge(ResidualStatistics other) {
+		this.maxResidual = Math.max(this.maxResidual, other.maxResidual);
+		this.sumOfResiduals += other.sumOfResiduals;
+		this.messagesCount += other.messagesCount;
+	}
+
+	public void reset() {
+		this.maxResidual = 0;
+		this.sumOfResiduals = 0;
+		this.messagesCount = 0;
+	}
+
+	public double getMaxResidual() {
+		return this.maxResidual;
+	}
+
+	public boolean isDiverged() {
+		return Double.isNaN(this.maxResidual);
+	}
+
+	public double getMeanResidual() {
+		if (this.messagesCount == 0) {
+			return 0;
+		}
+		return this.sumOfResiduals / this.messagesCount;
+	}
+
+	/**
+	 * @return number of committed messages
+	 */
+	public long getMessagesCount() {
+		return this.messagesCount;
+	}
+}
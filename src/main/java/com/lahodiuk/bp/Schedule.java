@@ -0,0 +1,18 @@
+package com.lahodiuk.bp;
+
+/**
+ * Order, in which messages of the {@link CompiledGraph} are calculated and
+ * committed during one sweep of the {@link InferenceEngine}
+ */
+public interface Schedule {
+
+	/**
+	 * Performs one sweep over the graph, and collects residuals of all
+	 * committed messages
+	 *
+	 * @param tolerance
+	 *            tolerance of the {@link InferenceEngine} (schedule may skip
+	 *            the messages, which residuals are below it)
+	 */
+	void sweep(CompiledGraph graph, double tolerance, ResidualStatistics residuals);
+}
@@ -0,0 +1,80 @@
+package com.lahodiuk.bp;
+
+/**
+ * Semiring, in which messages are calculated. Messages are kept in the log
+ * domain, so "product" is always a sum of logarithms, and only the reduction
+ * over the states of the source node differs.
+ */
+public enum Semiring {
+
+	/**
+	 * Beliefs are (approximations of) marginal probabilities
+	 */
+	SUM_PRODUCT {
+		@Override
+		public double logOfSum(double[] arrLogs, int fromIndex, int toIndex) {
+			return Edge.logOfSum(arrLogs, fromIndex, toIndex);
+		}
+
+		@Override
+		public double logOfSum(ValueStorage logs, int fromIndex, int toIndex) {
+			return logs.logOfSum(fromIndex, toIndex);
+		}
+
+		@Override
+		public double logOfSum(double log1, double log2) {
+			double maxLog = Math.max(log1, log2);
+			if (maxLog == Double.NEGATIVE_INFINITY) {
+				// sum of zeros
+				return maxLog;
+			}
+			return maxLog + Math.log(Math.exp(log1 - maxLog) + Math.exp(log2 - maxLog));
+		}
+	},
+
+	/**
+	 * Beliefs are (approximations of) max-marginals, so the most probable
+	 * states of the nodes form the MAP assignment. No transcendental functions
+	 * are evaluated during the message passing.
+	 */
+	MAX_PRODUCT {
+		@Override
+		public double logOfSum(double[] arrLogs, int fromIndex, int toIndex) {
+			double maxLog = arrLogs[fromIndex];
+			for (int i = fromIndex + 1; i < toIndex; i++) {
+				maxLog = Math.max(arrLogs[i], maxLog);
+			}
+			return maxLog;
+		}
+
+		@Override
+		public double logOfSum(ValueStorage logs, int fromIndex, int toIndex) {
+			return logs.max(fromIndex, toIndex);
+		}
+
+		@Override
+		public double logOfSum(double log1, double log2) {
+			return Math.max(log1, log2);
+		}
+	};
+
+	/**
+	 * Given: log(X1), log(X2), ... log(Xn) (in range [fromIndex, toIndex))
+	 * <br/>
+	 * Returns: log(X1 + X2 + ... + Xn), where "+" is an addition of the
+	 * semiring
+	 */
+	public abstract double logOfSum(double[] arrLogs, int fromIndex, int toIndex);
+
+	/**
+	 * Same as {@link #logOfSum(double[], int, int)}, but over the storage of
+	 * the messages
+	 */
+	public abstract double logOfSum(ValueStorage logs, int fromIndex, int toIndex);
+
+	/**
+	 * Same as {@link #logOfSum(double[], int, int)}, but for two values
+	 * (without the array)
+	 */
+	public abstract double logOfSum(double log1, double log2);
+}
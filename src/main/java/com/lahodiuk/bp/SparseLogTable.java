@@ -0,0 +1,121 @@
+package com.lahodiuk.bp;
+
+import gnu.trove.list.array.TDoubleArrayList;
+import gnu.trove.list.array.TIntArrayList;
+
+/**
+ * Exceptions of the log-table of the {@link SparsePotential}, indexed both by
+ * rows (states of node1) and by columns (states of node2). Exceptions are
+ * stored in the linear domain, as differences from the default value: <br/>
+ * value(s1, s2) = default + delta(s1, s2) <br/>
+ * <br/>
+ * So, message from the source node with the (cavity) weights w(s) is: <br/>
+ * m(t) = default * sum over s of w(s) + sum over exceptions (s, t) of delta(s,
+ * t) * w(s) <br/>
+ * <br/>
+ * Precision of the message is relative to the total mass of the source node -
+ * so, small values of the message, which are the result of the cancellation,
+ * are recalculated from the dense log-table by the {@link CompiledGraph}.
+ */
+class SparseLogTable {
+
+	private final double defaultValue;
+
+	/**
+	 * Exceptions of the row s1 are in range [rowExceptionsFrom[s1],
+	 * rowExceptionsFrom[s1 + 1])
+	 */
+	private final int[] rowExceptionsFrom;
+
+	private final int[] rowExceptionColumns;
+
+	private final double[] rowExceptionDeltas;
+
+	private final int[] columnExceptionsFrom;
+
+	private final int[] columnExceptionRows;
+
+	private final double[] columnExceptionDeltas;
+
+	/**
+	 * @param logTable
+	 *            dense log-table (row-major: states of node1 x states of
+	 *            node2)
+	 */
+	SparseLogTable(double defaultValue, double[] logTable, int rows, int columns) {
+		this.defaultValue = defaultValue;
+		double logDefaultValue = Math.log(defaultValue);
+
+		this.rowExceptionsFrom = new int[rows + 1];
+		this.columnExceptionsFrom = new int[columns + 1];
+		TIntArrayList exceptionRows = new TIntArrayList();
+		TIntArrayList exceptionColumns = new TIntArrayList();
+		TDoubleArrayList exceptionDeltas = new TDoubleArrayList();
+		for (int s1 = 0; s1 < rows; s1++) {
+			for (int s2 = 0; s2 < columns; s2++) {
+				double logValue = logTable[(s1 * columns) + s2];
+				if (logValue != logDefaultValue) {
+					exceptionRows.add(s1);
+					exceptionColumns.add(s2);
+					exceptionDeltas.add(Math.exp(logValue) - defaultValue);
+					this.rowExceptionsFrom[s1 + 1] += 1;
+					this.columnExceptionsFrom[s2 + 1] += 1;
+				}
+			}
+		}
+		for (int s1 = 0; s1 < rows; s1++) {
+			this.rowExceptionsFrom[s1 + 1] += this.rowExceptionsFrom[s1];
+		}
+		for (int s2 = 0; s2 < columns; s2++) {
+			this.columnExceptionsFrom[s2 + 1] += this.columnExceptionsFrom[s2];
+		}
+
+		// exceptions were collected row by row, so rows are already sorted
+		int exceptionsCount = exceptionDeltas.size();
+		this.rowExceptionColumns = exceptionColumns.toArray();
+		this.rowExceptionDeltas = exceptionDeltas.toArray();
+		this.columnExceptionRows = new int[exceptionsCount];
+		this.columnExceptionDeltas = new double[exceptionsCount];
+		int[] position = new int[columns];
+		for (int i = 0; i < exceptionsCount; i++) {
+			int s2 = exceptionColumns.get(i);
+			int index = this.columnExceptionsFrom[s2] + position[s2];
+			this.columnExceptionRows[index] = exceptionRows.get(i);
+			this.columnExceptionDeltas[index] = exceptionDeltas.get(i);
+			position[s2] += 1;
+		}
+	}
+
+	double getDefaultValue() {
+		return this.defaultValue;
+	}
+
+	int getExceptionsCount() {
+		return this.rowExceptionDeltas.length;
+	}
+
+	/**
+	 * @param weights
+	 *            weights of the states of the source node (starting at index
+	 *            0)
+	 * @param sourceIsNode1
+	 *            whether the message is sent from node1 to node2
+	 * @param target
+	 *            state of the target node
+	 * @return value of the message for the state of the target node, without
+	 *         the default term
+	 */
+	double getCorrection(double[] weights, boolean sourceIsNode1, int target) {
+		double correction = 0;
+		if (sourceIsNode1) {
+			for (int i = this.columnExceptionsFrom[target]; i < this.columnExceptionsFrom[target + 1]; i++) {
+				correction += this.columnExceptionDeltas[i] * weights[this.columnExceptionRows[i]];
+			}
+		} else {
+			for (int i = this.rowExceptionsFrom[target]; i < this.rowExceptionsFrom[target + 1]; i++) {
+				correction += this.rowExceptionDeltas[i] * weights[this.rowExceptionColumns[i]];
+			}
+		}
+		return correction;
+	}
+}
@@ -0,0 +1,22 @@
+package com.lahodiuk.bp;
+
+/**
+ * Potential, which has the same (default) value for almost every pair of the
+ * states, and other values (exceptions) only for a few of the pairs, e.g. the
+ * compatibility of the states: <br/>
+ * value(state1, state2) = compatible(state1, state2) ? 1 : epsilon <br/>
+ * <br/>
+ * Sum-product messages across such potential are calculated by the
+ * {@link CompiledGraph} as "default * total mass of the source node +
+ * corrections of the exceptions", in O(S1 + S2 + number of the exceptions)
+ * instead of O(S1 * S2) (see {@link SparseLogTable}).
+ */
+public abstract class SparsePotential<STATES_OF_NODE_1, STATES_OF_NODE_2> extends Potential<STATES_OF_NODE_1, STATES_OF_NODE_2> {
+
+	/**
+	 * @return value of the potential for all pairs of the states, except of
+	 *         the exceptions (for which
+	 *         {@link #getValue(Object, Object)} returns something else)
+	 */
+	public abstract double getDefaultValue();
+}
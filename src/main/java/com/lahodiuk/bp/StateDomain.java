@@ -0,0 +1,212 @@
+package com.lahodiuk.bp;
+
+import java.util.AbstractList;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * Immutable domain of the node: states with the stable int indices 0, 1, ...
+ * size() - 1. Iteration order is always the order of the indices. <br/>
+ * <br/>
+ * Domain is meant to be shared by many nodes (e.g. all pixels of the image
+ * share the same domain of colors), see {@link Node#getDomain()}. Engines
+ * size the buffers and index the log-tables by the domain, and nodes with
+ * equal domains (same states in the same order) share them. <br/>
+ * <br/>
+ * Usage: <br/>
+ * static final StateDomain&lt;Color&gt; COLORS = StateDomain.of(Color.class);
+ * <br/>
+ * static final StateDomain&lt;String&gt; TYPES = StateDomain.of("ACID", "SALT");
+ */
+public final class StateDomain<STATES> implements Iterable<STATES> {
+
+	private final Object[] states;
+
+	private final int hashCode;
+
+	/**
+	 * Built lazily, on the first lookup of the index
+	 */
+	private volatile Map<Object, Integer> stateToIndex;
+
+	private final Set<STATES> set = new AbstractSet<STATES>() {
+
+		@Override
+		public Iterator<STATES> iterator() {
+			return StateDomain.this.iterator();
+		}
+
+		@Override
+		public int size() {
+			return StateDomain.this.size();
+		}
+
+		@Override
+		public boolean contains(Object state) {
+			return StateDomain.this.indexOf(state) >= 0;
+		}
+	};
+
+	private final List<STATES> list = new AbstractList<STATES>() {
+
+		@Override
+		public STATES get(int index) {
+			return StateDomain.this.get(index);
+		}
+
+		@Override
+		public int size() {
+			return StateDomain.this.size();
+		}
+
+		@Override
+		public int indexOf(Object state) {
+			return StateDomain.this.indexOf(state);
+		}
+	};
+
+	/**
+	 * States must be distinct (not checked)
+	 */
+	StateDomain(Object[] states) {
+		this.states = states;
+		this.hashCode = Arrays.hashCode(states);
+	}
+
+	/**
+	 * States are indexed in the order of iteration over the collection
+	 */
+	public static <STATES> StateDomain<STATES> of(Collection<? extends STATES> states) {
+		StateDomain<STATES> domain = new StateDomain<>(states.toArray());
+		if (!(states instanceof Set)) {
+			domain.checkDistinct();
+		}
+		return domain;
+	}
+
+	@SafeVarargs
+	public static <STATES> StateDomain<STATES> of(STATES... states) {
+		StateDomain<STATES> domain = new StateDomain<>(states.clone());
+		domain.checkDistinct();
+		return domain;
+	}
+
+	/**
+	 * States are indexed by their ordinals
+	 */
+	public static <STATES extends Enum<STATES>> StateDomain<STATES> of(Class<STATES> enumClass) {
+		return new StateDomain<>(enumClass.getEnumConstants());
+	}
+
+	private void checkDistinct() {
+		if (this.getStateToIndex().size() != this.states.length) {
+			throw new RuntimeException("States of the domain must be distinct: " + this);
+		}
+	}
+
+	public int size() {
+		return this.states.length;
+	}
+
+	@SuppressWarnings("unchecked")
+	public STATES get(int index) {
+		return (STATES) this.states[index];
+	}
+
+	/**
+	 * @return index of the state, or -1 - if the state isn't a part of the
+	 *         domain
+	 */
+	public int indexOf(Object state) {
+		Integer index = this.getStateToIndex().get(state);
+		return (index == null) ? -1 : index;
+	}
+
+	private Map<Object, Integer> getStateToIndex() {
+		Map<Object, Integer> stateToIndex = this.stateToIndex;
+		if (stateToIndex == null) {
+			stateToIndex = new HashMap<>();
+			for (int i = this.states.length - 1; i >= 0; i--) {
+				stateToIndex.put(this.states[i], i);
+			}
+			this.stateToIndex = stateToIndex;
+		}
+		return stateToIndex;
+	}
+
+	/**
+	 * @return unmodifiable view of the domain (in the order of the indices)
+	 */
+	public Set<STATES> asSet() {
+		return this.set;
+	}
+
+	/**
+	 * @return unmodifiable view of the domain (element i is the state with
+	 *         index i)
+	 */
+	public List<STATES> asList() {
+		return this.list;
+	}
+
+	/**
+	 * States, ordered by their indices (not a copy - must not be modified)
+	 */
+	Object[] getStates() {
+		return this.states;
+	}
+
+	@Override
+	public Iterator<STATES> iterator() {
+		return new Iterator<STATES>() {
+
+			private int index = 0;
+
+			@Override
+			public boolean hasNext() {
+				return this.index < StateDomain.this.states.length;
+			}
+
+			@Override
+			@SuppressWarnings("unchecked")
+			public STATES next() {
+				if (!this.hasNext()) {
+					throw new NoSuchElementException();
+				}
+				return (STATES) StateDomain.this.states[this.index++];
+			}
+		};
+	}
+
+	/**
+	 * Domains are equal, if they have the same states in the same order
+	 */
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj) {
+			return true;
+		}
+		if (!(obj instanceof StateDomain)) {
+			return false;
+		}
+		StateDomain<?> other = (StateDomain<?>) obj;
+		return (this.hashCode == other.hashCode) && Arrays.equals(this.states, other.states);
+	}
+
+	@Override
+	public int hashCode() {
+		return this.hashCode;
+	}
+
+	@Override
+	public String toString() {
+		return Arrays.toString(this.states);
+	}
+}
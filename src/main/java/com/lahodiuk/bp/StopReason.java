@@ -0,0 +1,15 @@
+package com.lahodiuk.bp;
+
+public enum StopReason {
+	/**
+	 * Maximal residual of the sweep fell below the tolerance
+	 */
+	CONVERGED,
+	MAX_ITERATIONS_REACHED,
+	TIME_BUDGET_EXHAUSTED,
+	/**
+	 * One of the messages of the sweep became NaN (see
+	 * {@link ResidualStatistics#isDiverged()})
+	 */
+	DIVERGED
+}
@@ -0,0 +1,150 @@
+package com.lahodiuk.bp;
+
+import gnu.trove.list.array.TIntArrayList;
+
+/**
+ * Detects connected components of the graph without cycles, and calculates
+ * messages of such components exactly, by the two-pass schedule: <br/>
+ * 1) collect - messages from the leaves towards the root <br/>
+ * 2) distribute - messages from the root towards the leaves <br/>
+ * So, every directed message of the tree component is calculated exactly once
+ * (during the first sweep). <br/>
+ * <br/>
+ * Messages of the components with cycles are calculated by the synchronous
+ * (flooding) schedule during every sweep. <br/>
+ * <br/>
+ * When priors of some nodes (or edges of the graph, or the semiring) are
+ * changed, the messages of the tree components are recalculated during the
+ * next sweep.
+ */
+public class TreeSchedule implements Schedule {
+
+	private CompiledGraph graph;
+
+	private int structureVersion;
+
+	/**
+	 * Messages of the tree components in the order of the collect and the
+	 * distribute passes
+	 */
+	private int[] treeMessages;
+
+	private boolean treeMessagesAreCalculated;
+
+	/**
+	 * Semiring version of the graph, in which tree messages were calculated
+	 */
+	private int semiringVersion;
+
+	/**
+	 * Messages of the components with cycles
+	 */
+	private int[] loopyMessages;
+
+	private int treeComponentsCount;
+
+	private int loopyComponentsCount;
+
+	@Override
+	public void sweep(CompiledGraph graph, double tolerance, ResidualStatistics residuals) {
+		if ((this.graph != graph) || (this.structureVersion != graph.getStructureVersion())) {
+			this.initialize(graph);
+		}
+		if ((graph.drainChangedNodes().length > 0) || (this.semiringVersion != graph.getSemiringVersion())) {
+			this.treeMessagesAreCalculated = false;
+		}
+
+		if (!this.treeMessagesAreCalculated) {
+			for (int message : this.treeMessages) {
+				graph.updateMessage(message);
+				residuals.add(graph.refreshMessage(message));
+			}
+			this.treeMessagesAreCalculated = true;
+			this.semiringVersion = graph.getSemiringVersion();
+		}
+
+		for (int message : this.loopyMessages) {
+			graph.updateMessage(message);
+		}
+		for (int message : this.loopyMessages) {
+			residuals.add(graph.refreshMessage(message));
+		}
+	}
+
+	public int getTreeComponentsCount() {
+		return this.treeComponentsCount;
+	}
+
+	public int getLoopyComponentsCount() {
+		return this.loopyComponentsCount;
+	}
+
+	private void initialize(CompiledGraph graph) {
+		this.graph = graph;
+		this.structureVersion = graph.getStructureVersion();
+		this.treeMessagesAreCalculated = false;
+		this.treeComponentsCount = 0;
+		this.loopyComponentsCount = 0;
+
+		int nodesCount = graph.getNodesCount();
+		boolean[] visited = new boolean[nodesCount];
+		// message from the parent in the BFS tree to the node
+		int[] messageFromParent = new int[nodesCount];
+		int[] order = new int[nodesCount];
+
+		TIntArrayList collectMessages = new TIntArrayList();
+		TIntArrayList distributeMessages = new TIntArrayList();
+		TIntArrayList loopyMessages = new TIntArrayList();
+
+		for (int root = 0; root < nodesCount; root++) {
+			if (visited[root]) {
+				continue;
+			}
+
+			// breadth-first traversal of the component
+			int componentSize = 0;
+			int incomingMessagesCount = 0;
+			order[componentSize++] = root;
+			visited[root] = true;
+			messageFromParent[root] = -1;
+			for (int i = 0; i < componentSize; i++) {
+				int node = order[i];
+				for (int j = graph.getIncomingMessagesFrom(node); j < graph.getIncomingMessagesTo(node); j++) {
+					int incomingMessage = graph.getIncomingMessage(j);
+					incomingMessagesCount += 1;
+					int neighbour = graph.getMessageSource(incomingMessage);
+					if (!visited[neighbour]) {
+						visited[neighbour] = true;
+						messageFromParent[neighbour] = incomingMessage ^ 1;
+						order[componentSize++] = neighbour;
+					}
+				}
+			}
+
+			// every edge is counted twice: by the incoming messages of both
+			// nodes
+			int edgesCount = incomingMessagesCount / 2;
+			if (edgesCount == (componentSize - 1)) {
+				this.treeComponentsCount += 1;
+				for (int i = componentSize - 1; i > 0; i--) {
+					collectMessages.add(messageFromParent[order[i]] ^ 1);
+				}
+				for (int i = 1; i < componentSize; i++) {
+					distributeMessages.add(messageFromParent[order[i]]);
+				}
+			} else {
+				this.loopyComponentsCount += 1;
+				for (int i = 0; i < componentSize; i++) {
+					int node = order[i];
+					for (int j = graph.getIncomingMessagesFrom(node); j < graph.getIncomingMessagesTo(node); j++) {
+						loopyMessages.add(graph.getIncomingMessage(j));
+					}
+				}
+			}
+		}
+
+		collectMessages.addAll(distributeMessages);
+		this.treeMessages = collectMessages.toArray();
+		this.loopyMessages = loopyMessages.toArray();
+	}
+}
@@ -0,0 +1,73 @@
+package com.lahodiuk.bp;
+
+/**
+ * value(state1, state2) = exp(-min(weight * |label1 - label2|, truncation))
+ * <br/>
+ * <br/>
+ * Max-product messages are calculated in O(S) by the distance transform
+ * (Felzenszwalb, Huttenlocher: Efficient Belief Propagation for Early Vision).
+ */
+public abstract class TruncatedLinearPotential<STATES> extends DifferencePotential<STATES> {
+
+	private final double weight;
+
+	private final double truncation;
+
+	public TruncatedLinearPotential(double weight, double truncation) {
+		// negated comparisons reject NaN as well
+		if (!(weight >= 0)) {
+			throw new RuntimeException("Weight must be non-negative, but was " + weight);
+		}
+		if (!(truncation >= 0)) {
+			throw new RuntimeException("Truncation must be non-negative, but was " + truncation);
+		}
+		this.weight = weight;
+		this.truncation = truncation;
+	}
+
+	public double getWeight() {
+		return this.weight;
+	}
+
+	public double getTruncation() {
+		return this.truncation;
+	}
+
+	@Override
+	public double getValueForDifference(int difference) {
+		return Math.exp(this.getLogValueForDifference(difference));
+	}
+
+	@Override
+	public double getLogValueForDifference(int difference) {
+		return -Math.min(this.weight * Math.abs(difference), this.truncation);
+	}
+
+	@Override
+	public void logMaxConvolution(
+			double[] logValues,
+			int logValuesOffset,
+			double[] result,
+			int resultOffset,
+			int count,
+			boolean sourceIsNode1,
+			double[] scratch,
+			int scratchOffset) {
+
+		// potential is symmetric, so direction of the message doesn't matter
+		double max = Double.NEGATIVE_INFINITY;
+		for (int b = 0; b < count; b++) {
+			max = Math.max(max, logValues[logValuesOffset + b]);
+			result[resultOffset + b] = logValues[logValuesOffset + b];
+		}
+		for (int b = 1; b < count; b++) {
+			result[resultOffset + b] = Math.max(result[resultOffset + b], result[(resultOffset + b) - 1] - this.weight);
+		}
+		for (int b = count - 2; b >= 0; b--) {
+			result[resultOffset + b] = Math.max(result[resultOffset + b], result[resultOffset + b + 1] - this.weight);
+		}
+		for (int b = 0; b < count; b++) {
+			result[resultOffset + b] = Math.max(result[resultOffset + b], max - this.truncation);
+		}
+	}
+}
@@ -0,0 +1,119 @@
+package com.lahodiuk.bp;
+
+/**
+ * value(state1, state2) = exp(-min(weight * (label1 - label2)^2, truncation))
+ * <br/>
+ * <br/>
+ * Max-product messages are calculated in O(S) by the distance transform
+ * (lower envelope of parabolas, see: Felzenszwalb, Huttenlocher: Distance
+ * Transforms of Sampled Functions).
+ */
+public abstract class TruncatedQuadraticPotential<STATES> extends DifferencePotential<STATES> {
+
+	private final double weight;
+
+	private final double truncation;
+
+	public TruncatedQuadraticPotential(double weight, double truncation) {
+		// negated comparisons reject NaN as well
+		if (!(weight > 0)) {
+			throw new RuntimeException("Weight must be positive, but was " + weight);
+		}
+		if (!(truncation >= 0)) {
+			throw new RuntimeException("Truncation must be non-negative, but was " + truncation);
+		}
+		this.weight = weight;
+		this.truncation = truncation;
+	}
+
+	public double getWeight() {
+		return this.weight;
+	}
+
+	public double getTruncation() {
+		return this.truncation;
+	}
+
+	@Override
+	public double getValueForDifference(int difference) {
+		return Math.exp(this.getLogValueForDifference(difference));
+	}
+
+	@Override
+	public double getLogValueForDifference(int difference) {
+		return -Math.min(this.weight * difference * difference, this.truncation);
+	}
+
+	@Override
+	public void logMaxConvolution(
+			double[] logValues,
+			int logValuesOffset,
+			double[] result,
+			int resultOffset,
+			int count,
+			boolean sourceIsNode1,
+			double[] scratch,
+			int scratchOffset) {
+
+		// potential is symmetric, so direction of the message doesn't matter.
+		// Distance transform works with costs: cost[a] = -logValues[a]. Lower
+		// envelope is kept in the scratch: labels of the parabolas (count
+		// values), followed by the boundaries between them (count + 1 values)
+		int labelsOffset = scratchOffset;
+		int boundariesOffset = scratchOffset + count;
+		int parabolasCount = 0;
+		double max = Double.NEGATIVE_INFINITY;
+
+		for (int q = 0; q < count; q++) {
+			double cost = -logValues[logValuesOffset + q];
+			if (Double.isInfinite(cost)) {
+				continue;
+			}
+			max = Math.max(max, -cost);
+			if (parabolasCount == 0) {
+				scratch[labelsOffset] = q;
+				scratch[boundariesOffset] = Double.NEGATIVE_INFINITY;
+				scratch[boundariesOffset + 1] = Double.POSITIVE_INFINITY;
+				parabolasCount = 1;
+				continue;
+			}
+			double intersection;
+			while (true) {
+				int p = (int) scratch[(labelsOffset + parabolasCount) - 1];
+				double costP = -logValues[logValuesOffset + p];
+				intersection = ((cost + (this.weight * q * q)) - (costP + (this.weight * p * p))) / (2 * this.weight * (q - p));
+				if ((parabolasCount > 1) && (intersection <= scratch[(boundariesOffset + parabolasCount) - 1])) {
+					parabolasCount--;
+				} else {
+					break;
+				}
+			}
+			scratch[labelsOffset + parabolasCount] = q;
+			scratch[boundariesOffset + parabolasCount] = intersection;
+			scratch[boundariesOffset + parabolasCount + 1] = Double.POSITIVE_INFINITY;
+			parabolasCount++;
+		}
+
+		if (parabolasCount == 0) {
+			for (int b = 0; b < count; b++) {
+				result[resultOffset + b] = Double.NEGATIVE_INFINITY;
+			}
+			return;
+		}
+
+		int k = 0;
+		for (int b = 0; b < count; b++) {
+			while (scratch[boundariesOffset + k + 1] < b) {
+				k++;
+			}
+			int a = (int) scratch[labelsOffset + k];
+			double cost = (this.weight * (b - a) * (b - a)) - logValues[logValuesOffset + a];
+			result[resultOffset + b] = Math.max(-cost, max - this.truncation);
+		}
+	}
+
+	@Override
+	public int getLogMaxConvolutionScratchSize(int count) {
+		return (2 * count) + 1;
+	}
+}
@@ -0,0 +1,108 @@
+package com.lahodiuk.bp;
+
+/**
+ * Flat storage of the logarithms of the messages (or of the priors, beliefs,
+ * potentials), addressed by the int index. <br/>
+ * <br/>
+ * {@link CompiledGraph} accesses the values only via {@link #get(int)} and
+ * {@link #set(int, double)}, so the same update kernels run over the java
+ * array, over the direct buffers off the heap (see
+ * {@link GraphCompiler#offHeap(boolean)}), or over the memory-mapped file (see
+ * {@link GraphSnapshot}). <br/>
+ * <br/>
+ * Values can be stored in the single precision (e.g. normalized messages),
+ * while all arithmetic over them is still performed in the double precision.
+ * <br/>
+ * <br/>
+ * Capacity is limited by {@link CompiledGraph#MAX_VALUES_COUNT}.
+ */
+public abstract class ValueStorage {
+
+	ValueStorage() {
+	}
+
+	public static ValueStorage onHeap(int capacity) {
+		return new ArrayValueStorage(capacity);
+	}
+
+	/**
+	 * Values are stored in the direct buffers, in the native byte order
+	 */
+	public static ValueStorage offHeap(int capacity) {
+		return BufferValueStorage.allocateDirect(capacity);
+	}
+
+	public static ValueStorage create(int capacity, boolean offHeap, boolean singlePrecision) {
+		if (singlePrecision) {
+			return offHeap ? FloatBufferValueStorage.allocateDirect(capacity) : new FloatArrayValueStorage(capacity);
+		}
+		return offHeap ? offHeap(capacity) : onHeap(capacity);
+	}
+
+	public abstract int capacity();
+
+	public abstract double get(int index);
+
+	public abstract void set(int index, double value);
+
+	/**
+	 * @return new storage with the given capacity, where the graph continues
+	 *         to grow
+	 */
+	abstract ValueStorage allocate(int capacity);
+
+	/**
+	 * @return new storage of the same kind, which contains the given values
+	 */
+	ValueStorage allocate(double[] values) {
+		ValueStorage storage = this.allocate(values.length);
+		for (int i = 0; i < values.length; i++) {
+			storage.set(i, values[i]);
+		}
+		return storage;
+	}
+
+	/**
+	 * @return storage with the given capacity, which contains all values of
+	 *         this storage
+	 */
+	ValueStorage grow(int capacity) {
+		ValueStorage grown = this.allocate(capacity);
+		for (int i = 0; i < this.capacity(); i++) {
+			grown.set(i, this.get(i));
+		}
+		return grown;
+	}
+
+	public void fill(int fromIndex, int toIndex, double value) {
+		for (int i = fromIndex; i < toIndex; i++) {
+			this.set(i, value);
+		}
+	}
+
+	double max(int fromIndex, int toIndex) {
+		double max = this.get(fromIndex);
+		for (int i = fromIndex + 1; i < toIndex; i++) {
+			max = Math.max(this.get(i), max);
+		}
+		return max;
+	}
+
+	/**
+	 * Same as {@link Edge#logOfSum(double[], int, int)}
+	 */
+	double logOfSum(int fromIndex, int toIndex) {
+		double maxLog = this.max(fromIndex, toIndex);
+		if (maxLog == Double.NEGATIVE_INFINITY) {
+			// sum of zeros
+			return maxLog;
+		}
+
+		double sumExp = 0.0;
+		for (int i = fromIndex; i < toIndex; i++) {
+			sumExp += Math.exp(this.get(i) - maxLog);
+		}
+
+		return maxLog + Math.log(sumExp);
+	}
+}
@@ -1,8 +1,8 @@
 package com.lahodiuk.bp.example;
 
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
@@ -10,9 +10,13 @@ import java.util.Map;
 import java.util.Set;
 import java.util.TreeMap;
 
+import com.lahodiuk.bp.BipartiteSchedule;
+import com.lahodiuk.bp.CompiledGraph;
 import com.lahodiuk.bp.Edge;
+import com.lahodiuk.bp.InferenceEngine;
 import com.lahodiuk.bp.Node;
-import com.lahodiuk.bp.Potential;
+import com.lahodiuk.bp.SparsePotential;
+import com.lahodiuk.bp.StateDomain;
 
 /**
  * Classify chemical compounds, using network of chemical reactions: <br/>
@@ -184,7 +188,7 @@ public class ChemicalReactionsNetwork {
 
 		private Map<Integer, Set<Rule>> productsCountToRules = new HashMap<>();
 
-		private Map<Reaction, ReactionNode> reactionToReactionNode = new HashMap<>();
+		private Map<Reaction, ReactionNode> reactionToReactionNode = new LinkedHashMap<>();
 
 		private Map<String, CompoundNode> compoundToCompoundNode = new TreeMap<>();
 
@@ -349,20 +353,13 @@ public class ChemicalReactionsNetwork {
 		public ReactionsNetwork inference(int times) {
 			this.buildNetwork();
 
-			for (int i = 0; i < times; i++) {
-				for (Edge<?, ?> edge : this.edges) {
-					edge.updateMessagesNode1ToNode2();
-				}
-				for (Edge<?, ?> edge : this.edges) {
-					edge.refreshMessagesNode1ToNode2();
-				}
-				for (Edge<?, ?> edge : this.edges) {
-					edge.updateMessagesNode2ToNode1();
-				}
-				for (Edge<?, ?> edge : this.edges) {
-					edge.refreshMessagesNode2ToNode1();
-				}
-			}
+			CompiledGraph graph = CompiledGraph.compile(this.edges);
+			// Compound -> Reaction, Compound <- Reaction
+			new InferenceEngine(graph)
+					.schedule(new BipartiteSchedule())
+					.maxIterations(times)
+					.run();
+			graph.writeMessagesToEdges();
 			return this;
 		}
 
@@ -395,8 +392,9 @@ public class ChemicalReactionsNetwork {
 
 		private static final double EPSILON = 1e-9;
 
-		private static final Set<CompoundType> STATES =
-				new LinkedHashSet<>(Arrays.asList(CompoundType.values()));
+		private static final StateDomain<CompoundType> DOMAIN = StateDomain.of(CompoundType.class);
+
+		private static final Set<CompoundType> STATES = DOMAIN.asSet();
 
 		private CompoundType mostProbableState;
 
@@ -412,6 +410,11 @@ public class ChemicalReactionsNetwork {
 			return STATES;
 		}
 
+		@Override
+		public StateDomain<CompoundType> getDomain() {
+			return DOMAIN;
+		}
+
 		@Override
 		public double getPriorProbablility(CompoundType state) {
 			if (this.mostProbableState == null) {
@@ -451,7 +454,7 @@ public class ChemicalReactionsNetwork {
 		}
 	}
 
-	private static class ReagentReactionCompatibilityPotential extends Potential<CompoundType, Rule> {
+	private static class ReagentReactionCompatibilityPotential extends SparsePotential<CompoundType, Rule> {
 
 		private static final double EPSILON = 1e-5;
 
@@ -461,6 +464,11 @@ public class ChemicalReactionsNetwork {
 			this.position = position;
 		}
 
+		@Override
+		public double getDefaultValue() {
+			return EPSILON;
+		}
+
 		@Override
 		public double getValue(CompoundType compoundState, Rule reactionState) {
 			if (reactionState.getReagentTypes().get(this.position) == compoundState) {
@@ -471,7 +479,7 @@ public class ChemicalReactionsNetwork {
 		}
 	}
 
-	private static class ProductReactionCompatibilityPotential extends Potential<CompoundType, Rule> {
+	private static class ProductReactionCompatibilityPotential extends SparsePotential<CompoundType, Rule> {
 
 		private static final double EPSILON = 1e-5;
 
@@ -481,6 +489,11 @@ public class ChemicalReactionsNetwork {
 			this.position = position;
 		}
 
+		@Override
+		public double getDefaultValue() {
+			return EPSILON;
+		}
+
 		@Override
 		public double getValue(CompoundType compoundState, Rule reactionState) {
 			if (reactionState.getProductTypes().get(this.position) == compoundState) {
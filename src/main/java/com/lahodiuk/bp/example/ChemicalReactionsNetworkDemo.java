@@ -1,5 +1,7 @@
 package com.lahodiuk.bp.example;
 
+import gnu.trove.map.TObjectDoubleMap;
+
 import java.io.BufferedReader;
 import java.io.InputStreamReader;
 import java.nio.charset.StandardCharsets;
@@ -13,9 +15,13 @@ import java.util.Set;
 import java.util.TreeMap;
 import java.util.stream.Collectors;
 
+import com.lahodiuk.bp.BipartiteSchedule;
+import com.lahodiuk.bp.CompiledGraph;
 import com.lahodiuk.bp.Edge;
+import com.lahodiuk.bp.GraphCompiler;
+import com.lahodiuk.bp.InferenceEngine;
 import com.lahodiuk.bp.Node;
-import com.lahodiuk.bp.Potential;
+import com.lahodiuk.bp.SparsePotential;
 
 /**
  * Classify chemical compounds, using network of chemical reactions: <br/>
@@ -200,6 +206,21 @@ public class ChemicalReactionsNetworkDemo {
 
 		private List<Edge<?, ?>> edges = new ArrayList<>();
 
+		private int beamWidth = Integer.MAX_VALUE;
+
+		private double beamLogThreshold = Double.POSITIVE_INFINITY;
+
+		/**
+		 * Only the most probable rules of the reaction (and types of the
+		 * compound) contribute to the messages, see
+		 * {@link CompiledGraph#setBeam(int, double)}
+		 */
+		public ReactionsNetwork beam(int width, double logThreshold) {
+			this.beamWidth = width;
+			this.beamLogThreshold = logThreshold;
+			return this;
+		}
+
 		public ReactionsNetwork addRule(Rule ruleVariant) {
 			this.rules.add(ruleVariant);
 			return this;
@@ -370,24 +391,22 @@ public class ChemicalReactionsNetworkDemo {
 		}
 
 		public ReactionsNetwork inference(int times) {
+			return this.inference(times, new GraphCompiler().shareEqualPotentials(true));
+		}
+
+		public ReactionsNetwork inference(int times, GraphCompiler compiler) {
 			this.buildNetwork();
 			System.out.println("Compound nodes: " + this.compoundToCompoundNode.size());
 			System.out.println("Reaction nodes: " + this.reactionToReactionNode.size());
 
-			for (int i = 0; i < times; i++) {
-				for (Edge<?, ?> edge : this.edges) {
-					edge.updateMessagesNode1ToNode2();
-				}
-				for (Edge<?, ?> edge : this.edges) {
-					edge.refreshMessagesNode1ToNode2();
-				}
-				for (Edge<?, ?> edge : this.edges) {
-					edge.updateMessagesNode2ToNode1();
-				}
-				for (Edge<?, ?> edge : this.edges) {
-					edge.refreshMessagesNode2ToNode1();
-				}
-			}
+			CompiledGraph graph = compiler.compile(this.edges);
+			// Compound -> Reaction, Compound <- Reaction
+			new InferenceEngine(graph)
+					.schedule(new BipartiteSchedule())
+					.beam(this.beamWidth, this.beamLogThreshold)
+					.maxIterations(times)
+					.run();
+			graph.writeMessagesToEdges();
 			return this;
 		}
 
@@ -411,6 +430,14 @@ public class ChemicalReactionsNetworkDemo {
 		public String getMostProbableCompoundType(String compound) {
 			return this.compoundToCompoundNode.get(compound).getMostProbableState();
 		}
+
+		public Set<String> getCompounds() {
+			return this.compoundToCompoundNode.keySet();
+		}
+
+		public TObjectDoubleMap<String> getPosteriorProbabilities(String compound) {
+			return this.compoundToCompoundNode.get(compound).getPosteriorProbabilities();
+		}
 	}
 
 	private static class CompoundNode extends Node<String> {
@@ -477,7 +504,7 @@ public class ChemicalReactionsNetworkDemo {
 		}
 	}
 
-	private static class ReagentReactionCompatibilityPotential extends Potential<String, Rule> {
+	private static class ReagentReactionCompatibilityPotential extends SparsePotential<String, Rule> {
 
 		private static final double EPSILON = 1e-5;
 
@@ -487,6 +514,11 @@ public class ChemicalReactionsNetworkDemo {
 			this.position = position;
 		}
 
+		@Override
+		public double getDefaultValue() {
+			return EPSILON;
+		}
+
 		@Override
 		public double getValue(String compoundState, Rule reactionState) {
 			if ((this.position < reactionState.getReagentTypes().size()) &&
@@ -498,7 +530,7 @@ public class ChemicalReactionsNetworkDemo {
 		}
 	}
 
-	private static class ProductReactionCompatibilityPotential extends Potential<String, Rule> {
+	private static class ProductReactionCompatibilityPotential extends SparsePotential<String, Rule> {
 
 		private static final double EPSILON = 1e-5;
 
@@ -508,6 +540,11 @@ public class ChemicalReactionsNetworkDemo {
 			this.position = position;
 		}
 
+		@Override
+		public double getDefaultValue() {
+			return EPSILON;
+		}
+
 		@Override
 		public double getValue(String compoundState, Rule reactionState) {
 			if ((this.position < reactionState.getProductTypes().size()) &&
@@ -3,16 +3,21 @@ package com.lahodiuk.bp.example;
 import gnu.trove.map.TObjectDoubleMap;
 
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
+import com.lahodiuk.bp.CompiledGraph;
 import com.lahodiuk.bp.Edge;
+import com.lahodiuk.bp.InferenceEngine;
+import com.lahodiuk.bp.InferenceResult;
+import com.lahodiuk.bp.IntGraph;
+import com.lahodiuk.bp.IntNode;
+import com.lahodiuk.bp.IntPotential;
 import com.lahodiuk.bp.Node;
 import com.lahodiuk.bp.Potential;
+import com.lahodiuk.bp.StateDomain;
 
 /**
  * Coloring of Petersen graph <br/>
@@ -36,7 +41,8 @@ public class Coloring {
 
 		List<Edge<Color, Color>> edges = initializeEdgesOfPetersenGraph(nodeIdToNode);
 
-		inferenceOfMostProbableColorsOfNodes(edges);
+		InferenceResult inferenceResult = inferenceOfMostProbableColorsOfNodes(edges);
+		System.out.println(inferenceResult);
 
 		for (int i = 1; i <= 10; i++) {
 			System.out.print(i);
@@ -48,15 +54,13 @@ public class Coloring {
 		}
 	}
 
-	public static void inferenceOfMostProbableColorsOfNodes(List<Edge<Color, Color>> edges) {
-		for (int i = 0; i < 10; i++) {
-			for (Edge<Color, Color> e : edges) {
-				e.updateMessages();
-			}
-			for (Edge<Color, Color> e : edges) {
-				e.refreshMessages();
-			}
-		}
+	public static InferenceResult inferenceOfMostProbableColorsOfNodes(List<Edge<Color, Color>> edges) {
+		CompiledGraph graph = CompiledGraph.compile(edges);
+		InferenceResult result = new InferenceEngine(graph)
+				.maxIterations(10)
+				.run();
+		graph.writeMessagesToEdges();
+		return result;
 	}
 
 	public static List<Edge<Color, Color>> initializeEdgesOfPetersenGraph(Map<Integer, GraphColorNode> nodeIdToNode) {
@@ -90,6 +94,41 @@ public class Coloring {
 		return edges;
 	}
 
+	/**
+	 * Same graph, built with the primitive API: states are the ordinals of the
+	 * colors, and node with id i has index i - 1 in the graph
+	 */
+	public static IntGraph initializeIntPetersenGraph() {
+		IntGraph graph = new IntGraph();
+		graph.addNode(new IntGraphColorNode(Color.GREEN.ordinal()));
+		graph.addNode(new IntGraphColorNode(Color.RED.ordinal()));
+		for (int i = 3; i <= 10; i++) {
+			graph.addNode(new IntGraphColorNode(-1));
+		}
+
+		IntPotential potential = new IntGraphColorPotential();
+		for (int[] edge : PETERSEN_GRAPH_EDGES) {
+			graph.connect(graph.getNode(edge[0] - 1), graph.getNode(edge[1] - 1), potential);
+		}
+		return graph;
+	}
+
+	/**
+	 * Ids of the nodes of the edges (in the same order, as in
+	 * {@link #initializeEdgesOfPetersenGraph(Map)})
+	 */
+	private static final int[][] PETERSEN_GRAPH_EDGES = {
+			{ 1, 3 }, { 1, 4 }, { 1, 10 },
+			{ 2, 5 }, { 2, 4 }, { 2, 9 },
+			{ 3, 5 }, { 3, 8 },
+			{ 4, 7 },
+			{ 5, 6 },
+			{ 6, 10 }, { 6, 7 },
+			{ 7, 8 },
+			{ 8, 9 },
+			{ 9, 10 }
+	};
+
 	public static Map<Integer, GraphColorNode> initializeNodesOfPetersenGraph() {
 
 		Map<Integer, GraphColorNode> nodeIdToNode = new HashMap<Integer, GraphColorNode>();
@@ -131,14 +170,20 @@ public class Coloring {
 
 	public static class GraphColorNode extends Node<Color> {
 
-		private static final Set<Color> COLORS =
-				new HashSet<>(Arrays.asList(Color.values()));
+		private static final StateDomain<Color> DOMAIN = StateDomain.of(Color.class);
+
+		private static final Set<Color> COLORS = DOMAIN.asSet();
 
 		@Override
 		public Set<Color> getStates() {
 			return COLORS;
 		}
 
+		@Override
+		public StateDomain<Color> getDomain() {
+			return DOMAIN;
+		}
+
 		@Override
 		public double getPriorProbablility(Color state) {
 			return 1.0 / COLORS.size();
@@ -147,6 +192,39 @@ public class Coloring {
 
 	private static final double EPSILON = 0.000001;
 
+	/**
+	 * Node with the given prior color (or without it, if the color is -1)
+	 */
+	public static class IntGraphColorNode extends IntNode {
+
+		private final int priorColor;
+
+		public IntGraphColorNode(int priorColor) {
+			super(Color.values().length);
+			this.priorColor = priorColor;
+		}
+
+		@Override
+		public double prior(int state) {
+			if (this.priorColor < 0) {
+				return 1.0 / this.getStatesCount();
+			}
+			return (state == this.priorColor) ? 0.99 : 0.005;
+		}
+	}
+
+	public static class IntGraphColorPotential extends IntPotential {
+
+		private static final double LOG_SAME_COLOR = Math.log(EPSILON);
+
+		private static final double LOG_DIFFERENT_COLORS = Math.log(1.0 - EPSILON);
+
+		@Override
+		public double logValue(int node1State, int node2State) {
+			return (node1State == node2State) ? LOG_SAME_COLOR : LOG_DIFFERENT_COLORS;
+		}
+	}
+
 	public static class GraphColorPotential extends Potential<Color, Color> {
 
 		@Override
@@ -2,14 +2,21 @@ package com.lahodiuk.bp.example;
 
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Random;
 import java.util.Set;
 
+import com.lahodiuk.bp.BatchParityCheckDecoder;
+import com.lahodiuk.bp.CompiledGraph;
 import com.lahodiuk.bp.Edge;
+import com.lahodiuk.bp.Factor;
+import com.lahodiuk.bp.FactorGraph;
+import com.lahodiuk.bp.InferenceEngine;
+import com.lahodiuk.bp.InferenceResult;
 import com.lahodiuk.bp.Node;
-import com.lahodiuk.bp.Potential;
+import com.lahodiuk.bp.ParityFactorKernel;
+import com.lahodiuk.bp.SparsePotential;
+import com.lahodiuk.bp.StateDomain;
 
 /**
  * Correcting errors for Hamming (7, 4) code, using Loopy Belief Propagation
@@ -39,12 +46,62 @@ public class HammingCodeNetwork {
 				transmitted[5],
 				transmitted[6]);
 
-		hammingCode.inference();
+		System.out.println(hammingCode.inference());
 
 		hammingCode.displayPosteriorProbabilities();
 
 		int[] corrected = hammingCode.getMostProbableCode();
 		System.out.println("Corrected: " + Arrays.asList(corrected[0], corrected[1], corrected[2], corrected[3]));
+
+		// batch of the codewords, each with a single flipped bit
+		Random random = new Random(System.currentTimeMillis());
+		int[][] batch = new int[100000][];
+		for (int i = 0; i < batch.length; i++) {
+			batch[i] = encode(random.nextInt(2), random.nextInt(2), random.nextInt(2), random.nextInt(2));
+			batch[i][random.nextInt(encoded.length)] ^= 1;
+		}
+		long startTime = System.currentTimeMillis();
+		decodeBatch(batch, 0.1);
+		System.out.println("Decoded batch of " + batch.length + " codewords in " + (System.currentTimeMillis() - startTime) + " ms");
+	}
+
+	/**
+	 * Parity checks (indices of the bits of the encoded vector), see
+	 * {@link #encode(int, int, int, int)}
+	 */
+	public static final int[][] PARITY_CHECKS = {
+			{ 0, 1, 2, 4 },
+			{ 1, 2, 3, 5 },
+			{ 0, 1, 3, 6 }
+	};
+
+	/**
+	 * Decodes all received vectors at once, by the
+	 * {@link BatchParityCheckDecoder}
+	 *
+	 * @return decoded vectors [i1, i2, i3, i4, r1, r2, r3]
+	 */
+	public static int[][] decodeBatch(int[][] received, double flipProbability) {
+		int n = received.length;
+		BatchParityCheckDecoder decoder = new BatchParityCheckDecoder(7, PARITY_CHECKS, n);
+
+		double[] logLikelihoodRatios = new double[7 * n];
+		for (int c = 0; c < n; c++) {
+			for (int v = 0; v < 7; v++) {
+				logLikelihoodRatios[(v * n) + c] = BatchParityCheckDecoder.logLikelihoodRatio(received[c][v], flipProbability);
+			}
+		}
+
+		boolean[] decodedBits = new boolean[7 * n];
+		decoder.decode(logLikelihoodRatios, n, decodedBits);
+
+		int[][] decoded = new int[n][7];
+		for (int c = 0; c < n; c++) {
+			for (int v = 0; v < 7; v++) {
+				decoded[c][v] = decodedBits[(v * n) + c] ? 1 : 0;
+			}
+		}
+		return decoded;
 	}
 
 	private enum BitNodeState {
@@ -62,8 +119,12 @@ public class HammingCodeNetwork {
 			return this.value;
 		}
 
-		public static Set<BitNodeState> STATES =
-				new HashSet<>(Arrays.asList(values()));
+		/**
+		 * ZERO has index 0, as required by {@link ParityFactorKernel}
+		 */
+		public static final StateDomain<BitNodeState> DOMAIN = StateDomain.of(BitNodeState.class);
+
+		public static final Set<BitNodeState> STATES = DOMAIN.asSet();
 	}
 
 	private static class FactorNodeState {
@@ -85,7 +146,9 @@ public class HammingCodeNetwork {
 			return this.bitStates;
 		}
 
-		private static Set<FactorNodeState> STATES;
+		private static final StateDomain<FactorNodeState> DOMAIN;
+
+		private static final Set<FactorNodeState> STATES;
 
 		/**
 		 * Factor node covers 4 bits
@@ -107,19 +170,21 @@ public class HammingCodeNetwork {
 		 * (1.5 CONVERTING GRAPHICAL MODELS) <br>
 		 */
 		static {
-			FactorNodeState.STATES = new HashSet<>();
+			List<FactorNodeState> states = new ArrayList<>();
 
 			for (BitNodeState b0 : BitNodeState.STATES) {
 				for (BitNodeState b1 : BitNodeState.STATES) {
 					for (BitNodeState b2 : BitNodeState.STATES) {
 						for (BitNodeState b3 : BitNodeState.STATES) {
 
-							FactorNodeState.STATES.add(
-									new FactorNodeState(b0, b1, b2, b3));
+							states.add(new FactorNodeState(b0, b1, b2, b3));
 						}
 					}
 				}
 			}
+
+			DOMAIN = StateDomain.of(states);
+			STATES = DOMAIN.asSet();
 		}
 	}
 
@@ -140,6 +205,11 @@ public class HammingCodeNetwork {
 			return BitNodeState.STATES;
 		}
 
+		@Override
+		public StateDomain<BitNodeState> getDomain() {
+			return BitNodeState.DOMAIN;
+		}
+
 		@Override
 		public double getPriorProbablility(BitNodeState state) {
 			if (state == this.initialState) {
@@ -157,6 +227,11 @@ public class HammingCodeNetwork {
 			return FactorNodeState.STATES;
 		}
 
+		@Override
+		public StateDomain<FactorNodeState> getDomain() {
+			return FactorNodeState.DOMAIN;
+		}
+
 		@Override
 		public double getPriorProbablility(FactorNodeState state) {
 			BitNodeState[] bitStates = state.getBitStates();
@@ -179,7 +254,9 @@ public class HammingCodeNetwork {
 		}
 	}
 
-	private static class BitNodeCheckNodePotential extends Potential<BitNodeState, FactorNodeState> {
+	private static class BitNodeCheckNodePotential extends SparsePotential<BitNodeState, FactorNodeState> {
+
+		private static final double EPSILON = 1e-10;
 
 		private int position;
 
@@ -187,12 +264,17 @@ public class HammingCodeNetwork {
 			this.position = position;
 		}
 
+		@Override
+		public double getDefaultValue() {
+			return EPSILON;
+		}
+
 		@Override
 		public double getValue(BitNodeState bitState, FactorNodeState checkNodeState) {
 			if (FactorNode.stateIsAllowed(checkNodeState.getBitStates()) && (checkNodeState.getBitStates()[this.position] == bitState)) {
 				return 1;
 			} else {
-				return 1e-10;
+				return EPSILON;
 			}
 		}
 	}
@@ -243,15 +325,13 @@ public class HammingCodeNetwork {
 			this.edges.add(Edge.connect(this.parityNodes[2], this.factorNodes[2], new BitNodeCheckNodePotential(3)));
 		}
 
-		public void inference() {
-			for (int i = 0; i < 10; i++) {
-				for (Edge<?, ?> edge : this.edges) {
-					edge.updateMessages();
-				}
-				for (Edge<?, ?> edge : this.edges) {
-					edge.refreshMessages();
-				}
-			}
+		public InferenceResult inference() {
+			CompiledGraph graph = CompiledGraph.compile(this.edges);
+			InferenceResult result = new InferenceEngine(graph)
+					.maxIterations(10)
+					.run();
+			graph.writeMessagesToEdges();
+			return result;
 		}
 
 		public void displayPosteriorProbabilities() {
@@ -279,6 +359,70 @@ public class HammingCodeNetwork {
 		}
 	}
 
+	/**
+	 * The same code, but parity checks are represented by the native
+	 * higher-order factors (instead of the factor nodes with 16 states)
+	 */
+	public static class HammingCodeFactorGraph {
+
+		private BitNode[] dataNodes = new BitNode[4];
+		private BitNode[] parityNodes = new BitNode[3];
+
+		private List<Factor> factors = new ArrayList<>();
+
+		private FactorGraph graph;
+
+		public HammingCodeFactorGraph(
+				int dataBit1,
+				int dataBit2,
+				int dataBit3,
+				int dataBit4,
+				int parityBit1,
+				int parityBit2,
+				int parityBit3) {
+
+			this.dataNodes[0] = new BitNode(dataBit1);
+			this.dataNodes[1] = new BitNode(dataBit2);
+			this.dataNodes[2] = new BitNode(dataBit3);
+			this.dataNodes[3] = new BitNode(dataBit4);
+
+			this.parityNodes[0] = new BitNode(parityBit1);
+			this.parityNodes[1] = new BitNode(parityBit2);
+			this.parityNodes[2] = new BitNode(parityBit3);
+
+			// i1 xor i2 xor i3 xor r1 == 0
+			this.factors.add(Factor.connect(new ParityFactorKernel(),
+					this.dataNodes[0], this.dataNodes[1], this.dataNodes[2], this.parityNodes[0]));
+			// i2 xor i3 xor i4 xor r2 == 0
+			this.factors.add(Factor.connect(new ParityFactorKernel(),
+					this.dataNodes[1], this.dataNodes[2], this.dataNodes[3], this.parityNodes[1]));
+			// i1 xor i2 xor i4 xor r3 == 0
+			this.factors.add(Factor.connect(new ParityFactorKernel(),
+					this.dataNodes[0], this.dataNodes[1], this.dataNodes[3], this.parityNodes[2]));
+
+			this.graph = FactorGraph.compile(this.factors);
+		}
+
+		public InferenceResult inference() {
+			return new InferenceEngine(this.graph)
+					.maxIterations(10)
+					.run();
+		}
+
+		public int[] getMostProbableCode() {
+			int[] result = new int[this.dataNodes.length + this.parityNodes.length];
+			for (int i = 0; i < this.dataNodes.length; i++) {
+				result[i] =
+						this.graph.getMostProbableState(this.dataNodes[i]).getValue() ? 1 : 0;
+			}
+			for (int i = 0; i < this.parityNodes.length; i++) {
+				result[this.dataNodes.length + i] =
+						this.graph.getMostProbableState(this.parityNodes[i]).getValue() ? 1 : 0;
+			}
+			return result;
+		}
+	}
+
 	/**
 	 * Encoding 4-vector, by appending 3 parity bits: <br>
 	 * <br>
@@ -8,7 +8,6 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
-import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Set;
 
@@ -17,15 +16,26 @@ import javax.swing.ImageIcon;
 import javax.swing.JFrame;
 import javax.swing.JLabel;
 
-import com.lahodiuk.bp.Edge;
+import com.lahodiuk.bp.DifferencePotential;
+import com.lahodiuk.bp.InferenceEngine;
+import com.lahodiuk.bp.LatticeMRF;
 import com.lahodiuk.bp.Node;
-import com.lahodiuk.bp.Potential;
+import com.lahodiuk.bp.ResidualStatistics;
+import com.lahodiuk.bp.StateDomain;
 
 public class ImageReconstruction {
 
 	static final String PATH_TO_SAVE_IMAGES = "target/reconstructed_images";
 	static final boolean SAVE_IMAGES_ON_DISK = false;
+	/**
+	 * Upper bound of sweeps: inference stops earlier, when messages converge
+	 */
 	static final int INFERENCE_ITERATIONS = 100;
+	/**
+	 * Levels of the pyramid of coarser lattices, which initialize messages of
+	 * the image before the inference
+	 */
+	static final int MULTISCALE_LEVELS = 4;
 
 	public static void main(String[] args) throws Exception {
 
@@ -34,28 +44,27 @@ public class ImageReconstruction {
 		UI ui = constructUI(originalImg, 2);
 
 		System.out.println("Building MRF");
-		ImgNode[][] nodes = build_MRF_nodes(originalImg);
-		List<Edge<ImgNodeStates, ImgNodeStates>> edges = build_MRF_connections(nodes);
+		LatticeMRF<ImgNodeStates> lattice = build_lattice_MRF(originalImg);
+		InferenceEngine engine = new InferenceEngine(lattice)
+				.multiscaleLevels(MULTISCALE_LEVELS);
 
 		BufferedImage reconstructedImg = new BufferedImage(originalImg.getWidth(), originalImg.getHeight(), BufferedImage.TYPE_INT_RGB);
 		prepare_before_saving_images(SAVE_IMAGES_ON_DISK);
-		display_current_results(ui, nodes, reconstructedImg, SAVE_IMAGES_ON_DISK, 0);
+		display_current_results(ui, lattice, reconstructedImg, SAVE_IMAGES_ON_DISK, 0);
+
+		System.out.println("Inference on the coarser levels");
+		engine.initializeFromCoarserLevels();
+		display_current_results(ui, lattice, reconstructedImg, SAVE_IMAGES_ON_DISK, 0);
 
 		System.out.println("Inference");
 		for (int i = 1; i < INFERENCE_ITERATIONS; i++) {
-			System.out.println("\nNew inference iteration started\n");
-			int edgesProcessed = 0;
-			for (Edge<ImgNodeStates, ImgNodeStates> e : edges) {
-				e.updateMessages();
-
-				if ((edgesProcessed++ % 1000) == 0) {
-					System.out.println(edgesProcessed + " edges processed so far...");
-				}
-			}
-			for (Edge<ImgNodeStates, ImgNodeStates> e : edges) {
-				e.refreshMessages();
+			ResidualStatistics residuals = engine.sweep();
+			System.out.println(String.format("Iteration %d: max residual = %.3g, mean residual = %.3g",
+					i, residuals.getMaxResidual(), residuals.getMeanResidual()));
+			display_current_results(ui, lattice, reconstructedImg, SAVE_IMAGES_ON_DISK, i);
+			if (residuals.getMaxResidual() < engine.getTolerance()) {
+				break;
 			}
-			display_current_results(ui, nodes, reconstructedImg, SAVE_IMAGES_ON_DISK, i);
 		}
 
 		System.out.println("End inference");
@@ -72,13 +81,13 @@ public class ImageReconstruction {
 
 	public static void display_current_results(
 			UI ui,
-			ImgNode[][] nodes,
+			LatticeMRF<ImgNodeStates> lattice,
 			BufferedImage reconstructedImg,
 			boolean saveImagesOnDisk,
 			int imageIndex) throws IOException {
 
 		Graphics imageIconCanvas = ui.imageIconImage.createGraphics();
-		display_MRF(nodes, reconstructedImg);
+		display_MRF(lattice, reconstructedImg);
 		imageIconCanvas.drawImage(reconstructedImg, 0, 0, ui.imageIconImage.getWidth(), ui.imageIconImage.getHeight(), null);
 		ui.fr.repaint();
 		if (saveImagesOnDisk) {
@@ -112,13 +121,13 @@ public class ImageReconstruction {
 		}
 	}
 
-	public static void display_MRF(ImgNode[][] nodes, BufferedImage bi2) {
-		for (int w = 0; w < nodes.length; w++) {
-			for (int h = 0; h < nodes[0].length; h++) {
+	public static void display_MRF(LatticeMRF<ImgNodeStates> lattice, BufferedImage bi2) {
+		for (int w = 0; w < lattice.getWidth(); w++) {
+			for (int h = 0; h < lattice.getHeight(); h++) {
 
 				int alpha = 255;
 
-				int red = nodes[w][h].getMostProbableState().getColor() * ImgNode.COLOR_PALETTE_SCALE;
+				int red = lattice.getMostProbableState(w, h).getColor() * ImgNode.COLOR_PALETTE_SCALE;
 				int green = red;
 				int blue = red;
 
@@ -129,49 +138,32 @@ public class ImageReconstruction {
 		}
 	}
 
-	public static List<Edge<ImgNodeStates, ImgNodeStates>> build_MRF_connections(ImgNode[][] nodes) {
-		ImgNodePotential potential = new ImgNodePotential();
-
-		List<Edge<ImgNodeStates, ImgNodeStates>> edges = new ArrayList<>((nodes.length * nodes[0].length) + 100);
-		for (int w = 0; w < nodes.length; w++) {
-			for (int h = 0; h < nodes[0].length; h++) {
-				if ((w + 1) < nodes.length) {
-					edges.add(Edge.connect(nodes[w][h], nodes[w + 1][h], potential));
-				}
-				if ((h + 1) < nodes[0].length) {
-					edges.add(Edge.connect(nodes[w][h], nodes[w][h + 1], potential));
-				}
-			}
-		}
-		return edges;
-	}
-
-	public static ImgNode[][] build_MRF_nodes(BufferedImage bi) {
-		ImgNode[][] nodes = new ImgNode[bi.getWidth()][bi.getHeight()];
-
-		for (int w = 0; w < bi.getWidth(); w++) {
-			for (int h = 0; h < bi.getHeight(); h++) {
-				int clr = bi.getRGB(w, h);
-				int red = (clr & 0x00ff0000) >> 16;
-				int green = (clr & 0x0000ff00) >> 8;
-				int blue = clr & 0x000000ff;
-
-				nodes[w][h] = new ImgNode(red);
-			}
-		}
-		return nodes;
+	/**
+	 * Every pixel is the {@link ImgNode} (with the prior, defined by the color
+	 * of the pixel), connected to its 4 neighbours by the
+	 * {@link ImgNodePotential} - without materialized nodes and edges
+	 */
+	public static LatticeMRF<ImgNodeStates> build_lattice_MRF(BufferedImage bi) {
+		return new LatticeMRF<>(bi.getWidth(), bi.getHeight(), new ImgNodePotential(),
+				(w, h) -> new ImgNode((bi.getRGB(w, h) & 0x00ff0000) >> 16));
 	}
 
 	static class ImgNodeStates {
 
-		final static Set<ImgNodeStates> ALL_STATES;
+		/**
+		 * Shared by all pixels
+		 */
+		final static StateDomain<ImgNodeStates> DOMAIN;
 		static {
-			ALL_STATES = new LinkedHashSet<>();
+			List<ImgNodeStates> states = new ArrayList<>();
 			for (int i = 0; i < (256 / ImgNode.COLOR_PALETTE_SCALE); i++) {
-				ALL_STATES.add(new ImgNodeStates(i));
+				states.add(new ImgNodeStates(i));
 			}
+			DOMAIN = StateDomain.of(states);
 		}
 
+		final static Set<ImgNodeStates> ALL_STATES = DOMAIN.asSet();
+
 		int color;
 
 		public ImgNodeStates(int color) {
@@ -183,14 +175,23 @@ public class ImageReconstruction {
 		}
 	}
 
-	static class ImgNodePotential extends Potential<ImgNodeStates, ImgNodeStates> {
+	/**
+	 * Depends only on the difference of colors, so messages are calculated via
+	 * FFT: cheap enough to reconstruct the image with all 256 levels of gray
+	 */
+	static class ImgNodePotential extends DifferencePotential<ImgNodeStates> {
 
 		private static final int STATES_SIZE = ImgNodeStates.ALL_STATES.size();
 		private static final double INV_STATES_SIZE = 1.0 / STATES_SIZE;
 
 		@Override
-		public double getValue(ImgNodeStates node1State, ImgNodeStates node2State) {
-			int diff = Math.abs(node1State.getColor() - node2State.getColor());
+		public int getLabel(ImgNodeStates state) {
+			return state.getColor();
+		}
+
+		@Override
+		public double getValueForDifference(int difference) {
+			int diff = Math.abs(difference);
 			double diffDoubl = diff * INV_STATES_SIZE;
 			diffDoubl = Math.sqrt(diffDoubl);
 			diffDoubl = Math.sqrt(diffDoubl);
@@ -204,7 +205,7 @@ public class ImageReconstruction {
 		static final double PRIOR_MATCH = 0.97;
 		static final double UNIFORM_PROBABILITY = 1.0 / ImgNodeStates.ALL_STATES.size();
 		static final double PRIOR_NOMATCH = (1 - PRIOR_MATCH) / ImgNodeStates.ALL_STATES.size();
-		static final int COLOR_PALETTE_SCALE = 10;
+		static final int COLOR_PALETTE_SCALE = 1;
 
 		final int color;
 
@@ -217,6 +218,11 @@ public class ImageReconstruction {
 			return ImgNodeStates.ALL_STATES;
 		}
 
+		@Override
+		public StateDomain<ImgNodeStates> getDomain() {
+			return ImgNodeStates.DOMAIN;
+		}
+
 		@Override
 		public double getPriorProbablility(ImgNodeStates state) {
 			if (this.color == 0) {
@@ -0,0 +1,139 @@
+package com.lahodiuk.bp.example;
+
+import gnu.trove.map.TObjectDoubleMap;
+
+import java.awt.image.BufferedImage;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import javax.imageio.ImageIO;
+
+import com.lahodiuk.bp.BipartiteSchedule;
+import com.lahodiuk.bp.CompiledGraph;
+import com.lahodiuk.bp.Edge;
+import com.lahodiuk.bp.GraphCompiler;
+import com.lahodiuk.bp.InferenceEngine;
+import com.lahodiuk.bp.LatticeMRF;
+import com.lahodiuk.bp.Node;
+import com.lahodiuk.bp.example.ChemicalReactionsNetworkDemo.ReactionsNetwork;
+import com.lahodiuk.bp.example.Coloring.Color;
+import com.lahodiuk.bp.example.Coloring.GraphColorNode;
+import com.lahodiuk.bp.example.ImageReconstruction.ImgNodeStates;
+import com.lahodiuk.bp.example.Products.ProductStates;
+import com.lahodiuk.bp.example.Products.User;
+import com.lahodiuk.bp.example.Products.UserStates;
+
+/**
+ * Compares final marginals of the inference, when messages are stored in the
+ * double and in the single precision (see
+ * {@link GraphCompiler#singlePrecision(boolean)},
+ * {@link LatticeMRF#singlePrecision(boolean)}), on the shipped examples
+ */
+public class PrecisionComparison {
+
+	public static void main(String[] args) throws IOException {
+		System.out.println(String.format("%-22s %s", "Example", "Max difference of marginals"));
+		System.out.println(String.format("%-22s %.3g", "Products", compareProducts()));
+		System.out.println(String.format("%-22s %.3g", "Coloring", compareColoring()));
+		System.out.println(String.format("%-22s %.3g", "Chemical reactions", compareChemicalReactions()));
+		System.out.println(String.format("%-22s %.3g", "Image reconstruction",
+				compareImageReconstruction(ImageIO.read(PrecisionComparison.class.getResourceAsStream("/input_3.png")))));
+	}
+
+	public static double compareProducts() {
+		Map<Integer, User> userIdToUser = Products.initializeUserIdsToUsers();
+		List<Edge<UserStates, ProductStates>> edges =
+				Products.initializeVotes(userIdToUser, Products.initializeProductIdsToProducts());
+
+		CompiledGraph doubleGraph = new GraphCompiler().compile(edges);
+		CompiledGraph floatGraph = new GraphCompiler().singlePrecision(true).compile(edges);
+		for (CompiledGraph graph : new CompiledGraph[] { doubleGraph, floatGraph }) {
+			new InferenceEngine(graph)
+					.schedule(new BipartiteSchedule())
+					.maxIterations(100)
+					.run();
+		}
+		return maxDifference(doubleGraph, floatGraph);
+	}
+
+	public static double compareColoring() {
+		Map<Integer, GraphColorNode> nodeIdToNode = Coloring.initializeNodesOfPetersenGraph();
+		List<Edge<Color, Color>> edges = Coloring.initializeEdgesOfPetersenGraph(nodeIdToNode);
+
+		CompiledGraph doubleGraph = new GraphCompiler().compile(edges);
+		CompiledGraph floatGraph = new GraphCompiler().singlePrecision(true).compile(edges);
+		for (CompiledGraph graph : new CompiledGraph[] { doubleGraph, floatGraph }) {
+			new InferenceEngine(graph)
+					.maxIterations(10)
+					.run();
+		}
+		return maxDifference(doubleGraph, floatGraph);
+	}
+
+	public static double compareChemicalReactions() throws IOException {
+		List<String> configuration;
+		try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+				ChemicalReactionsNetworkDemo.class.getResourceAsStream("/ChemicalReactionsNetwork.txt"),
+				StandardCharsets.UTF_8))) {
+			configuration = reader.lines().collect(Collectors.toList());
+		}
+
+		ReactionsNetwork doubleNetwork = ChemicalReactionsNetworkDemo.configureReactionsNetwork(configuration)
+				.inference(ChemicalReactionsNetworkDemo.ITERATIONS_NUMBER, new GraphCompiler().shareEqualPotentials(true));
+		ReactionsNetwork floatNetwork = ChemicalReactionsNetworkDemo.configureReactionsNetwork(configuration)
+				.inference(ChemicalReactionsNetworkDemo.ITERATIONS_NUMBER, new GraphCompiler().shareEqualPotentials(true).singlePrecision(true));
+
+		double maxDifference = 0;
+		for (String compound : doubleNetwork.getCompounds()) {
+			maxDifference = Math.max(maxDifference, maxDifference(
+					doubleNetwork.getPosteriorProbabilities(compound), floatNetwork.getPosteriorProbabilities(compound)));
+		}
+		return maxDifference;
+	}
+
+	public static double compareImageReconstruction(BufferedImage img) {
+		LatticeMRF<ImgNodeStates> doubleLattice = ImageReconstruction.build_lattice_MRF(img);
+		LatticeMRF<ImgNodeStates> floatLattice = ImageReconstruction.build_lattice_MRF(img).singlePrecision(true);
+		for (LatticeMRF<ImgNodeStates> lattice : Arrays.asList(doubleLattice, floatLattice)) {
+			new InferenceEngine(lattice)
+					.multiscaleLevels(ImageReconstruction.MULTISCALE_LEVELS)
+					.maxIterations(ImageReconstruction.INFERENCE_ITERATIONS)
+					.run();
+		}
+
+		double maxDifference = 0;
+		for (int y = 0; y < img.getHeight(); y++) {
+			for (int x = 0; x < img.getWidth(); x++) {
+				maxDifference = Math.max(maxDifference, maxDifference(
+						doubleLattice.getPosteriorProbabilities(x, y), floatLattice.getPosteriorProbabilities(x, y)));
+			}
+		}
+		return maxDifference;
+	}
+
+	private static double maxDifference(CompiledGraph doubleGraph, CompiledGraph floatGraph) {
+		double maxDifference = 0;
+		for (int n = 0; n < doubleGraph.getNodesCount(); n++) {
+			maxDifference = Math.max(maxDifference, maxDifference(doubleGraph, floatGraph, doubleGraph.getNode(n)));
+		}
+		return maxDifference;
+	}
+
+	private static <STATES> double maxDifference(CompiledGraph doubleGraph, CompiledGraph floatGraph, Node<STATES> node) {
+		return maxDifference(doubleGraph.getPosteriorProbabilities(node), floatGraph.getPosteriorProbabilities(node));
+	}
+
+	private static <STATES> double maxDifference(TObjectDoubleMap<STATES> expected, TObjectDoubleMap<STATES> actual) {
+		double maxDifference = 0;
+		for (STATES state : expected.keySet()) {
+			maxDifference = Math.max(maxDifference, Math.abs(expected.get(state) - actual.get(state)));
+		}
+		return maxDifference;
+	}
+}
@@ -1,16 +1,22 @@
 package com.lahodiuk.bp.example;
 
 import java.util.ArrayList;
-import java.util.Arrays;
+import java.util.Collection;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
+import com.lahodiuk.bp.BatchedGraph;
+import com.lahodiuk.bp.BipartiteSchedule;
+import com.lahodiuk.bp.CompiledGraph;
 import com.lahodiuk.bp.Edge;
+import com.lahodiuk.bp.InferenceEngine;
+import com.lahodiuk.bp.InferenceResult;
 import com.lahodiuk.bp.Node;
 import com.lahodiuk.bp.Potential;
+import com.lahodiuk.bp.ResidualSchedule;
+import com.lahodiuk.bp.StateDomain;
 
 public class Products {
 
@@ -24,9 +30,122 @@ public class Products {
 		List<Edge<UserStates, ProductStates>> edges =
 				initializeVotes(userIdToUser, productIdToProduct);
 
-		inferenceOfUserAndProductStates(edges);
+		InferenceResult inferenceResult = inferenceOfUserAndProductStates(edges);
+		System.out.println(inferenceResult);
+		System.out.println();
 
 		displayInferredProbabilitiesOfStates(userIdToUser, productIdToProduct);
+		System.out.println();
+
+		// what-if: every user in turn is known to be a fraud
+		BatchedGraph scenarios = inferenceOfWhatIfScenarios(edges, userIdToUser);
+		for (int i = 1; i <= 6; i++) {
+			System.out.print("User " + i + " is fraud:");
+			for (int j = 1; j <= 4; j++) {
+				System.out.print(String.format("\t Product %d is good = %.2f", j,
+						scenarios.getPosteriorProbabilities(i - 1, productIdToProduct.get(j)).get(ProductStates.GOOD)));
+			}
+			System.out.println();
+		}
+		System.out.println();
+
+		// new evidence arrives after the convergence
+		OnlineScoring scoring = new OnlineScoring(edges);
+		System.out.println("Initial inference: " + scoring.getMessageUpdatesCount() + " message updates");
+		long updatesCount = scoring.getMessageUpdatesCount();
+		scoring.setFraudProbability(userIdToUser.get(4), 0.99);
+		System.out.println("User 4 is fraud: " + (scoring.getMessageUpdatesCount() - updatesCount) + " message updates");
+		for (int j = 1; j <= 4; j++) {
+			System.out.println("Product: " + j + "\t" + scoring.getGraph().getPosteriorProbabilities(productIdToProduct.get(j)));
+		}
+
+		// new vote arrives after the convergence
+		updatesCount = scoring.getMessageUpdatesCount();
+		scoring.addVote(userIdToUser.get(1), productIdToProduct.get(4), true);
+		System.out.println("User 1 votes for product 4: " + (scoring.getMessageUpdatesCount() - updatesCount) + " message updates");
+		System.out.println("Product: 4\t" + scoring.getGraph().getPosteriorProbabilities(productIdToProduct.get(4)));
+	}
+
+	/**
+	 * Keeps the converged messages, and propagates every change of the prior
+	 * of the user (or every new or removed vote) incrementally - from the
+	 * affected nodes outward, by the {@link ResidualSchedule}
+	 */
+	public static class OnlineScoring {
+
+		private final CompiledGraph graph;
+
+		private final ResidualSchedule schedule = new ResidualSchedule();
+
+		private final InferenceEngine engine;
+
+		private final Potential<UserStates, ProductStates> positiveVotePotential = new UserProductPositiveVotePotential();
+
+		private final Potential<UserStates, ProductStates> negativeVotePotential = new UserProductNegativeVotePotential();
+
+		public OnlineScoring(List<Edge<UserStates, ProductStates>> edges) {
+			this.graph = CompiledGraph.compile(edges);
+			this.engine = new InferenceEngine(this.graph)
+					.schedule(this.schedule)
+					.maxIterations(100);
+			this.engine.run();
+		}
+
+		public InferenceResult setFraudProbability(User user, double probability) {
+			this.graph.setPriorProbability(user, UserStates.FRAUD, probability);
+			this.graph.setPriorProbability(user, UserStates.HONEST, 1 - probability);
+			return this.engine.run();
+		}
+
+		/**
+		 * Adds the vote to the live graph (new users and products are added
+		 * as well)
+		 */
+		public Edge<UserStates, ProductStates> addVote(User user, Product product, boolean positive) {
+			Edge<UserStates, ProductStates> vote = Edge.connect(user, product,
+					positive ? this.positiveVotePotential : this.negativeVotePotential);
+			this.graph.addEdge(vote);
+			this.engine.run();
+			return vote;
+		}
+
+		/**
+		 * Adds all votes to the live graph, and updates the messages once
+		 */
+		public InferenceResult addVotes(Collection<Edge<UserStates, ProductStates>> votes) {
+			this.graph.addEdges(votes);
+			return this.engine.run();
+		}
+
+		public void removeVote(Edge<UserStates, ProductStates> vote) {
+			vote.disconnect();
+			this.graph.removeEdge(vote);
+			this.engine.run();
+		}
+
+		public CompiledGraph getGraph() {
+			return this.graph;
+		}
+
+		public long getMessageUpdatesCount() {
+			return this.schedule.getMessageUpdatesCount();
+		}
+	}
+
+	/**
+	 * Scenario (i - 1) of the batch: user i is known to be a fraud (priors of
+	 * the rest of the nodes are unchanged)
+	 */
+	public static BatchedGraph inferenceOfWhatIfScenarios(List<Edge<UserStates, ProductStates>> edges, Map<Integer, User> userIdToUser) {
+		BatchedGraph scenarios = new BatchedGraph(CompiledGraph.compile(edges), userIdToUser.size());
+		for (int i = 1; i <= userIdToUser.size(); i++) {
+			scenarios.setPriorProbability(i - 1, userIdToUser.get(i), UserStates.FRAUD, 0.99);
+			scenarios.setPriorProbability(i - 1, userIdToUser.get(i), UserStates.HONEST, 0.01);
+		}
+		new InferenceEngine(scenarios)
+				.maxIterations(1000)
+				.run();
+		return scenarios;
 	}
 
 	public static void displayInferredProbabilitiesOfStates(Map<Integer, User> userIdToUser, Map<Integer, Product> productIdToProduct) {
@@ -41,43 +160,24 @@ public class Products {
 		}
 	}
 
-	public static void inferenceOfUserAndProductStates(List<Edge<UserStates, ProductStates>> edges) {
-		int iterationsNumber = 100;
-		for (int i = 0; i < iterationsNumber; i++) {
-			// Scheduling schema, which described in article:
-			// 1) User -> Product
-			// 2) User <- Product
-
-			// User -> Product
-			for (Edge<UserStates, ProductStates> edge : edges) {
-				edge.updateMessagesNode1ToNode2();
-			}
-			for (Edge<UserStates, ProductStates> edge : edges) {
-				edge.refreshMessagesNode1ToNode2();
-			}
-
-			// User <- Product
-			for (Edge<UserStates, ProductStates> edge : edges) {
-				edge.updateMessagesNode2ToNode1();
-			}
-			for (Edge<UserStates, ProductStates> edge : edges) {
-				edge.refreshMessagesNode2ToNode1();
-			}
-
-			// Alternative scheduling schema:
-			// Simultaneous passing of messages:
-			// User -> Product
-			// User <- Product
-			//
-			// for (Edge edge : edges) {
-			// edge.updateMessagesNode1ToNode2();
-			// edge.updateMessagesNode2ToNode1();
-			// }
-			// for (Edge edge : edges) {
-			// edge.refreshMessagesNode1ToNode2();
-			// edge.refreshMessagesNode2ToNode1();
-			// }
-		}
+	public static InferenceResult inferenceOfUserAndProductStates(List<Edge<UserStates, ProductStates>> edges) {
+		CompiledGraph graph = CompiledGraph.compile(edges);
+
+		// Scheduling schema, which described in article:
+		// 1) User -> Product
+		// 2) User <- Product
+		//
+		// Alternative scheduling schema - simultaneous passing of messages
+		// (FloodingSchedule):
+		// User -> Product
+		// User <- Product
+		InferenceResult result = new InferenceEngine(graph)
+				.schedule(new BipartiteSchedule())
+				.maxIterations(100)
+				.run();
+
+		graph.writeMessagesToEdges();
+		return result;
 	}
 
 	public static List<Edge<UserStates, ProductStates>> initializeVotes(Map<Integer, User> userIdToUser, Map<Integer, Product> productIdToProduct) {
@@ -144,14 +244,20 @@ public class Products {
 
 	public static class User extends Node<UserStates> {
 
-		private static final Set<UserStates> USER_STATES =
-				new HashSet<>(Arrays.asList(UserStates.values()));
+		private static final StateDomain<UserStates> USER_DOMAIN = StateDomain.of(UserStates.class);
+
+		private static final Set<UserStates> USER_STATES = USER_DOMAIN.asSet();
 
 		@Override
 		public Set<UserStates> getStates() {
 			return USER_STATES;
 		}
 
+		@Override
+		public StateDomain<UserStates> getDomain() {
+			return USER_DOMAIN;
+		}
+
 		@Override
 		public double getPriorProbablility(UserStates state) {
 			return 1.0 / USER_STATES.size();
@@ -160,14 +266,20 @@ public class Products {
 
 	public static class Product extends Node<ProductStates> {
 
-		private static final Set<ProductStates> PRODUCT_STATES =
-				new HashSet<>(Arrays.asList(ProductStates.values()));
+		private static final StateDomain<ProductStates> PRODUCT_DOMAIN = StateDomain.of(ProductStates.class);
+
+		private static final Set<ProductStates> PRODUCT_STATES = PRODUCT_DOMAIN.asSet();
 
 		@Override
 		public Set<ProductStates> getStates() {
 			return PRODUCT_STATES;
 		}
 
+		@Override
+		public StateDomain<ProductStates> getDomain() {
+			return PRODUCT_DOMAIN;
+		}
+
 		@Override
 		public double getPriorProbablility(ProductStates state) {
 			return 1.0 / PRODUCT_STATES.size();
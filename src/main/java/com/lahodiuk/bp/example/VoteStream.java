@@ -0,0 +1,161 @@
+package com.lahodiuk.bp.example;
+
+import gnu.trove.map.TIntObjectMap;
+import gnu.trove.map.hash.TIntObjectHashMap;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.lahodiuk.bp.Edge;
+import com.lahodiuk.bp.Potential;
+import com.lahodiuk.bp.example.Products.OnlineScoring;
+import com.lahodiuk.bp.example.Products.Product;
+import com.lahodiuk.bp.example.Products.ProductStates;
+import com.lahodiuk.bp.example.Products.User;
+import com.lahodiuk.bp.example.Products.UserProductNegativeVotePotential;
+import com.lahodiuk.bp.example.Products.UserProductPositiveVotePotential;
+import com.lahodiuk.bp.example.Products.UserStates;
+
+/**
+ * Streaming ingestion of the votes into the live graph of the
+ * {@link OnlineScoring}. <br/>
+ * <br/>
+ * Every line of the input is the vote: "userId productId +" (or "-" for the
+ * negative vote), lines which start with "#" are ignored. <br/>
+ * <br/>
+ * Votes are read in chunks: ids are interned into the users and the products
+ * (which get dense indices in the compiled graph, in order of appearance),
+ * the whole chunk is appended to the graph, and messages are updated
+ * incrementally once per chunk. Votes aren't retained after the chunk is
+ * appended, so memory is proportional to the graph, not to the length of the
+ * stream.
+ */
+public class VoteStream {
+
+	public static final int DEFAULT_CHUNK_SIZE = 1000;
+
+	public static void main(String[] args) throws IOException {
+		VoteStream stream = new VoteStream().chunkSize(4);
+		stream.ingest(VoteStream.class.getResourceAsStream("/Votes.txt"));
+
+		System.out.println("Votes: " + stream.getVotesCount() + ", chunks: " + stream.getChunksCount()
+				+ ", message updates: " + stream.getScoring().getMessageUpdatesCount());
+		for (int i = 1; i <= 6; i++) {
+			System.out.println("User: " + i + "\t" + stream.getScoring().getGraph().getPosteriorProbabilities(stream.getUser(i)));
+		}
+		for (int i = 1; i <= 4; i++) {
+			System.out.println("Product: " + i + "\t" + stream.getScoring().getGraph().getPosteriorProbabilities(stream.getProduct(i)));
+		}
+	}
+
+	private final OnlineScoring scoring = new OnlineScoring(new ArrayList<Edge<UserStates, ProductStates>>());
+
+	private final TIntObjectMap<User> userIdToUser = new TIntObjectHashMap<>();
+
+	private final TIntObjectMap<Product> productIdToProduct = new TIntObjectHashMap<>();
+
+	private final Potential<UserStates, ProductStates> positiveVotePotential = new UserProductPositiveVotePotential();
+
+	private final Potential<UserStates, ProductStates> negativeVotePotential = new UserProductNegativeVotePotential();
+
+	private int chunkSize = DEFAULT_CHUNK_SIZE;
+
+	private long votesCount = 0;
+
+	private int chunksCount = 0;
+
+	public VoteStream chunkSize(int chunkSize) {
+		this.chunkSize = chunkSize;
+		return this;
+	}
+
+	public VoteStream ingest(Path path) throws IOException {
+		try (InputStream input = Files.newInputStream(path)) {
+			return this.ingest(input);
+		}
+	}
+
+	public VoteStream ingest(InputStream input) throws IOException {
+		BufferedReader reader = new BufferedReader(new InputStreamReader(input, StandardCharsets.UTF_8));
+		List<Edge<UserStates, ProductStates>> chunk = new ArrayList<>(this.chunkSize);
+		String line;
+		while ((line = reader.readLine()) != null) {
+			line = line.trim();
+			if (line.isEmpty() || line.startsWith("#")) {
+				continue;
+			}
+			chunk.add(this.parseVote(line));
+			if (chunk.size() == this.chunkSize) {
+				this.appendChunk(chunk);
+			}
+		}
+		this.appendChunk(chunk);
+		return this;
+	}
+
+	private void appendChunk(List<Edge<UserStates, ProductStates>> chunk) {
+		if (chunk.isEmpty()) {
+			return;
+		}
+		this.scoring.addVotes(chunk);
+		this.votesCount += chunk.size();
+		this.chunksCount += 1;
+		chunk.clear();
+	}
+
+	private Edge<UserStates, ProductStates> parseVote(String line) {
+		String[] parts = line.split("\\s+");
+		if ((parts.length != 3) || !(parts[2].equals("+") || parts[2].equals("-"))) {
+			throw new RuntimeException("Malformed vote: " + line);
+		}
+		User user = this.getOrCreateUser(Integer.parseInt(parts[0]));
+		Product product = this.getOrCreateProduct(Integer.parseInt(parts[1]));
+		return Edge.connect(user, product,
+				parts[2].equals("+") ? this.positiveVotePotential : this.negativeVotePotential);
+	}
+
+	private User getOrCreateUser(int userId) {
+		User user = this.userIdToUser.get(userId);
+		if (user == null) {
+			user = new User();
+			this.userIdToUser.put(userId, user);
+		}
+		return user;
+	}
+
+	private Product getOrCreateProduct(int productId) {
+		Product product = this.productIdToProduct.get(productId);
+		if (product == null) {
+			product = new Product();
+			this.productIdToProduct.put(productId, product);
+		}
+		return product;
+	}
+
+	public User getUser(int userId) {
+		return this.userIdToUser.get(userId);
+	}
+
+	public Product getProduct(int productId) {
+		return this.productIdToProduct.get(productId);
+	}
+
+	public OnlineScoring getScoring() {
+		return this.scoring;
+	}
+
+	public long getVotesCount() {
+		return this.votesCount;
+	}
+
+	public int getChunksCount() {
+		return this.chunksCount;
+	}
+}
@@ -0,0 +1,159 @@
+package com.lahodiuk.sampling.gibbs;
+
+import java.util.List;
+import java.util.Random;
+
+import com.lahodiuk.bp.IntGraph;
+import com.lahodiuk.bp.IntNode;
+import com.lahodiuk.bp.IntPotential;
+
+/**
+ * Gibbs sampling of the {@link IntGraph}: states of the random variables are
+ * the indices of the states of the nodes, so the conditional probabilities are
+ * calculated without any state objects or casts. <br/>
+ * <br/>
+ * Conditional distribution is calculated in the log domain (relative to the
+ * most probable value), so it doesn't underflow for the nodes of the high
+ * degree.
+ */
+public class GibbsSamplingIntMRF extends GibbsSamplingOptimized {
+
+	private final IntNode[] nodes;
+
+	/**
+	 * Neighbours of the node n are neighbour[nodeEdgesFrom[n] ..
+	 * nodeEdgesFrom[n + 1] - 1]
+	 */
+	private final int[] nodeEdgesFrom;
+
+	private final int[] neighbour;
+
+	private final IntPotential[] potential;
+
+	/**
+	 * Whether the node is node1 of the edge (so its state is the first
+	 * argument of the potential)
+	 */
+	private final boolean[] nodeIsNode1;
+
+	private double[][] marginalProbabilities;
+
+	public GibbsSamplingIntMRF(IntGraph graph) {
+		int nodesCount = graph.getNodesCount();
+		int edgesCount = graph.getEdgesCount();
+
+		this.nodes = new IntNode[nodesCount];
+		for (int n = 0; n < nodesCount; n++) {
+			this.nodes[n] = graph.getNode(n);
+		}
+
+		this.nodeEdgesFrom = new int[nodesCount + 1];
+		for (int e = 0; e < edgesCount; e++) {
+			this.nodeEdgesFrom[graph.getEdgeNode1(e) + 1] += 1;
+			this.nodeEdgesFrom[graph.getEdgeNode2(e) + 1] += 1;
+		}
+		for (int n = 0; n < nodesCount; n++) {
+			this.nodeEdgesFrom[n + 1] += this.nodeEdgesFrom[n];
+		}
+		this.neighbour = new int[2 * edgesCount];
+		this.potential = new IntPotential[2 * edgesCount];
+		this.nodeIsNode1 = new boolean[2 * edgesCount];
+		int[] position = new int[nodesCount];
+		for (int e = 0; e < edgesCount; e++) {
+			int node1 = graph.getEdgeNode1(e);
+			int node2 = graph.getEdgeNode2(e);
+			this.addNeighbour(node1, node2, graph.getEdgePotential(e), true, position);
+			this.addNeighbour(node2, node1, graph.getEdgePotential(e), false, position);
+		}
+	}
+
+	private void addNeighbour(int node, int neighbour, IntPotential potential, boolean nodeIsNode1, int[] position) {
+		int i = this.nodeEdgesFrom[node] + position[node];
+		this.neighbour[i] = neighbour;
+		this.potential[i] = potential;
+		this.nodeIsNode1[i] = nodeIsNode1;
+		position[node] += 1;
+	}
+
+	@Override
+	public int getDimension() {
+		return this.nodes.length;
+	}
+
+	@Override
+	public int getAmountofValuesOfRandomVariable(int idx) {
+		return this.nodes[idx].getStatesCount();
+	}
+
+	@Override
+	public double conditionalProbability(int indexOfValueOfRandomVariable, int idx, int[] vector) {
+		return Math.exp(this.logConditionalProbability(indexOfValueOfRandomVariable, idx, vector));
+	}
+
+	private double logConditionalProbability(int state, int idx, int[] vector) {
+		double result = this.nodes[idx].logPrior(state);
+		for (int i = this.nodeEdgesFrom[idx]; i < this.nodeEdgesFrom[idx + 1]; i++) {
+			int neighbourState = vector[this.neighbour[i]];
+			result += this.nodeIsNode1[i]
+					? this.potential[i].logValue(state, neighbourState)
+					: this.potential[i].logValue(neighbourState, state);
+		}
+		return result;
+	}
+
+	@Override
+	public void calcCondProbDistr(int[] vector, int idx, int rndVariableValuesCnt, double[] conditionalProbabilityDistribution) {
+		double max = Double.NEGATIVE_INFINITY;
+		for (int i = 0; i < rndVariableValuesCnt; i++) {
+			conditionalProbabilityDistribution[i] = this.logConditionalProbability(i, idx, vector);
+			max = Math.max(max, conditionalProbabilityDistribution[i]);
+		}
+		double sum = 0;
+		for (int i = 0; i < rndVariableValuesCnt; i++) {
+			conditionalProbabilityDistribution[i] = Math.exp(conditionalProbabilityDistribution[i] - max);
+			sum += conditionalProbabilityDistribution[i];
+		}
+		for (int i = 0; i < rndVariableValuesCnt; i++) {
+			conditionalProbabilityDistribution[i] /= sum;
+		}
+	}
+
+	public void infer(int warmUpCount, int samplesCount, Random rnd) {
+		List<int[]> samples = this.doSampling(warmUpCount, samplesCount, rnd);
+
+		this.marginalProbabilities = new double[this.nodes.length][];
+		for (int n = 0; n < this.nodes.length; n++) {
+			this.marginalProbabilities[n] = new double[this.nodes[n].getStatesCount()];
+		}
+		for (int[] sample : samples) {
+			for (int n = 0; n < this.nodes.length; n++) {
+				this.marginalProbabilities[n][sample[n]] += 1;
+			}
+		}
+		for (int n = 0; n < this.nodes.length; n++) {
+			for (int s = 0; s < this.marginalProbabilities[n].length; s++) {
+				this.marginalProbabilities[n][s] /= samples.size();
+			}
+		}
+	}
+
+	/**
+	 * @return frequencies of the states of the node (with the given index in
+	 *         the {@link IntGraph}) across the samples of the last
+	 *         {@link #infer(int, int, Random)}
+	 */
+	public double[] getMarginalProbabilities(int node) {
+		return this.marginalProbabilities[node];
+	}
+
+	public int getMostProbableState(int node) {
+		double[] nodeMarginalProbabilities = this.marginalProbabilities[node];
+		int mostProbableState = 0;
+		for (int s = 1; s < nodeMarginalProbabilities.length; s++) {
+			if (nodeMarginalProbabilities[s] > nodeMarginalProbabilities[mostProbableState]) {
+				mostProbableState = s;
+			}
+		}
+		return mostProbableState;
+	}
+}
@@ -7,13 +7,14 @@ import java.util.Random;
 
 import com.lahodiuk.bp.Edge;
 import com.lahodiuk.bp.Node;
+import com.lahodiuk.bp.StateDomain;
 
 public class GibbsSamplingMRF extends GibbsSamplingOptimized {
 
 	@SuppressWarnings("rawtypes")
 	private final List<Node> nodes;
 
-	private final Object[][] nodeIdxToStates;
+	private final StateDomain<?>[] nodeIdxToDomain;
 
 	private List<int[]> samples;
 
@@ -30,10 +31,10 @@ public class GibbsSamplingMRF extends GibbsSamplingOptimized {
 			allNodesList.addAll(nodeContainer);
 		}
 		int nodesCnt = allNodesList.size();
-		this.nodeIdxToStates = new Object[nodesCnt][];
+		this.nodeIdxToDomain = new StateDomain<?>[nodesCnt];
 		for (int i = 0; i < nodesCnt; i++) {
 			Node<?> node = allNodesList.get(i);
-			this.nodeIdxToStates[i] = node.getStates().toArray();
+			this.nodeIdxToDomain[i] = node.getDomain();
 			node.setIndex(i);
 		}
 
@@ -47,24 +48,24 @@ public class GibbsSamplingMRF extends GibbsSamplingOptimized {
 
 	@Override
 	public int getAmountofValuesOfRandomVariable(int idx) {
-		return this.nodeIdxToStates[idx].length;
+		return this.nodeIdxToDomain[idx].size();
 	}
 
 	@Override
 	public double conditionalProbability(int indexOfValueOfRandomVariable, int idx, int[] vector) {
 		Node<?> curr = this.nodes.get(idx);
-		Object currState = this.nodeIdxToStates[idx][indexOfValueOfRandomVariable];
+		Object currState = this.nodeIdxToDomain[idx].get(indexOfValueOfRandomVariable);
 		double result = curr.getPriorProbablilityNoTypeCheck(currState);
 		for (Edge<?, ?> e : curr.getEdges()) {
 			if (curr == e.getNode1()) {
 				Node<?> other = e.getNode2();
 				int otherIdx = other.getIndex();
-				Object node2State = this.nodeIdxToStates[otherIdx][vector[otherIdx]];
+				Object node2State = this.nodeIdxToDomain[otherIdx].get(vector[otherIdx]);
 				result *= e.getPotential().getValueNoTypeCheck(currState, node2State);
 			} else {
 				Node<?> other = e.getNode1();
 				int otherIdx = other.getIndex();
-				Object node1State = this.nodeIdxToStates[otherIdx][vector[otherIdx]];
+				Object node1State = this.nodeIdxToDomain[otherIdx].get(vector[otherIdx]);
 				result *= e.getPotential().getValueNoTypeCheck(node1State, currState);
 			}
 		}
@@ -86,7 +87,7 @@ public class GibbsSamplingMRF extends GibbsSamplingOptimized {
 	public void displayDebugInfo() {
 		for (int i = 0; i < this.nodes.size(); i++) {
 			Node<?> curr = this.nodes.get(i);
-			List<?> states = new ArrayList<>(curr.getStates());
+			List<?> states = curr.getDomain().asList();
 			System.out.print(curr.getClass().getSimpleName() + " ");
 			int amount = this.getAmountofValuesOfRandomVariable(i);
 			for (int randomVariableIdx = 0; randomVariableIdx < amount; randomVariableIdx++) {
@@ -128,6 +129,6 @@ public class GibbsSamplingMRF extends GibbsSamplingOptimized {
 				maxProbIdx = i;
 			}
 		}
-		return this.nodeIdxToStates[idx][maxProbIdx];
+		return this.nodeIdxToDomain[idx].get(maxProbIdx);
 	}
 }
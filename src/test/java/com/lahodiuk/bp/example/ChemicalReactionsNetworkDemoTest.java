@@ -17,16 +17,18 @@ import com.lahodiuk.bp.example.ChemicalReactionsNetworkDemo.ReactionsNetwork;
 
 public class ChemicalReactionsNetworkDemoTest {
 
+	private List<String> configuration;
+
 	private ReactionsNetwork reactionsNetwork;
 
 	@Before
 	public void init() throws IOException {
 
-		List<String> configuration = new BufferedReader(new InputStreamReader(
+		this.configuration = new BufferedReader(new InputStreamReader(
 				ChemicalReactionsNetworkDemo.class.getResourceAsStream("/ChemicalReactionsNetwork.txt"),
 				StandardCharsets.UTF_8)).lines().collect(Collectors.toList());
 
-		this.reactionsNetwork = ChemicalReactionsNetworkDemo.configureReactionsNetwork(configuration);
+		this.reactionsNetwork = ChemicalReactionsNetworkDemo.configureReactionsNetwork(this.configuration);
 	}
 
 	@Test
@@ -63,4 +65,16 @@ public class ChemicalReactionsNetworkDemoTest {
 		assertEquals(CompoundType.ACID_SALT.name(), this.reactionsNetwork.getMostProbableCompoundType("KHSO4"));
 		assertEquals(CompoundType.ACID_SALT.name(), this.reactionsNetwork.getMostProbableCompoundType("KHCO3"));
 	}
+
+	@Test
+	public void testBeam() {
+		ChemicalReactionsNetworkDemo.inference(this.reactionsNetwork, ChemicalReactionsNetworkDemo.ITERATIONS_NUMBER);
+
+		ReactionsNetwork prunedReactionsNetwork = ChemicalReactionsNetworkDemo.configureReactionsNetwork(this.configuration).beam(64, 30);
+		ChemicalReactionsNetworkDemo.inference(prunedReactionsNetwork, ChemicalReactionsNetworkDemo.ITERATIONS_NUMBER);
+
+		for (String compound : this.reactionsNetwork.getCompounds()) {
+			assertEquals(compound, this.reactionsNetwork.getMostProbableCompoundType(compound), prunedReactionsNetwork.getMostProbableCompoundType(compound));
+		}
+	}
 }
@@ -1,14 +1,32 @@
 package com.lahodiuk.bp.example;
 
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
 
 import org.junit.Before;
 import org.junit.Test;
 
+import com.lahodiuk.bp.ColoredSchedule;
+import com.lahodiuk.bp.CompiledGraph;
 import com.lahodiuk.bp.Edge;
+import com.lahodiuk.bp.FloodingSchedule;
+import com.lahodiuk.bp.InferenceEngine;
+import com.lahodiuk.bp.InferenceResult;
+import com.lahodiuk.bp.IntGraph;
+import com.lahodiuk.bp.ParallelFloodingSchedule;
+import com.lahodiuk.bp.Potential;
+import com.lahodiuk.bp.ResidualSchedule;
+import com.lahodiuk.bp.Schedule;
+import com.lahodiuk.bp.SparsePotential;
+import com.lahodiuk.bp.StopReason;
+import com.lahodiuk.bp.TreeSchedule;
 import com.lahodiuk.bp.example.Coloring.Color;
 import com.lahodiuk.bp.example.Coloring.GraphColorNode;
 
@@ -99,4 +117,260 @@ public class ColoringTest {
 		assertTrue(this.nodeIdToNode.get(10).getMostProbableState() != this.nodeIdToNode.get(6).getMostProbableState());
 		assertTrue(this.nodeIdToNode.get(10).getMostProbableState() != this.nodeIdToNode.get(9).getMostProbableState());
 	}
-}
\ No newline at end of file
+
+	@Test
+	public void testResidualSchedule() {
+		CompiledGraph graph = CompiledGraph.compile(this.edges);
+		ResidualSchedule schedule = new ResidualSchedule(1e-6);
+		InferenceResult result = new InferenceEngine(graph)
+				.schedule(schedule)
+				.tolerance(1e-6)
+				.maxIterations(100)
+				.run();
+
+		assertEquals(StopReason.CONVERGED, result.getStopReason());
+		for (Edge<Color, Color> edge : this.edges) {
+			assertTrue(graph.getMostProbableState(edge.getNode1()) != graph.getMostProbableState(edge.getNode2()));
+		}
+
+		CompiledGraph floodingGraph = CompiledGraph.compile(this.edges);
+		InferenceResult floodingResult = new InferenceEngine(floodingGraph)
+				.tolerance(1e-6)
+				.maxIterations(1000)
+				.run();
+		assertEquals(StopReason.CONVERGED, floodingResult.getStopReason());
+		assertTrue(schedule.getMessageUpdatesCount() < (floodingResult.getIterations() * floodingGraph.getMessagesCount()));
+
+		// by default, residual schedule commits messages down to the
+		// tolerance of the engine
+		CompiledGraph preciseGraph = CompiledGraph.compile(this.edges);
+		InferenceResult preciseResult = new InferenceEngine(preciseGraph)
+				.schedule(new ResidualSchedule())
+				.tolerance(1e-10)
+				.maxIterations(100)
+				.run();
+		assertEquals(StopReason.CONVERGED, preciseResult.getStopReason());
+		assertTrue(new InferenceEngine(preciseGraph).schedule(new FloodingSchedule()).sweep().getMaxResidual() < 1e-9);
+	}
+
+	@Test
+	public void testNodeCentricUpdatesMatchEdgeUpdates() {
+		CompiledGraph edgeGraph = CompiledGraph.compile(this.edges);
+		CompiledGraph nodeGraph = CompiledGraph.compile(this.edges);
+		for (int iteration = 0; iteration < 20; iteration++) {
+			edgeGraph.updateMessages();
+			edgeGraph.refreshMessages();
+			nodeGraph.updateMessagesByNodes();
+			nodeGraph.refreshMessages();
+
+			for (int n = 0; n < edgeGraph.getNodesCount(); n++) {
+				assertArrayEquals(edgeGraph.getPosteriorProbabilities(n), nodeGraph.getPosteriorProbabilities(n), 1e-12);
+			}
+		}
+	}
+
+	@Test
+	public void testHardConstraints() {
+		for (Schedule schedule : new Schedule[] { new FloodingSchedule(), new TreeSchedule(), new ResidualSchedule() }) {
+			// chain of equalities, where only the first node has a color:
+			// messages contain hard zeros, which stay the same between the
+			// sweeps
+			GraphColorNode[] chain = { colorNode(Color.GREEN), new GraphColorNode(), new GraphColorNode(), new GraphColorNode() };
+			CompiledGraph graph = CompiledGraph.compile(equalities(chain, false));
+			InferenceResult result = new InferenceEngine(graph)
+					.schedule(schedule)
+					.maxIterations(100)
+					.run();
+
+			assertEquals(StopReason.CONVERGED, result.getStopReason());
+			for (GraphColorNode node : chain) {
+				assertEquals(1.0, graph.getPosteriorProbabilities(node).get(Color.GREEN), 1e-12);
+				assertEquals(0.0, graph.getPosteriorProbabilities(node).get(Color.RED), 0.0);
+			}
+		}
+
+		for (Schedule schedule : new Schedule[] { new FloodingSchedule(), new TreeSchedule(), new ResidualSchedule() }) {
+			// cycle of equalities with the different colors: all states of
+			// some message are impossible, so it can't be normalized
+			GraphColorNode[] cycle = { colorNode(Color.GREEN), new GraphColorNode(), new GraphColorNode(), colorNode(Color.RED) };
+			CompiledGraph graph = CompiledGraph.compile(equalities(cycle, true));
+			InferenceResult result = new InferenceEngine(graph)
+					.schedule(schedule)
+					.maxIterations(100)
+					.run();
+
+			assertEquals(StopReason.DIVERGED, result.getStopReason());
+			assertTrue(Double.isNaN(result.getMaxResidual()));
+		}
+	}
+
+	private static GraphColorNode colorNode(Color color) {
+		return new GraphColorNode() {
+			@Override
+			public double getPriorProbablility(Color state) {
+				return (state == color) ? 1 : 0;
+			}
+		};
+	}
+
+	private static List<Edge<Color, Color>> equalities(GraphColorNode[] nodes, boolean cycle) {
+		Potential<Color, Color> equality = new Potential<Color, Color>() {
+			@Override
+			public double getValue(Color node1State, Color node2State) {
+				return (node1State == node2State) ? 1 : 0;
+			}
+		};
+		List<Edge<Color, Color>> edges = new ArrayList<>();
+		for (int i = 0; (i + 1) < nodes.length; i++) {
+			edges.add(Edge.connect(nodes[i], nodes[i + 1], equality));
+		}
+		if (cycle) {
+			edges.add(Edge.connect(nodes[nodes.length - 1], nodes[0], equality));
+		}
+		return edges;
+	}
+
+	@Test
+	public void testParallelFloodingScheduleMatchesSequential() {
+		CompiledGraph sequentialGraph = CompiledGraph.compile(this.edges);
+		new InferenceEngine(sequentialGraph)
+				.schedule(new FloodingSchedule())
+				.maxIterations(10)
+				.run();
+
+		CompiledGraph parallelGraph = CompiledGraph.compile(this.edges);
+		ForkJoinPool pool = new ForkJoinPool(4);
+		try {
+			new InferenceEngine(parallelGraph)
+					.schedule(new ParallelFloodingSchedule(pool, 1))
+					.maxIterations(10)
+					.run();
+		} finally {
+			pool.shutdown();
+		}
+
+		for (GraphColorNode node : this.nodeIdToNode.values()) {
+			for (Color color : Color.values()) {
+				assertEquals(
+						sequentialGraph.getPosteriorProbabilities(node).get(color),
+						parallelGraph.getPosteriorProbabilities(node).get(color),
+						0.0);
+			}
+		}
+	}
+
+	@Test
+	public void testColoredSchedule() {
+		CompiledGraph graph = CompiledGraph.compile(this.edges);
+		ForkJoinPool pool = new ForkJoinPool(4);
+		ColoredSchedule schedule = new ColoredSchedule(pool, 1);
+		InferenceResult result;
+		try {
+			result = new InferenceEngine(graph)
+					.schedule(schedule)
+					.maxIterations(100)
+					.run();
+		} finally {
+			pool.shutdown();
+		}
+
+		assertEquals(StopReason.CONVERGED, result.getStopReason());
+		// chromatic number of the Petersen graph is 3
+		assertTrue(schedule.getColorsCount() >= 3);
+		for (Edge<Color, Color> edge : this.edges) {
+			assertTrue(graph.getMostProbableState(edge.getNode1()) != graph.getMostProbableState(edge.getNode2()));
+		}
+	}
+
+	@Test
+	public void testIntGraph() {
+		CompiledGraph graph = CompiledGraph.compile(this.edges);
+		new InferenceEngine(graph)
+				.schedule(new FloodingSchedule())
+				.maxIterations(100)
+				.run();
+
+		IntGraph intGraph = Coloring.initializeIntPetersenGraph();
+		CompiledGraph compiledIntGraph = intGraph.compile();
+		new InferenceEngine(compiledIntGraph)
+				.schedule(new FloodingSchedule())
+				.maxIterations(100)
+				.run();
+
+		for (int i = 1; i <= 10; i++) {
+			double[] probabilities = compiledIntGraph.getPosteriorProbabilities(i - 1);
+			for (Color color : Color.values()) {
+				assertEquals(graph.getPosteriorProbabilities(this.nodeIdToNode.get(i)).get(color), probabilities[color.ordinal()], 1e-12);
+			}
+		}
+		for (int e = 0; e < intGraph.getEdgesCount(); e++) {
+			assertTrue(compiledIntGraph.getMostProbableStateIndex(intGraph.getEdgeNode1(e)) != compiledIntGraph.getMostProbableStateIndex(intGraph.getEdgeNode2(e)));
+		}
+	}
+
+	@Test
+	public void testSparsePotentialMatchesDensePotential() {
+		Random random = new Random(17);
+		List<Edge<Color, Color>> sparseEdges = new ArrayList<>();
+		List<Edge<Color, Color>> denseEdges = new ArrayList<>();
+		for (Edge<Color, Color> edge : this.edges) {
+			double defaultValue = 0.5 + random.nextDouble();
+			double[][] values = new double[Color.values().length][Color.values().length];
+			// one column consists only of the exceptions, which are much
+			// smaller than the default value: the sparse message of it is the
+			// result of the cancellation
+			int smallColumn = random.nextInt(values.length);
+			for (int s1 = 0; s1 < values.length; s1++) {
+				for (int s2 = 0; s2 < values.length; s2++) {
+					if (s2 == smallColumn) {
+						values[s1][s2] = defaultValue * 1e-12 * (1 + random.nextDouble());
+					} else if (random.nextDouble() < 0.3) {
+						values[s1][s2] = (s1 == s2) ? 0 : (2 * defaultValue * random.nextDouble());
+					} else {
+						values[s1][s2] = defaultValue;
+					}
+				}
+			}
+			sparseEdges.add(Edge.connect(edge.getNode1(), edge.getNode2(), new SparsePotential<Color, Color>() {
+				@Override
+				public double getValue(Color node1State, Color node2State) {
+					return values[node1State.ordinal()][node2State.ordinal()];
+				}
+
+				@Override
+				public double getDefaultValue() {
+					return defaultValue;
+				}
+			}));
+			denseEdges.add(Edge.connect(edge.getNode1(), edge.getNode2(), new Potential<Color, Color>() {
+				@Override
+				public double getValue(Color node1State, Color node2State) {
+					return values[node1State.ordinal()][node2State.ordinal()];
+				}
+			}));
+		}
+
+		CompiledGraph sparseGraph = CompiledGraph.compile(sparseEdges);
+		CompiledGraph denseGraph = CompiledGraph.compile(denseEdges);
+		for (CompiledGraph graph : new CompiledGraph[] { sparseGraph, denseGraph }) {
+			new InferenceEngine(graph)
+					.schedule(new FloodingSchedule())
+					.maxIterations(20)
+					.run();
+		}
+
+		for (int n = 0; n < denseGraph.getNodesCount(); n++) {
+			double[] sparseProbabilities = sparseGraph.getPosteriorProbabilities(n);
+			double[] denseProbabilities = denseGraph.getPosteriorProbabilities(n);
+			for (int s = 0; s < denseProbabilities.length; s++) {
+				// relative precision, so the tiny probabilities are compared
+				// as well
+				if (denseProbabilities[s] == 0) {
+					assertEquals(0.0, sparseProbabilities[s], 0.0);
+				} else {
+					assertEquals(1.0, sparseProbabilities[s] / denseProbabilities[s], 1e-6);
+				}
+			}
+		}
+	}
+}
@@ -1,12 +1,15 @@
 package com.lahodiuk.bp.example;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 
 import java.util.Arrays;
 
 import org.junit.Test;
 
+import com.lahodiuk.bp.BatchParityCheckDecoder;
 import com.lahodiuk.bp.example.HammingCodeNetwork.HammingCode;
+import com.lahodiuk.bp.example.HammingCodeNetwork.HammingCodeFactorGraph;
 
 public class HammingCodeNetworkTest {
 
@@ -48,6 +51,92 @@ public class HammingCodeNetworkTest {
 		}
 	}
 
+	@Test
+	public void testFactorGraph() {
+		for (int data = 0; data < 16; data++) {
+			int[] encoded = HammingCodeNetwork.encode(
+					(data >> 3) & 1, (data >> 2) & 1, (data >> 1) & 1, data & 1);
+
+			int[] decoded = this.inferenceMostProbableCodeByFactorGraph(encoded);
+			assertArrayEquals(encoded, decoded);
+
+			for (int flipPosition = 0; flipPosition < encoded.length; flipPosition++) {
+				decoded = this.inferenceMostProbableCodeByFactorGraph(this.transmitAndFlipBit(encoded, flipPosition));
+				// loopy BP doesn't always correct flipped parity bits (the
+				// same as for the pairwise network)
+				assertEquals(this.payload(encoded, 4), this.payload(decoded, 4));
+			}
+		}
+	}
+
+	@Test
+	public void testBatchDecoding() {
+		int[][] encoded = new int[16 * 8][];
+		int[][] received = new int[16 * 8][];
+		for (int data = 0; data < 16; data++) {
+			for (int flipPosition = -1; flipPosition < 7; flipPosition++) {
+				int c = (data * 8) + flipPosition + 1;
+				encoded[c] = HammingCodeNetwork.encode(
+						(data >> 3) & 1, (data >> 2) & 1, (data >> 1) & 1, data & 1);
+				received[c] = (flipPosition < 0) ? encoded[c] : this.transmitAndFlipBit(encoded[c], flipPosition);
+			}
+		}
+
+		int[][] decoded = HammingCodeNetwork.decodeBatch(received, 0.1);
+
+		for (int c = 0; c < received.length; c++) {
+			// decoding stops as soon as all parity checks are satisfied
+			for (int[] check : HammingCodeNetwork.PARITY_CHECKS) {
+				int parity = 0;
+				for (int bit : check) {
+					parity ^= decoded[c][bit];
+				}
+				assertEquals(0, parity);
+			}
+			if (received[c] == encoded[c]) {
+				assertArrayEquals(encoded[c], decoded[c]);
+			} else if (received[c][1] == encoded[c][1]) {
+				// after the first sweep of loopy BP, flipped bit i2 (which
+				// belongs to all checks) is outvoted by the rest of the bits,
+				// and the decoding stops at the wrong codeword
+				assertEquals(this.payload(encoded[c], 4), this.payload(decoded[c], 4));
+			}
+		}
+	}
+
+	@Test
+	public void testBatchDecodingStopsAtIterationsLimit() {
+		// valid codewords are interleaved with the codewords with a flipped
+		// bit, so the retired codewords are swapped with the undecoded ones
+		int codewordsCount = 16 * 2;
+		int[][] received = new int[codewordsCount][];
+		for (int data = 0; data < 16; data++) {
+			int[] encoded = HammingCodeNetwork.encode((data >> 3) & 1, (data >> 2) & 1, (data >> 1) & 1, data & 1);
+			received[2 * data] = encoded;
+			received[(2 * data) + 1] = this.transmitAndFlipBit(encoded, data % 7);
+		}
+
+		BatchParityCheckDecoder decoder = new BatchParityCheckDecoder(7, HammingCodeNetwork.PARITY_CHECKS, codewordsCount)
+				.maxIterations(0);
+		double[] channel = new double[7 * codewordsCount];
+		for (int c = 0; c < codewordsCount; c++) {
+			for (int v = 0; v < 7; v++) {
+				channel[(v * codewordsCount) + c] = BatchParityCheckDecoder.logLikelihoodRatio(received[c][v], 0.1);
+			}
+		}
+		boolean[] decodedBits = new boolean[7 * codewordsCount];
+		assertEquals(16, decoder.decode(channel, codewordsCount, decodedBits));
+
+		// without iterations, every codeword is decoded as the hard decision
+		// of the channel
+		for (int c = 0; c < codewordsCount; c++) {
+			assertEquals(0, decoder.getIterations(c));
+			for (int v = 0; v < 7; v++) {
+				assertEquals(received[c][v] == 1, decodedBits[(v * codewordsCount) + c]);
+			}
+		}
+	}
+
 	private String payload(int[] arr, int n) {
 		StringBuilder sb = new StringBuilder();
 		for (int i = 0; i < n; i++) {
@@ -77,4 +166,17 @@ public class HammingCodeNetworkTest {
 		return mostProbableCode;
 	}
 
+	public int[] inferenceMostProbableCodeByFactorGraph(int[] transmitted) {
+		HammingCodeFactorGraph hammingCode = new HammingCodeFactorGraph(
+				transmitted[0],
+				transmitted[1],
+				transmitted[2],
+				transmitted[3],
+				transmitted[4],
+				transmitted[5],
+				transmitted[6]);
+		hammingCode.inference();
+		return hammingCode.getMostProbableCode();
+	}
+
 }
@@ -0,0 +1,304 @@
+package com.lahodiuk.bp.example;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.lahodiuk.bp.ColoredSchedule;
+import com.lahodiuk.bp.CompiledGraph;
+import com.lahodiuk.bp.DifferencePotential;
+import com.lahodiuk.bp.Edge;
+import com.lahodiuk.bp.InferenceEngine;
+import com.lahodiuk.bp.InferenceResult;
+import com.lahodiuk.bp.LatticeMRF;
+import com.lahodiuk.bp.Potential;
+import com.lahodiuk.bp.Semiring;
+import com.lahodiuk.bp.TruncatedLinearPotential;
+import com.lahodiuk.bp.TruncatedQuadraticPotential;
+import com.lahodiuk.bp.example.ImageReconstruction.ImgNode;
+import com.lahodiuk.bp.example.ImageReconstruction.ImgNodePotential;
+import com.lahodiuk.bp.example.ImageReconstruction.ImgNodeStates;
+
+public class ImageReconstructionTest {
+
+	private static final int WIDTH = 8;
+
+	private static final int HEIGHT = 6;
+
+	@Test
+	public void testLatticeMatchesCompiledGraph() {
+		BufferedImage img = this.image();
+		ImgNode[][] nodes = this.nodes(img);
+		CompiledGraph graph = CompiledGraph.compile(this.edges(nodes, new ImgNodePotential()));
+		InferenceResult graphResult = new InferenceEngine(graph)
+				.schedule(new ColoredSchedule())
+				.tolerance(1e-10)
+				.maxIterations(1000)
+				.run();
+
+		LatticeMRF<ImgNodeStates> lattice = ImageReconstruction.build_lattice_MRF(img);
+		InferenceResult latticeResult = new InferenceEngine(lattice)
+				.tolerance(1e-10)
+				.maxIterations(1000)
+				.run();
+
+		assertEquals(true, lattice.isUsingDifferenceKernel());
+		assertEquals(true, graphResult.isConverged());
+		assertEquals(true, latticeResult.isConverged());
+
+		for (int w = 0; w < WIDTH; w++) {
+			for (int h = 0; h < HEIGHT; h++) {
+				for (ImgNodeStates state : ImgNodeStates.ALL_STATES) {
+					assertEquals(graph.getPosteriorProbabilities(nodes[w][h]).get(state),
+							lattice.getPosteriorProbabilities(w, h).get(state), 1e-6);
+				}
+				assertEquals(graph.getMostProbableState(nodes[w][h]), lattice.getMostProbableState(w, h));
+			}
+		}
+	}
+
+	@Test
+	public void testMaxProductLatticeMatchesCompiledGraph() {
+		BufferedImage img = this.image();
+		TruncatedLinearPotential<ImgNodeStates> potential = this.truncatedLinearPotential();
+
+		ImgNode[][] nodes = this.nodes(img);
+		CompiledGraph graph = CompiledGraph.compile(this.edges(nodes, potential));
+		new InferenceEngine(graph)
+				.schedule(new ColoredSchedule())
+				.semiring(Semiring.MAX_PRODUCT)
+				.maxIterations(1000)
+				.run();
+
+		LatticeMRF<ImgNodeStates> lattice = new LatticeMRF<>(WIDTH, HEIGHT, potential, (w, h) -> nodes[w][h]);
+		InferenceResult latticeResult = new InferenceEngine(lattice)
+				.semiring(Semiring.MAX_PRODUCT)
+				.maxIterations(1000)
+				.run();
+
+		assertEquals(true, lattice.isUsingDifferenceKernel());
+		assertEquals(true, latticeResult.isConverged());
+
+		int[] graphAssignment = graph.getMapAssignment();
+		int[] latticeAssignment = new int[graphAssignment.length];
+		for (int w = 0; w < WIDTH; w++) {
+			for (int h = 0; h < HEIGHT; h++) {
+				for (ImgNodeStates state : ImgNodeStates.ALL_STATES) {
+					assertEquals(graph.getPosteriorProbabilities(nodes[w][h]).get(state),
+							lattice.getPosteriorProbabilities(w, h).get(state), 1e-9);
+				}
+				latticeAssignment[graph.getNodeIndex(nodes[w][h])] = lattice.getMostProbableStateIndex(w, h);
+			}
+		}
+		assertArrayEquals(graphAssignment, latticeAssignment);
+	}
+
+	@Test
+	public void testMultiscaleInference() {
+		// two flat regions, with a wide damaged area in the middle
+		int width = 40;
+		int height = 40;
+		BufferedImage img = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+		for (int w = 0; w < width; w++) {
+			for (int h = 0; h < height; h++) {
+				int red = (w < (width / 2)) ? 60 : 200;
+				if ((w > 4) && (w < (width - 4)) && (h > 4) && (h < (height - 4))) {
+					red = 0;
+				}
+				img.setRGB(w, h, red << 16);
+			}
+		}
+		TruncatedLinearPotential<ImgNodeStates> potential = this.truncatedLinearPotential();
+
+		LatticeMRF<ImgNodeStates> lattice = new LatticeMRF<>(width, height, potential,
+				(w, h) -> new ImgNode((img.getRGB(w, h) & 0x00ff0000) >> 16));
+		InferenceResult result = new InferenceEngine(lattice)
+				.semiring(Semiring.MAX_PRODUCT)
+				.maxIterations(1000)
+				.run();
+
+		LatticeMRF<ImgNodeStates> multiscaleLattice = new LatticeMRF<>(width, height, potential,
+				(w, h) -> new ImgNode((img.getRGB(w, h) & 0x00ff0000) >> 16));
+		InferenceResult multiscaleResult = new InferenceEngine(multiscaleLattice)
+				.semiring(Semiring.MAX_PRODUCT)
+				.maxIterations(1000)
+				.multiscaleLevels(4)
+				.run();
+
+		assertEquals(true, result.isConverged());
+		assertEquals(true, multiscaleResult.isConverged());
+		assertTrue(multiscaleResult.getIterations() < (result.getIterations() / 2));
+		assertArrayEquals(lattice.getMostProbableStateIndices(), multiscaleLattice.getMostProbableStateIndices());
+	}
+
+	@Test
+	public void testMaxConvolutionMatchesBruteForce() {
+		Random random = new Random(1);
+		List<DifferencePotential<ImgNodeStates>> potentials = new ArrayList<>();
+		potentials.add(this.truncatedLinearPotential());
+		potentials.add(new TruncatedLinearPotential<ImgNodeStates>(0.7, Double.POSITIVE_INFINITY) {
+			@Override
+			public int getLabel(ImgNodeStates state) {
+				return state.getColor();
+			}
+		});
+		potentials.add(new TruncatedQuadraticPotential<ImgNodeStates>(0.3, 4.0) {
+			@Override
+			public int getLabel(ImgNodeStates state) {
+				return state.getColor();
+			}
+		});
+		potentials.add(new TruncatedQuadraticPotential<ImgNodeStates>(2.0, Double.POSITIVE_INFINITY) {
+			@Override
+			public int getLabel(ImgNodeStates state) {
+				return state.getColor();
+			}
+		});
+
+		for (DifferencePotential<ImgNodeStates> potential : potentials) {
+			// default O(S^2) implementation over the same values
+			DifferencePotential<ImgNodeStates> bruteForce = new DifferencePotential<ImgNodeStates>() {
+				@Override
+				public int getLabel(ImgNodeStates state) {
+					return state.getColor();
+				}
+
+				@Override
+				public double getValueForDifference(int difference) {
+					return potential.getValueForDifference(difference);
+				}
+
+				@Override
+				public double getLogValueForDifference(int difference) {
+					return potential.getLogValueForDifference(difference);
+				}
+			};
+			for (int iteration = 0; iteration < 200; iteration++) {
+				int count = 1 + random.nextInt(20);
+				// values, result and scratch are at non-zero offsets
+				double[] logValues = new double[count + 3];
+				for (int a = 0; a < count; a++) {
+					// some of the states are impossible (all of them - in
+					// some iterations)
+					logValues[a + 3] = ((iteration % 10) == 0) || (random.nextInt(4) == 0)
+							? Double.NEGATIVE_INFINITY
+							: -10 * random.nextDouble();
+				}
+				for (boolean sourceIsNode1 : new boolean[] { true, false }) {
+					double[] expected = new double[count];
+					bruteForce.logMaxConvolution(logValues, 3, expected, 0, count, sourceIsNode1, null, 0);
+					double[] actual = new double[count + 2];
+					double[] scratch = new double[potential.getLogMaxConvolutionScratchSize(count) + 5];
+					potential.logMaxConvolution(logValues, 3, actual, 2, count, sourceIsNode1, scratch, 5);
+					for (int b = 0; b < count; b++) {
+						assertEquals(expected[b], actual[b + 2], 1e-12);
+					}
+				}
+			}
+		}
+	}
+
+	@Test
+	public void testTruncatedPotentialsRejectInvalidParameters() {
+		double[][] invalidParameters = { { -0.1, 1.0 }, { Double.NaN, 1.0 }, { 0.1, -1.0 }, { 0.1, Double.NaN } };
+		for (double[] parameters : invalidParameters) {
+			try {
+				new TruncatedLinearPotential<ImgNodeStates>(parameters[0], parameters[1]) {
+					@Override
+					public int getLabel(ImgNodeStates state) {
+						return state.getColor();
+					}
+				};
+				fail();
+			} catch (RuntimeException e) {
+				// expected
+			}
+			try {
+				new TruncatedQuadraticPotential<ImgNodeStates>(parameters[0], parameters[1]) {
+					@Override
+					public int getLabel(ImgNodeStates state) {
+						return state.getColor();
+					}
+				};
+				fail();
+			} catch (RuntimeException e) {
+				// expected
+			}
+		}
+	}
+
+	@Test
+	public void testLatticeTooLargeForIntOffsets() {
+		// 4096 * 2048 pixels with 256 levels of gray have 2^31 values per plane
+		try {
+			new LatticeMRF<>(4096, 2048, new ImgNodePotential(), (x, y) -> new ImgNode(0));
+			fail();
+		} catch (RuntimeException e) {
+			assertTrue(e.getMessage().contains(String.valueOf(4096L * 2048 * 256)));
+		}
+	}
+
+	private TruncatedLinearPotential<ImgNodeStates> truncatedLinearPotential() {
+		return new TruncatedLinearPotential<ImgNodeStates>(0.05, 2.0) {
+			@Override
+			public int getLabel(ImgNodeStates state) {
+				return state.getColor();
+			}
+		};
+	}
+
+	/**
+	 * Same model as {@link ImageReconstruction#build_lattice_MRF(BufferedImage)},
+	 * but with materialized nodes and edges
+	 */
+	private ImgNode[][] nodes(BufferedImage img) {
+		ImgNode[][] nodes = new ImgNode[img.getWidth()][img.getHeight()];
+		for (int w = 0; w < img.getWidth(); w++) {
+			for (int h = 0; h < img.getHeight(); h++) {
+				nodes[w][h] = new ImgNode((img.getRGB(w, h) & 0x00ff0000) >> 16);
+			}
+		}
+		return nodes;
+	}
+
+	private List<Edge<ImgNodeStates, ImgNodeStates>> edges(ImgNode[][] nodes, Potential<ImgNodeStates, ImgNodeStates> potential) {
+		List<Edge<ImgNodeStates, ImgNodeStates>> edges = new ArrayList<>();
+		for (int w = 0; w < nodes.length; w++) {
+			for (int h = 0; h < nodes[0].length; h++) {
+				if ((w + 1) < nodes.length) {
+					edges.add(Edge.connect(nodes[w][h], nodes[w + 1][h], potential));
+				}
+				if ((h + 1) < nodes[0].length) {
+					edges.add(Edge.connect(nodes[w][h], nodes[w][h + 1], potential));
+				}
+			}
+		}
+		return edges;
+	}
+
+	private BufferedImage image() {
+		BufferedImage img = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_RGB);
+		for (int w = 0; w < WIDTH; w++) {
+			for (int h = 0; h < HEIGHT; h++) {
+				// two flat regions with noise, and a few pixels without prior
+				int red = (w < (WIDTH / 2)) ? 60 : 200;
+				if ((((w * 7) + (h * 3)) % 11) == 0) {
+					red = 120;
+				}
+				if ((((w * 5) + h) % 13) == 0) {
+					red = 0;
+				}
+				img.setRGB(w, h, red << 16);
+			}
+		}
+		return img;
+	}
+}
@@ -0,0 +1,30 @@
+package com.lahodiuk.bp.example;
+
+import static org.junit.Assert.assertTrue;
+
+import java.awt.image.BufferedImage;
+
+import org.junit.Test;
+
+public class PrecisionComparisonTest {
+
+	private static final double MAX_DIFFERENCE = 1e-5;
+
+	@Test
+	public void test() throws Exception {
+		assertTrue(PrecisionComparison.compareProducts() < MAX_DIFFERENCE);
+		assertTrue(PrecisionComparison.compareColoring() < MAX_DIFFERENCE);
+		assertTrue(PrecisionComparison.compareChemicalReactions() < MAX_DIFFERENCE);
+	}
+
+	@Test
+	public void testLattice() {
+		BufferedImage img = new BufferedImage(8, 6, BufferedImage.TYPE_INT_RGB);
+		for (int w = 0; w < img.getWidth(); w++) {
+			for (int h = 0; h < img.getHeight(); h++) {
+				img.setRGB(w, h, ((w < 4) ? 60 : 200) << 16);
+			}
+		}
+		assertTrue(PrecisionComparison.compareImageReconstruction(img) < MAX_DIFFERENCE);
+	}
+}
@@ -1,16 +1,37 @@
 package com.lahodiuk.bp.example;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 
 import org.junit.Before;
 import org.junit.Test;
 
+import com.lahodiuk.bp.BatchedGraph;
+import com.lahodiuk.bp.BipartiteSchedule;
+import com.lahodiuk.bp.CompiledGraph;
 import com.lahodiuk.bp.Edge;
+import com.lahodiuk.bp.FloodingSchedule;
+import com.lahodiuk.bp.GraphCompiler;
+import com.lahodiuk.bp.GraphSnapshot;
+import com.lahodiuk.bp.InferenceEngine;
+import com.lahodiuk.bp.InferenceResult;
+import com.lahodiuk.bp.Potential;
+import com.lahodiuk.bp.ResidualSchedule;
+import com.lahodiuk.bp.Semiring;
+import com.lahodiuk.bp.StopReason;
+import com.lahodiuk.bp.TreeSchedule;
+import com.lahodiuk.bp.example.Products.OnlineScoring;
 import com.lahodiuk.bp.example.Products.Product;
 import com.lahodiuk.bp.example.Products.ProductStates;
+import com.lahodiuk.bp.example.Products.UserProductNegativeVotePotential;
+import com.lahodiuk.bp.example.Products.UserProductPositiveVotePotential;
 import com.lahodiuk.bp.example.Products.User;
 import com.lahodiuk.bp.example.Products.UserStates;
 
@@ -45,4 +66,456 @@ public class ProductsTest {
 		assertEquals(ProductStates.BAD, this.productIdToProduct.get(3).getMostProbableState());
 		assertEquals(ProductStates.BAD, this.productIdToProduct.get(4).getMostProbableState());
 	}
-}
\ No newline at end of file
+
+	@Test
+	public void testCompiledGraph() {
+		List<Edge<UserStates, ProductStates>> referenceEdges = Products.initializeVotes(
+				Products.initializeUserIdsToUsers(), Products.initializeProductIdsToProducts());
+		for (int i = 0; i < 100; i++) {
+			for (Edge<UserStates, ProductStates> edge : referenceEdges) {
+				edge.updateMessagesNode1ToNode2();
+			}
+			for (Edge<UserStates, ProductStates> edge : referenceEdges) {
+				edge.refreshMessagesNode1ToNode2();
+			}
+			for (Edge<UserStates, ProductStates> edge : referenceEdges) {
+				edge.updateMessagesNode2ToNode1();
+			}
+			for (Edge<UserStates, ProductStates> edge : referenceEdges) {
+				edge.refreshMessagesNode2ToNode1();
+			}
+		}
+
+		CompiledGraph graph = CompiledGraph.compile(this.edges);
+		for (int i = 0; i < 100; i++) {
+			graph.updateMessagesNode1ToNode2();
+			graph.refreshMessagesNode1ToNode2();
+			graph.updateMessagesNode2ToNode1();
+			graph.refreshMessagesNode2ToNode1();
+		}
+		graph.writeMessagesToEdges();
+
+		for (int e = 0; e < this.edges.size(); e++) {
+			User user = (User) this.edges.get(e).getNode1();
+			User referenceUser = (User) referenceEdges.get(e).getNode1();
+			for (UserStates state : UserStates.values()) {
+				assertEquals(referenceUser.getPosteriorProbabilities().get(state), user.getPosteriorProbabilities().get(state), 1e-9);
+				assertEquals(referenceUser.getPosteriorProbabilities().get(state), graph.getPosteriorProbabilities(user).get(state), 1e-9);
+			}
+		}
+		assertEquals(UserStates.FRAUD, graph.getMostProbableState(this.userIdToUser.get(5)));
+		assertEquals(ProductStates.BAD, graph.getMostProbableState(this.productIdToProduct.get(4)));
+	}
+
+	@Test
+	public void testSharedPotentialTables() {
+		assertEquals(2, CompiledGraph.compile(this.edges).getPotentialTablesCount());
+
+		List<Edge<UserStates, ProductStates>> edgesWithPotentialPerEdge = new ArrayList<>();
+		for (Edge<UserStates, ProductStates> edge : this.edges) {
+			Potential<UserStates, ProductStates> potential =
+					(edge.getPotential() instanceof UserProductPositiveVotePotential)
+							? new UserProductPositiveVotePotential()
+							: new UserProductNegativeVotePotential();
+			edgesWithPotentialPerEdge.add(Edge.connect(new User(), new Product(), potential));
+		}
+
+		assertEquals(this.edges.size(), CompiledGraph.compile(edgesWithPotentialPerEdge).getPotentialTablesCount());
+		assertEquals(2, new GraphCompiler().shareEqualPotentials(true).compile(edgesWithPotentialPerEdge).getPotentialTablesCount());
+	}
+
+	@Test
+	public void testInferenceEngineStopsWhenConverged() {
+		InferenceResult result = new InferenceEngine(CompiledGraph.compile(this.edges))
+				.schedule(new BipartiteSchedule())
+				.tolerance(1e-3)
+				.maxIterations(100)
+				.run();
+
+		assertEquals(StopReason.CONVERGED, result.getStopReason());
+		assertTrue(result.getIterations() < 100);
+		assertTrue(result.getMaxResidual() < 1e-3);
+		assertTrue(result.getMeanResidual() <= result.getMaxResidual());
+	}
+
+	@Test
+	public void testTreeSchedule() {
+		List<Edge<UserStates, ProductStates>> forest = this.initializeForestOfVotes(
+				Products.initializeUserIdsToUsers(), Products.initializeProductIdsToProducts());
+		CompiledGraph forestGraph = CompiledGraph.compile(forest);
+		TreeSchedule forestSchedule = new TreeSchedule();
+		InferenceEngine forestEngine = new InferenceEngine(forestGraph)
+				.schedule(forestSchedule)
+				.tolerance(1e-12);
+		InferenceResult forestResult = forestEngine.run();
+
+		assertEquals(2, forestSchedule.getTreeComponentsCount());
+		assertEquals(0, forestSchedule.getLoopyComponentsCount());
+		// second sweep only confirms, that messages didn't change
+		assertEquals(StopReason.CONVERGED, forestResult.getStopReason());
+		assertEquals(2, forestResult.getIterations());
+
+		// change of the semiring recalculates messages of the trees
+		forestResult = forestEngine.semiring(Semiring.MAX_PRODUCT).run();
+		assertEquals(2, forestResult.getIterations());
+		CompiledGraph maxProductForestGraph = CompiledGraph.compile(forest);
+		new InferenceEngine(maxProductForestGraph)
+				.semiring(Semiring.MAX_PRODUCT)
+				.tolerance(1e-12)
+				.run();
+		for (int n = 0; n < forestGraph.getNodesCount(); n++) {
+			assertArrayEquals(maxProductForestGraph.getPosteriorProbabilities(n), forestGraph.getPosteriorProbabilities(n), 1e-12);
+		}
+
+		// loopy component of votes and the forest
+		Map<Integer, User> forestUsers = Products.initializeUserIdsToUsers();
+		Map<Integer, Product> forestProducts = Products.initializeProductIdsToProducts();
+		List<Edge<UserStates, ProductStates>> edges = new ArrayList<>(this.edges);
+		edges.addAll(this.initializeForestOfVotes(forestUsers, forestProducts));
+		CompiledGraph graph = CompiledGraph.compile(edges);
+		TreeSchedule schedule = new TreeSchedule();
+		new InferenceEngine(graph)
+				.schedule(schedule)
+				.tolerance(1e-12)
+				.maxIterations(1000)
+				.run();
+
+		assertEquals(2, schedule.getTreeComponentsCount());
+		assertEquals(1, schedule.getLoopyComponentsCount());
+
+		Map<Integer, User> referenceUsers = Products.initializeUserIdsToUsers();
+		Map<Integer, Product> referenceProducts = Products.initializeProductIdsToProducts();
+		Map<Integer, User> referenceForestUsers = Products.initializeUserIdsToUsers();
+		Map<Integer, Product> referenceForestProducts = Products.initializeProductIdsToProducts();
+		List<Edge<UserStates, ProductStates>> referenceEdges = Products.initializeVotes(referenceUsers, referenceProducts);
+		referenceEdges.addAll(this.initializeForestOfVotes(referenceForestUsers, referenceForestProducts));
+		CompiledGraph referenceGraph = CompiledGraph.compile(referenceEdges);
+		new InferenceEngine(referenceGraph)
+				.schedule(new FloodingSchedule())
+				.tolerance(1e-12)
+				.maxIterations(1000)
+				.run();
+
+		for (int i = 1; i <= 6; i++) {
+			for (UserStates state : UserStates.values()) {
+				assertEquals(referenceGraph.getPosteriorProbabilities(referenceUsers.get(i)).get(state),
+						graph.getPosteriorProbabilities(this.userIdToUser.get(i)).get(state), 1e-9);
+				if (forestUsers.get(i).getEdges().size() > 0) {
+					assertEquals(referenceGraph.getPosteriorProbabilities(referenceForestUsers.get(i)).get(state),
+							graph.getPosteriorProbabilities(forestUsers.get(i)).get(state), 1e-9);
+				}
+			}
+		}
+		for (int i = 1; i <= 4; i++) {
+			for (ProductStates state : ProductStates.values()) {
+				assertEquals(referenceGraph.getPosteriorProbabilities(referenceProducts.get(i)).get(state),
+						graph.getPosteriorProbabilities(this.productIdToProduct.get(i)).get(state), 1e-9);
+				assertEquals(referenceGraph.getPosteriorProbabilities(referenceForestProducts.get(i)).get(state),
+						graph.getPosteriorProbabilities(forestProducts.get(i)).get(state), 1e-9);
+			}
+		}
+	}
+
+	@Test
+	public void testWhatIfScenarios() {
+		BatchedGraph scenarios = Products.inferenceOfWhatIfScenarios(this.edges, this.userIdToUser);
+
+		for (int i = 1; i <= 6; i++) {
+			// separate run, in which user i is known to be a fraud
+			Map<Integer, User> referenceUsers = Products.initializeUserIdsToUsers();
+			referenceUsers.put(i, new User() {
+				@Override
+				public double getPriorProbablility(UserStates state) {
+					return (state == UserStates.FRAUD) ? 0.99 : 0.01;
+				}
+			});
+			Map<Integer, Product> referenceProducts = Products.initializeProductIdsToProducts();
+			CompiledGraph referenceGraph = CompiledGraph.compile(Products.initializeVotes(referenceUsers, referenceProducts));
+			new InferenceEngine(referenceGraph)
+					.schedule(new BipartiteSchedule())
+					.tolerance(1e-9)
+					.maxIterations(1000)
+					.run();
+
+			for (int j = 1; j <= 6; j++) {
+				assertEquals(referenceGraph.getPosteriorProbabilities(referenceUsers.get(j)).get(UserStates.FRAUD),
+						scenarios.getPosteriorProbabilities(i - 1, this.userIdToUser.get(j)).get(UserStates.FRAUD), 1e-6);
+			}
+			for (int j = 1; j <= 4; j++) {
+				assertEquals(referenceGraph.getPosteriorProbabilities(referenceProducts.get(j)).get(ProductStates.GOOD),
+						scenarios.getPosteriorProbabilities(i - 1, this.productIdToProduct.get(j)).get(ProductStates.GOOD), 1e-6);
+				assertEquals(referenceGraph.getMostProbableState(referenceProducts.get(j)),
+						scenarios.getMostProbableState(i - 1, this.productIdToProduct.get(j)));
+			}
+		}
+	}
+
+	@Test
+	public void testIncrementalInference() {
+		OnlineScoring scoring = new OnlineScoring(this.edges);
+		long initialUpdatesCount = scoring.getMessageUpdatesCount();
+		InferenceResult result = scoring.setFraudProbability(this.userIdToUser.get(4), 0.99);
+		long incrementalUpdatesCount = scoring.getMessageUpdatesCount() - initialUpdatesCount;
+
+		Map<Integer, User> referenceUsers = Products.initializeUserIdsToUsers();
+		referenceUsers.put(4, new User() {
+			@Override
+			public double getPriorProbablility(UserStates state) {
+				return (state == UserStates.FRAUD) ? 0.99 : 0.01;
+			}
+		});
+		Map<Integer, Product> referenceProducts = Products.initializeProductIdsToProducts();
+		CompiledGraph referenceGraph = CompiledGraph.compile(Products.initializeVotes(referenceUsers, referenceProducts));
+		new InferenceEngine(referenceGraph)
+				.schedule(new ResidualSchedule())
+				.maxIterations(100)
+				.run();
+
+		assertEquals(true, result.isConverged());
+		assertTrue(incrementalUpdatesCount < initialUpdatesCount);
+		for (int i = 1; i <= 6; i++) {
+			assertEquals(referenceGraph.getPosteriorProbabilities(referenceUsers.get(i)).get(UserStates.FRAUD),
+					scoring.getGraph().getPosteriorProbabilities(this.userIdToUser.get(i)).get(UserStates.FRAUD), 1e-4);
+		}
+		for (int i = 1; i <= 4; i++) {
+			assertEquals(referenceGraph.getPosteriorProbabilities(referenceProducts.get(i)).get(ProductStates.GOOD),
+					scoring.getGraph().getPosteriorProbabilities(this.productIdToProduct.get(i)).get(ProductStates.GOOD), 1e-4);
+		}
+	}
+
+	@Test
+	public void testAddAndRemoveVotes() {
+		OnlineScoring scoring = new OnlineScoring(this.edges);
+		long initialUpdatesCount = scoring.getMessageUpdatesCount();
+
+		// new vote of the existing user, and the vote of the new user
+		Edge<UserStates, ProductStates> vote = scoring.addVote(this.userIdToUser.get(4), this.productIdToProduct.get(4), false);
+		long incrementalUpdatesCount = scoring.getMessageUpdatesCount() - initialUpdatesCount;
+		User newUser = new User();
+		scoring.addVote(newUser, this.productIdToProduct.get(3), true);
+
+		Map<Integer, User> referenceUsers = Products.initializeUserIdsToUsers();
+		Map<Integer, Product> referenceProducts = Products.initializeProductIdsToProducts();
+		List<Edge<UserStates, ProductStates>> referenceEdges = Products.initializeVotes(referenceUsers, referenceProducts);
+		referenceEdges.add(Edge.connect(referenceUsers.get(4), referenceProducts.get(4), new UserProductNegativeVotePotential()));
+		User referenceNewUser = new User();
+		referenceEdges.add(Edge.connect(referenceNewUser, referenceProducts.get(3), new UserProductPositiveVotePotential()));
+		CompiledGraph referenceGraph = CompiledGraph.compile(referenceEdges);
+		new InferenceEngine(referenceGraph)
+				.schedule(new ResidualSchedule())
+				.maxIterations(100)
+				.run();
+
+		assertTrue(incrementalUpdatesCount < initialUpdatesCount);
+		for (int i = 1; i <= 4; i++) {
+			assertEquals(referenceGraph.getPosteriorProbabilities(referenceProducts.get(i)).get(ProductStates.GOOD),
+					scoring.getGraph().getPosteriorProbabilities(this.productIdToProduct.get(i)).get(ProductStates.GOOD), 1e-4);
+		}
+		assertEquals(referenceGraph.getPosteriorProbabilities(referenceNewUser).get(UserStates.FRAUD),
+				scoring.getGraph().getPosteriorProbabilities(newUser).get(UserStates.FRAUD), 1e-4);
+
+		// after removal of the vote of the user 4 and of the new user - the
+		// same posteriors, as without these votes
+		scoring.removeVote(vote);
+		scoring.getGraph().removeNode(newUser);
+		scoring.getGraph().drainChangedNodes();
+		new InferenceEngine(scoring.getGraph())
+				.schedule(new FloodingSchedule())
+				.tolerance(1e-9)
+				.maxIterations(1000)
+				.run();
+		CompiledGraph graph = CompiledGraph.compile(this.edges);
+		new InferenceEngine(graph)
+				.schedule(new FloodingSchedule())
+				.tolerance(1e-9)
+				.maxIterations(1000)
+				.run();
+
+		assertEquals(false, this.userIdToUser.get(4).getEdges().contains(vote));
+		for (int i = 1; i <= 4; i++) {
+			assertEquals(graph.getPosteriorProbabilities(this.productIdToProduct.get(i)).get(ProductStates.GOOD),
+					scoring.getGraph().getPosteriorProbabilities(this.productIdToProduct.get(i)).get(ProductStates.GOOD), 1e-6);
+		}
+	}
+
+	@Test
+	public void testAddEdgesWithPotentialPerEdge() {
+		List<Edge<UserStates, ProductStates>> edgesWithPotentialPerEdge = new ArrayList<>();
+		for (Edge<UserStates, ProductStates> edge : this.edges) {
+			Potential<UserStates, ProductStates> potential =
+					(edge.getPotential() instanceof UserProductPositiveVotePotential)
+							? new UserProductPositiveVotePotential()
+							: new UserProductNegativeVotePotential();
+			edgesWithPotentialPerEdge.add(Edge.connect(edge.getNode1(), edge.getNode2(), potential));
+		}
+
+		// every added edge brings a new log-table
+		CompiledGraph graph = CompiledGraph.compile(edgesWithPotentialPerEdge.subList(0, 1));
+		graph.addEdges(edgesWithPotentialPerEdge.subList(1, edgesWithPotentialPerEdge.size()));
+		assertEquals(this.edges.size(), graph.getPotentialTablesCount());
+		new InferenceEngine(graph)
+				.schedule(new FloodingSchedule())
+				.tolerance(1e-9)
+				.maxIterations(1000)
+				.run();
+
+		CompiledGraph referenceGraph = CompiledGraph.compile(this.edges);
+		new InferenceEngine(referenceGraph)
+				.schedule(new FloodingSchedule())
+				.tolerance(1e-9)
+				.maxIterations(1000)
+				.run();
+		for (int i = 1; i <= 4; i++) {
+			assertEquals(referenceGraph.getPosteriorProbabilities(this.productIdToProduct.get(i)).get(ProductStates.GOOD),
+					graph.getPosteriorProbabilities(this.productIdToProduct.get(i)).get(ProductStates.GOOD), 1e-9);
+		}
+	}
+
+	@Test
+	public void testRemovedEdgesAreReclaimed() {
+		OnlineScoring scoring = new OnlineScoring(this.edges);
+		for (int i = 0; i < 100; i++) {
+			User user = new User();
+			Edge<UserStates, ProductStates> vote = scoring.addVote(user, this.productIdToProduct.get(1 + (i % 4)), (i % 2) == 0);
+			scoring.removeVote(vote);
+			assertTrue(scoring.getGraph().getEdgesCount() <= ((2 * this.edges.size()) + 1));
+		}
+		assertTrue(scoring.getGraph().getEdgeNumberingVersion() > 0);
+
+		new InferenceEngine(scoring.getGraph())
+				.schedule(new FloodingSchedule())
+				.tolerance(1e-9)
+				.maxIterations(1000)
+				.run();
+		CompiledGraph graph = CompiledGraph.compile(this.edges);
+		new InferenceEngine(graph)
+				.schedule(new FloodingSchedule())
+				.tolerance(1e-9)
+				.maxIterations(1000)
+				.run();
+		for (int i = 1; i <= 4; i++) {
+			assertEquals(graph.getPosteriorProbabilities(this.productIdToProduct.get(i)).get(ProductStates.GOOD),
+					scoring.getGraph().getPosteriorProbabilities(this.productIdToProduct.get(i)).get(ProductStates.GOOD), 1e-6);
+		}
+	}
+
+	@Test
+	public void testVoteStream() throws Exception {
+		VoteStream stream = new VoteStream().chunkSize(4);
+		stream.ingest(Products.class.getResourceAsStream("/Votes.txt"));
+
+		assertEquals(this.edges.size(), stream.getVotesCount());
+		assertEquals(4, stream.getChunksCount());
+		assertEquals(10, stream.getScoring().getGraph().getNodesCount());
+
+		CompiledGraph graph = CompiledGraph.compile(this.edges);
+		new InferenceEngine(graph)
+				.schedule(new ResidualSchedule())
+				.maxIterations(100)
+				.run();
+		for (int i = 1; i <= 6; i++) {
+			assertEquals(graph.getPosteriorProbabilities(this.userIdToUser.get(i)).get(UserStates.FRAUD),
+					stream.getScoring().getGraph().getPosteriorProbabilities(stream.getUser(i)).get(UserStates.FRAUD), 1e-4);
+		}
+		for (int i = 1; i <= 4; i++) {
+			assertEquals(graph.getPosteriorProbabilities(this.productIdToProduct.get(i)).get(ProductStates.GOOD),
+					stream.getScoring().getGraph().getPosteriorProbabilities(stream.getProduct(i)).get(ProductStates.GOOD), 1e-4);
+		}
+	}
+
+	@Test
+	public void testSnapshot() throws Exception {
+		CompiledGraph graph = CompiledGraph.compile(this.edges);
+		new InferenceEngine(graph)
+				.schedule(new ResidualSchedule())
+				.maxIterations(100)
+				.run();
+
+		Path path = Files.createTempFile("products", ".bp");
+		try {
+			GraphSnapshot.write(graph, path);
+			CompiledGraph loaded = GraphSnapshot.load(path);
+
+			assertEquals(graph.getNodesCount(), loaded.getNodesCount());
+			assertEquals(graph.getMessagesCount(), loaded.getMessagesCount());
+			assertEquals(graph.getPotentialTablesCount(), loaded.getPotentialTablesCount());
+			assertBeliefsEqual(graph, loaded, 0);
+
+			// inference continues on the mapped messages
+			int user4 = graph.getNodeIndex(this.userIdToUser.get(4));
+			graph.setLogPriorProbability(user4, graph.getStateIndex(user4, UserStates.FRAUD), Math.log(0.99));
+			graph.setLogPriorProbability(user4, graph.getStateIndex(user4, UserStates.HONEST), Math.log(0.01));
+			loaded.setLogPriorProbability(user4, loaded.getStateIndex(user4, UserStates.FRAUD.toString()), Math.log(0.99));
+			loaded.setLogPriorProbability(user4, loaded.getStateIndex(user4, UserStates.HONEST.toString()), Math.log(0.01));
+			new InferenceEngine(graph)
+					.schedule(new ResidualSchedule())
+					.maxIterations(100)
+					.run();
+			new InferenceEngine(loaded)
+					.schedule(new ResidualSchedule())
+					.maxIterations(100)
+					.run();
+			assertBeliefsEqual(graph, loaded, 0);
+
+			// committed messages were written back into the snapshot (priors
+			// weren't)
+			CompiledGraph reloaded = GraphSnapshot.load(path);
+			reloaded.setLogPriorProbability(user4, reloaded.getStateIndex(user4, UserStates.FRAUD.toString()), Math.log(0.99));
+			reloaded.setLogPriorProbability(user4, reloaded.getStateIndex(user4, UserStates.HONEST.toString()), Math.log(0.01));
+			assertBeliefsEqual(graph, reloaded, 0);
+		} finally {
+			Files.delete(path);
+		}
+	}
+
+	@Test
+	public void testOffHeapStorage() {
+		CompiledGraph graph = CompiledGraph.compile(this.edges);
+		new InferenceEngine(graph)
+				.schedule(new BipartiteSchedule())
+				.maxIterations(100)
+				.run();
+
+		CompiledGraph offHeapGraph = new GraphCompiler().offHeap(true).compile(this.edges);
+		new InferenceEngine(offHeapGraph)
+				.schedule(new BipartiteSchedule())
+				.maxIterations(100)
+				.run();
+
+		// same kernels over the different storage
+		assertBeliefsEqual(graph, offHeapGraph, 0);
+	}
+
+	private static void assertBeliefsEqual(CompiledGraph expected, CompiledGraph actual, double delta) {
+		double[] expectedLogBelief = new double[expected.getMaxStatesCount()];
+		double[] actualLogBelief = new double[actual.getMaxStatesCount()];
+		for (int n = 0; n < expected.getNodesCount(); n++) {
+			expected.computeLogBelief(n, expectedLogBelief);
+			actual.computeLogBelief(n, actualLogBelief);
+			for (int s = 0; s < expected.getStatesCount(n); s++) {
+				assertEquals(expected.getState(n, s).toString(), actual.getState(n, s).toString());
+				assertEquals(expectedLogBelief[s], actualLogBelief[s], delta);
+			}
+		}
+	}
+
+	/**
+	 * Two trees: <br/>
+	 * user 1 - product 1 - user 2 - product 2 - user 4 <br/>
+	 * user 5 - product 3 - user 6 - product 4
+	 */
+	private List<Edge<UserStates, ProductStates>> initializeForestOfVotes(Map<Integer, User> userIdToUser, Map<Integer, Product> productIdToProduct) {
+		Potential<UserStates, ProductStates> positiveVotePotential = new UserProductPositiveVotePotential();
+		Potential<UserStates, ProductStates> negativeVotePotential = new UserProductNegativeVotePotential();
+
+		List<Edge<UserStates, ProductStates>> edges = new ArrayList<>();
+		edges.add(Edge.connect(userIdToUser.get(1), productIdToProduct.get(1), positiveVotePotential));
+		edges.add(Edge.connect(userIdToUser.get(2), productIdToProduct.get(1), positiveVotePotential));
+		edges.add(Edge.connect(userIdToUser.get(2), productIdToProduct.get(2), positiveVotePotential));
+		edges.add(Edge.connect(userIdToUser.get(4), productIdToProduct.get(2), negativeVotePotential));
+		edges.add(Edge.connect(userIdToUser.get(5), productIdToProduct.get(3), negativeVotePotential));
+		edges.add(Edge.connect(userIdToUser.get(6), productIdToProduct.get(3), positiveVotePotential));
+		edges.add(Edge.connect(userIdToUser.get(6), productIdToProduct.get(4), positiveVotePotential));
+		return edges;
+	}
+}
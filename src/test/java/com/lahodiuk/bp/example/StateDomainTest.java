@@ -0,0 +1,173 @@
+package com.lahodiuk.bp.example;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Test;
+
+import com.lahodiuk.bp.CompiledGraph;
+import com.lahodiuk.bp.Edge;
+import com.lahodiuk.bp.Node;
+import com.lahodiuk.bp.Potential;
+import com.lahodiuk.bp.StateDomain;
+import com.lahodiuk.bp.example.Coloring.Color;
+
+public class StateDomainTest {
+
+	@Test
+	public void testIndicesAndOrder() {
+		StateDomain<String> domain = StateDomain.of("ACID", "SALT", "BASE");
+
+		assertEquals(3, domain.size());
+		assertEquals("ACID", domain.get(0));
+		assertEquals("SALT", domain.get(1));
+		assertEquals("BASE", domain.get(2));
+		assertEquals(1, domain.indexOf("SALT"));
+		assertEquals(-1, domain.indexOf("WATER"));
+
+		// iteration, as well as the views, follows the order of the indices
+		assertEquals(Arrays.asList("ACID", "SALT", "BASE"), toList(domain));
+		assertEquals(Arrays.asList("ACID", "SALT", "BASE"), new ArrayList<>(domain.asSet()));
+		assertEquals(Arrays.asList("ACID", "SALT", "BASE"), domain.asList());
+		assertTrue(domain.asSet().contains("BASE"));
+		assertFalse(domain.asSet().contains("WATER"));
+
+		// collection is indexed in the order of its iteration
+		StateDomain<String> fromSet = StateDomain.of(new LinkedHashSet<>(Arrays.asList("SALT", "ACID")));
+		assertEquals(0, fromSet.indexOf("SALT"));
+		assertEquals(1, fromSet.indexOf("ACID"));
+
+		// enum is indexed by the ordinals
+		StateDomain<Color> colors = StateDomain.of(Color.class);
+		for (Color color : Color.values()) {
+			assertEquals(color.ordinal(), colors.indexOf(color));
+			assertSame(color, colors.get(color.ordinal()));
+		}
+	}
+
+	@Test
+	public void testDomainIsNotAffectedByArray() {
+		String[] states = { "ACID", "SALT" };
+		StateDomain<String> domain = StateDomain.of(states);
+		states[0] = "BASE";
+
+		assertEquals("ACID", domain.get(0));
+		assertEquals(0, domain.indexOf("ACID"));
+	}
+
+	@Test
+	public void testEqualsAndHashCode() {
+		StateDomain<String> domain = StateDomain.of("ACID", "SALT");
+		StateDomain<String> sameDomain = StateDomain.of(Arrays.asList("ACID", "SALT"));
+		StateDomain<String> reorderedDomain = StateDomain.of("SALT", "ACID");
+		StateDomain<String> otherDomain = StateDomain.of("ACID", "BASE");
+
+		assertEquals(domain, sameDomain);
+		assertEquals(domain.hashCode(), sameDomain.hashCode());
+		// domains with the same states in the different order are different
+		assertFalse(domain.equals(reorderedDomain));
+		assertFalse(domain.equals(otherDomain));
+		assertFalse(domain.equals(domain.asSet()));
+	}
+
+	@Test
+	public void testDuplicatesAreRejected() {
+		try {
+			StateDomain.of("ACID", "SALT", "ACID");
+			fail();
+		} catch (RuntimeException e) {
+			assertTrue(e.getMessage().startsWith("States of the domain must be distinct"));
+		}
+		try {
+			StateDomain.of(Arrays.asList("ACID", "ACID"));
+			fail();
+		} catch (RuntimeException e) {
+			assertTrue(e.getMessage().startsWith("States of the domain must be distinct"));
+		}
+	}
+
+	@Test
+	public void testDefaultDomainOfNode() {
+		StringNode node = new StringNode("ACID", "SALT");
+		StateDomain<String> domain = node.getDomain();
+
+		assertEquals(StateDomain.of("ACID", "SALT"), domain);
+		// cached while the same set is returned
+		assertSame(domain, node.getDomain());
+
+		// rebuilt, when the states are replaced
+		node.states = new LinkedHashSet<>(Arrays.asList("ACID", "BASE"));
+		StateDomain<String> newDomain = node.getDomain();
+		assertNotSame(domain, newDomain);
+		assertEquals(StateDomain.of("ACID", "BASE"), newDomain);
+		assertSame(newDomain, node.getDomain());
+	}
+
+	@Test
+	public void testEqualDomainsShareLogTables() {
+		Potential<String, String> equality = new Potential<String, String>() {
+			@Override
+			public double getValue(String node1State, String node2State) {
+				return node1State.equals(node2State) ? 0.9 : 0.1;
+			}
+		};
+
+		// every node has its own (but equal) domain
+		StringNode[] nodes = { new StringNode("ACID", "SALT"), new StringNode("ACID", "SALT"), new StringNode("ACID", "SALT") };
+		List<Edge<String, String>> edges = new ArrayList<>();
+		edges.add(Edge.connect(nodes[0], nodes[1], equality));
+		edges.add(Edge.connect(nodes[1], nodes[2], equality));
+		CompiledGraph graph = CompiledGraph.compile(edges);
+
+		assertEquals(1, graph.getPotentialTablesCount());
+		for (int n = 0; n < graph.getNodesCount(); n++) {
+			assertSame(graph.getDomain(0), graph.getDomain(n));
+		}
+
+		// domain with the different order of the states needs its own table
+		StringNode reordered = new StringNode("SALT", "ACID");
+		edges.add(Edge.connect(nodes[2], reordered, equality));
+		CompiledGraph reorderedGraph = CompiledGraph.compile(edges);
+
+		assertEquals(2, reorderedGraph.getPotentialTablesCount());
+		assertEquals(StateDomain.of("SALT", "ACID"), reorderedGraph.getDomain(reorderedGraph.getNodeIndex(reordered)));
+		assertEquals(0, reorderedGraph.getStateIndex(reorderedGraph.getNodeIndex(reordered), "SALT"));
+	}
+
+	private static <STATES> List<STATES> toList(Iterable<STATES> iterable) {
+		List<STATES> list = new ArrayList<>();
+		for (STATES state : iterable) {
+			list.add(state);
+		}
+		return list;
+	}
+
+	private static class StringNode extends Node<String> {
+
+		private Set<String> states;
+
+		public StringNode(String... states) {
+			this.states = new LinkedHashSet<>(Arrays.asList(states));
+		}
+
+		@Override
+		public Set<String> getStates() {
+			return this.states;
+		}
+
+		@Override
+		public double getPriorProbablility(String state) {
+			return 1.0 / this.states.size();
+		}
+	}
+}
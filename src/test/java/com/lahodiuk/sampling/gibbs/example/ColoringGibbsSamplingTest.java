@@ -10,9 +10,11 @@ import org.junit.Before;
 import org.junit.Test;
 
 import com.lahodiuk.bp.Edge;
+import com.lahodiuk.bp.IntGraph;
 import com.lahodiuk.bp.example.Coloring;
 import com.lahodiuk.bp.example.Coloring.Color;
 import com.lahodiuk.bp.example.Coloring.GraphColorNode;
+import com.lahodiuk.sampling.gibbs.GibbsSamplingIntMRF;
 import com.lahodiuk.sampling.gibbs.GibbsSamplingMRF;
 
 /**
@@ -106,4 +108,17 @@ public class ColoringGibbsSamplingTest {
 		assertTrue(gibbsSampling.getMostProbableState(this.nodeIdToNode.get(10)) != gibbsSampling.getMostProbableState(this.nodeIdToNode.get(6)));
 		assertTrue(gibbsSampling.getMostProbableState(this.nodeIdToNode.get(10)) != gibbsSampling.getMostProbableState(this.nodeIdToNode.get(9)));
 	}
-}
\ No newline at end of file
+
+	@Test
+	public void testIntGraph() {
+		IntGraph graph = Coloring.initializeIntPetersenGraph();
+
+		GibbsSamplingIntMRF gibbsSampling = new GibbsSamplingIntMRF(graph);
+
+		gibbsSampling.infer(200, 1001, new Random(1));
+
+		for (int e = 0; e < graph.getEdgesCount(); e++) {
+			assertTrue(gibbsSampling.getMostProbableState(graph.getEdgeNode1(e)) != gibbsSampling.getMostProbableState(graph.getEdgeNode2(e)));
+		}
+	}
+}